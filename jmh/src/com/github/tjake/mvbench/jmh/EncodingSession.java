@@ -0,0 +1,189 @@
+package com.github.tjake.mvbench.jmh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.datastax.driver.core.CloseFuture;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.github.tjake.mvbench.backend.ErrorDistribution;
+import com.github.tjake.mvbench.backend.LatencyDistribution;
+import com.github.tjake.mvbench.backend.MemoryResultSet;
+import com.github.tjake.mvbench.backend.MemoryResultSetFuture;
+import com.github.tjake.mvbench.backend.MemorySession;
+import com.github.tjake.mvbench.backend.MemoryStore;
+
+/**
+ * A session that encodes every statement the way the driver would send it, then answers
+ * straight away without running it.
+ *
+ * Statements are prepared by a MemorySession, so what gets built and encoded is exactly
+ * what a run against the schema would send.  Not thread safe, use one per benchmark thread.
+ */
+public class EncodingSession implements Session
+{
+    private final MemorySession preparer;
+    private final ByteBuf buffer = Unpooled.buffer(64 * 1024);
+
+    //Total bytes encoded, keeps the encoding from being optimized away
+    public long bytes = 0;
+
+    public EncodingSession(MemorySession preparer)
+    {
+        this.preparer = preparer;
+    }
+
+    /**
+     * A session on one keyspace of bench_schema.cql, which is packaged with the benchmarks
+     */
+    public static EncodingSession connect(String keyspace) throws IOException
+    {
+        InputStream schema = EncodingSession.class.getResourceAsStream("/bench_schema.cql");
+        if (schema == null)
+            throw new IOException("bench_schema.cql is missing from the classpath");
+
+        MemoryStore store = new MemoryStore(LatencyDistribution.NONE, ErrorDistribution.NONE, 1);
+        try
+        {
+            store.load(CharStreams.toString(new InputStreamReader(schema, Charsets.UTF_8)));
+        }
+        finally
+        {
+            schema.close();
+        }
+
+        return new EncodingSession(store.connect(keyspace));
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(Statement statement)
+    {
+        buffer.clear();
+        bytes += DriverInternals.encode(statement, buffer);
+
+        return MemoryResultSetFuture.completed(MemoryResultSet.empty());
+    }
+
+    @Override
+    public ResultSet execute(Statement statement)
+    {
+        return executeAsync(statement).getUninterruptibly();
+    }
+
+    @Override
+    public ResultSet execute(String query)
+    {
+        return execute(prepare(query).bind());
+    }
+
+    @Override
+    public ResultSet execute(String query, Object... values)
+    {
+        return execute(prepare(query).bind(values));
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(String query)
+    {
+        return executeAsync(prepare(query).bind());
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(String query, Object... values)
+    {
+        return executeAsync(prepare(query).bind(values));
+    }
+
+    @Override
+    public PreparedStatement prepare(String query)
+    {
+        return preparer.prepare(query);
+    }
+
+    @Override
+    public PreparedStatement prepare(RegularStatement statement)
+    {
+        return preparer.prepare(statement);
+    }
+
+    @Override
+    public ListenableFuture<PreparedStatement> prepareAsync(String query)
+    {
+        return preparer.prepareAsync(query);
+    }
+
+    @Override
+    public ListenableFuture<PreparedStatement> prepareAsync(RegularStatement statement)
+    {
+        return preparer.prepareAsync(statement);
+    }
+
+    @Override
+    public SimpleStatement newSimpleStatement(String query)
+    {
+        return preparer.newSimpleStatement(query);
+    }
+
+    @Override
+    public SimpleStatement newSimpleStatement(String query, Object... values)
+    {
+        return preparer.newSimpleStatement(query, values);
+    }
+
+    @Override
+    public String getLoggedKeyspace()
+    {
+        return preparer.getLoggedKeyspace();
+    }
+
+    @Override
+    public Session init()
+    {
+        return this;
+    }
+
+    @Override
+    public CloseFuture closeAsync()
+    {
+        return preparer.closeAsync();
+    }
+
+    @Override
+    public void close()
+    {
+        preparer.close();
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return preparer.isClosed();
+    }
+
+    @Override
+    public Cluster getCluster()
+    {
+        return null;
+    }
+
+    @Override
+    public State getState()
+    {
+        return preparer.getState();
+    }
+}
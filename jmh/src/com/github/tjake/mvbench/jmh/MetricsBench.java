@@ -0,0 +1,67 @@
+package com.github.tjake.mvbench.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.codahale.metrics.Timer;
+import com.github.tjake.mvbench.playlist.AbstractPlaylist;
+
+/**
+ * Cost of the bookkeeping every operation does: a Timer.update on the HdrHistogram backed
+ * timers, and the tracker increment and decrement, alone and with every core contending.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBench
+{
+    //Created the same way as the playlist timers, so it records into an interval histogram too
+    private final Timer timer = AbstractPlaylist.timer("jmh-timer");
+
+    @State(Scope.Thread)
+    public static class Latency
+    {
+        private long nanos = 0;
+
+        //Walk a spread of latencies so the histogram touches more than one bucket
+        long next()
+        {
+            nanos = (nanos + 7919) % 50000000;
+            return nanos + 100000;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void timerUpdate(Latency latency)
+    {
+        timer.update(latency.next(), TimeUnit.NANOSECONDS);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void timerUpdateContended(Latency latency)
+    {
+        timer.update(latency.next(), TimeUnit.NANOSECONDS);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long tracker()
+    {
+        AbstractPlaylist.tracker.incrementAndGet();
+        return AbstractPlaylist.tracker.decrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long trackerContended()
+    {
+        AbstractPlaylist.tracker.incrementAndGet();
+        return AbstractPlaylist.tracker.decrementAndGet();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of generating the next operation, AbstractPlaylist.Factory.next()
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBench
+{
+    @Param({"true", "false"})
+    public boolean isManual;
+
+    //Same as the Bench defaults
+    @Param({"20"})
+    public int songsPerPlaylist;
+
+    @Param({"0.0", "0.2"})
+    public double percentRead;
+
+    private AbstractPlaylist.Factory factory;
+
+    @Setup
+    public void setup()
+    {
+        SongCatalog catalog = new SongCatalog(100000, 1000, 10);
+
+        double[] read = new double[View.values().length];
+        for (View view : View.values())
+            read[view.ordinal()] = percentRead / read.length;
+
+        factory = new AbstractPlaylist.Factory(new Random(1238888L), 0, 1, 10000, songsPerPlaylist, catalog, 0.1, 0.1, read, isManual);
+    }
+
+    @Benchmark
+    public AbstractPlaylist next()
+    {
+        return factory.next();
+    }
+}
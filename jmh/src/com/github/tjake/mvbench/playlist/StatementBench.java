@@ -0,0 +1,94 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.github.tjake.mvbench.jmh.EncodingSession;
+
+/**
+ * Cost of building and encoding the statements for one operation, for both playlist types.
+ *
+ * Operations go through write() in INLINE mode, the same path a shard drives, against a
+ * session that encodes each request as the driver would and answers straight away.  The
+ * metric and callback work that follows a response is included.  Manual updates and deletes
+ * run with the state cache so they build their full batches without a read first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatementBench
+{
+    @Param({"true", "false"})
+    public boolean isManual;
+
+    @Param({"ADD", "UPDATE", "DELETE"})
+    public String operation;
+
+    @Param({"LOGGED", "UNLOGGED"})
+    public WriteStrategy writeStrategy;
+
+    @Param({"20"})
+    public int songsPerPlaylist;
+
+    private static final int playlists = 1024;
+
+    private AbstractPlaylist.Type type;
+    private EncodingSession session;
+    private AbstractPlaylist[] operations;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        type = AbstractPlaylist.Type.valueOf(operation);
+
+        AbstractPlaylist.setExecutionMode(AbstractPlaylist.ExecutionMode.INLINE);
+        ManualPlaylist.writeStrategy = writeStrategy;
+        ManualPlaylist.stateCache = isManual && type != AbstractPlaylist.Type.ADD ? new PlaylistStateCache(playlists) : null;
+
+        session = EncodingSession.connect(isManual ? "manual" : "mview");
+
+        SongCatalog catalog = new SongCatalog(100000, 1000, 10);
+        operations = new AbstractPlaylist[playlists];
+
+        for (int i = 0; i < playlists; i++)
+        {
+            int[] songs = new int[songsPerPlaylist];
+            for (int j = 0; j < songsPerPlaylist; j++)
+                songs[j] = (i * songsPerPlaylist + j) % catalog.numSongs;
+
+            operations[i] = AbstractPlaylist.create(catalog, isManual, i % 100, i, songs, type);
+
+            if (ManualPlaylist.stateCache != null)
+                ManualPlaylist.stateCache.put(operations[i].userName, operations[i].playlistName, songs);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        ManualPlaylist.stateCache = null;
+        ManualPlaylist.writeStrategy = WriteStrategy.LOGGED;
+        AbstractPlaylist.setExecutionMode(AbstractPlaylist.ExecutionMode.POOLED);
+    }
+
+    @Benchmark
+    public long write() throws InterruptedException
+    {
+        AbstractPlaylist playlist = operations[next++ & (playlists - 1)];
+
+        //Deletes drop the playlist from the cache, put it back so every delete builds the full batch
+        if (ManualPlaylist.stateCache != null && type == AbstractPlaylist.Type.DELETE)
+            ManualPlaylist.stateCache.put(playlist.userName, playlist.playlistName, playlist.songs);
+
+        AbstractPlaylist.limiter.acquire();
+        playlist.write(session);
+
+        return session.bytes;
+    }
+}
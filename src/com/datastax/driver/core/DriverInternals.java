@@ -0,0 +1,175 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Builds the driver objects the in memory backend hands back to the playlists, and encodes
+ * and sizes statements and frames the way the driver sends and reads them.
+ *
+ * The constructors, encoders and frames are package private, so this has to live in the driver's package.
+ * They aren't part of the driver's API and change between releases, so this only runs against
+ * the version it was written for and refuses to load against any other.
+ */
+public class DriverInternals
+{
+    //The driver version in the pom, bump both together once this is checked against the new one
+    public static final String DRIVER_VERSION = "3.0.0-alpha3";
+
+    static
+    {
+        String version = Cluster.getDriverVersion();
+        if (!DRIVER_VERSION.equals(version))
+            throw new IllegalStateException("DriverInternals reaches into the internals of driver " + DRIVER_VERSION + " but found driver " + version);
+    }
+
+    private static final ProtocolVersion protocolVersion = ProtocolVersion.V4;
+
+    public static ColumnDefinitions columns(String keyspace, String table, List<String> names, List<DataType> types)
+    {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[names.size()];
+        for (int i = 0; i < definitions.length; i++)
+            definitions[i] = new ColumnDefinitions.Definition(keyspace, table, names.get(i), types.get(i));
+
+        ColumnDefinitions columns = new ColumnDefinitions(definitions);
+        columns.setCodecRegistry(CodecRegistry.DEFAULT_INSTANCE);
+
+        return columns;
+    }
+
+    /**
+     * @param routingKeyIndexes the variables making up the partition key, in key order, or null if they aren't all bound
+     */
+    public static PreparedId preparedId(ColumnDefinitions variables, ColumnDefinitions resultSet, int[] routingKeyIndexes)
+    {
+        UUID id = UUID.randomUUID();
+        byte[] digest = ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+
+        return new PreparedId(MD5Digest.wrap(digest), variables, resultSet, routingKeyIndexes, protocolVersion);
+    }
+
+    public static Row row(ColumnDefinitions columns, List<ByteBuffer> values)
+    {
+        return ArrayBackedRow.fromData(columns, null, protocolVersion, values);
+    }
+
+    /**
+     * Rethrows the cause of a failed request the way the driver's own futures do
+     */
+    public static RuntimeException propagateCause(ExecutionException e)
+    {
+        return DriverThrowables.propagateCause(e);
+    }
+
+    /**
+     * Writes a bound statement or batch to out the way the driver frames it for the server
+     *
+     * @return the number of bytes written
+     */
+    public static int encode(Statement statement, ByteBuf out)
+    {
+        int start = out.writerIndex();
+
+        if (statement instanceof BatchStatement)
+            Requests.Batch.coder.encode(batch((BatchStatement) statement), out, protocolVersion);
+        else
+            Requests.Execute.coder.encode(execute(statement), out, protocolVersion);
+
+        return out.writerIndex() - start;
+    }
+
+    /**
+     * The bytes a bound statement or batch takes on the wire, its frame header included,
+     * worked out by the driver's encoders without encoding it
+     */
+    public static int encodedSize(Statement statement)
+    {
+        int size;
+        if (statement instanceof BatchStatement)
+        {
+            size = Requests.Batch.coder.encodedSize(batch((BatchStatement) statement), protocolVersion);
+        }
+        else
+        {
+            //This driver only counts an execute's default timestamp for V3, but always sends
+            //one, as timestamp() never leaves it unset
+            size = Requests.Execute.coder.encodedSize(execute(statement), protocolVersion) + 8;
+        }
+
+        return Frame.Header.lengthFor(protocolVersion) + size;
+    }
+
+    /**
+     * The bytes a bound statement takes up inside a batch: its kind, prepared id and values
+     */
+    public static int batchEntrySize(Statement statement)
+    {
+        BoundStatement bound = (BoundStatement) statement;
+
+        int size = 1 + 2 + bound.statement.getPreparedId().id.bytes.length + 2;
+        for (ByteBuffer value : bound.wrapper.values)
+            size += 4 + (value == null ? 0 : value.remaining());
+
+        return size;
+    }
+
+    /**
+     * The bytes a frame the driver decoded took on the wire, before any decompression
+     *
+     * @return -1 if msg isn't a frame
+     */
+    public static int frameSize(Object msg)
+    {
+        if (!(msg instanceof Frame))
+            return -1;
+
+        Frame frame = (Frame) msg;
+        return Frame.Header.lengthFor(frame.header.version) + frame.body.readableBytes();
+    }
+
+    private static Requests.Batch batch(BatchStatement batch)
+    {
+        BatchStatement.IdAndValues idAndValues = batch.getIdAndValues();
+
+        return new Requests.Batch(batch.batchType, idAndValues.ids, idAndValues.values,
+                                  new Requests.BatchProtocolOptions(consistency(batch), serialConsistency(batch), timestamp(batch)), batch.isTracing());
+    }
+
+    private static Requests.Execute execute(Statement statement)
+    {
+        if (!(statement instanceof BoundStatement))
+            throw new IllegalArgumentException("Only bound statements and batches can be encoded, not " + statement.getClass());
+
+        BoundStatement bound = (BoundStatement) statement;
+        int fetchSize = bound.getFetchSize() > 0 ? bound.getFetchSize() : QueryOptions.DEFAULT_FETCH_SIZE;
+
+        Requests.QueryProtocolOptions options = new Requests.QueryProtocolOptions(consistency(bound), Arrays.asList(bound.wrapper.values), false,
+                                                                                  fetchSize, null, serialConsistency(bound), timestamp(bound));
+        return new Requests.Execute(bound.statement.getPreparedId().id, options, bound.isTracing());
+    }
+
+    private static ConsistencyLevel consistency(Statement statement)
+    {
+        return statement.getConsistencyLevel() == null ? ConsistencyLevel.ONE : statement.getConsistencyLevel();
+    }
+
+    private static ConsistencyLevel serialConsistency(Statement statement)
+    {
+        return statement.getSerialConsistencyLevel() == null ? ConsistencyLevel.SERIAL : statement.getSerialConsistencyLevel();
+    }
+
+    private static long timestamp(Statement statement)
+    {
+        return statement.getDefaultTimestamp() != Long.MIN_VALUE ? statement.getDefaultTimestamp() : System.currentTimeMillis() * 1000;
+    }
+
+    public static CloseFuture closed()
+    {
+        return CloseFuture.immediateFuture();
+    }
+}
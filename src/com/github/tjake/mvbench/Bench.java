@@ -4,21 +4,56 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
-import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.Uninterruptibles;
 
 import com.codahale.metrics.ConsoleReporter;
 import com.codahale.metrics.CsvReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.PoolingOptions;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 import com.datastax.driver.core.policies.DowngradingConsistencyRetryPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.github.tjake.mvbench.backend.Backend;
+import com.github.tjake.mvbench.backend.ErrorDistribution;
+import com.github.tjake.mvbench.backend.LatencyDistribution;
+import com.github.tjake.mvbench.backend.MemoryStore;
+import com.github.tjake.mvbench.backend.MemoryTable;
+import com.github.tjake.mvbench.metrics.ClientCpu;
+import com.github.tjake.mvbench.metrics.HistogramLogger;
+import com.github.tjake.mvbench.metrics.MetricsServer;
+import com.github.tjake.mvbench.metrics.Warmup;
 import com.github.tjake.mvbench.playlist.AbstractPlaylist;
+import com.github.tjake.mvbench.playlist.ConvergenceProber;
+import com.github.tjake.mvbench.playlist.CountingRetryPolicy;
+import com.github.tjake.mvbench.playlist.Failures;
+import com.github.tjake.mvbench.playlist.HostMetrics;
+import com.github.tjake.mvbench.playlist.InFlightLimiter;
+import com.github.tjake.mvbench.playlist.KeyDistribution;
+import com.github.tjake.mvbench.playlist.ManualPlaylist;
+import com.github.tjake.mvbench.playlist.MaterializedViewPlaylist;
+import com.github.tjake.mvbench.playlist.OperationLog;
+import com.github.tjake.mvbench.playlist.PlaylistStateCache;
+import com.github.tjake.mvbench.playlist.SongCatalog;
+import com.github.tjake.mvbench.playlist.SpeculativeReads;
+import com.github.tjake.mvbench.playlist.Traffic;
+import com.github.tjake.mvbench.playlist.View;
+import com.github.tjake.mvbench.playlist.ViewBuckets;
+import com.github.tjake.mvbench.playlist.Workload;
+import com.github.tjake.mvbench.playlist.WorkloadPlaylist;
+import com.github.tjake.mvbench.playlist.WriteStrategy;
 import io.airlift.airline.Command;
 import io.airlift.airline.HelpOption;
 import io.airlift.airline.Option;
@@ -48,68 +83,380 @@ public class Bench
     @Option(name = {"-g", "--num-genres"}, description = "The total number of genres in the system")
     public int numGenres = 10;
 
+    @Option(name = {"--user-distribution"}, description = "How users are picked: sequential, uniform, zipfian:theta, hotspot:keys:ops or latest:theta")
+    public String userDistribution = "sequential";
+
+    @Option(name = {"--song-distribution"}, description = "How songs are picked: sequential, uniform, zipfian:theta, hotspot:keys:ops or latest:theta")
+    public String songDistribution = "sequential";
+
+    @Option(name = {"--artist-distribution"}, description = "How songs are spread over the artists: sequential, uniform, zipfian:theta, hotspot:keys:ops or latest:theta")
+    public String artistDistribution = "sequential";
+
+    @Option(name = {"--genre-distribution"}, description = "How artists are spread over the genres: sequential, uniform, zipfian:theta, hotspot:keys:ops or latest:theta")
+    public String genreDistribution = "sequential";
+
     @Option(name = {"-d", "--percent-delete"})
     public double percentDelete = 0.25;
 
     @Option(name = {"-b", "--percent-update"})
     public double percentUpdate = 0.25;
 
+    @Option(name = {"--percent-read-song"}, description = "The chance an operation reads song_to_user")
+    public double percentReadSong = 0.0;
+
+    @Option(name = {"--percent-read-artist"}, description = "The chance an operation reads artist_to_user")
+    public double percentReadArtist = 0.0;
+
+    @Option(name = {"--percent-read-genre"}, description = "The chance an operation reads genre_to_user")
+    public double percentReadGenre = 0.0;
+
+    @Option(name = {"--percent-read-recent"}, description = "The chance an operation reads recently_played")
+    public double percentReadRecent = 0.0;
+
+    @Option(name = {"--read-page-size"}, description = "The number of rows fetched per view read")
+    public int readPageSize = 100;
+
+    @Option(name = {"--probe-fraction"}, description = "Poll the views after this share of the writes to measure how long the change takes to show up in them (0 disables)")
+    public double probeFraction = 0.0;
+
+    @Option(name = {"--probe-interval-ms"}, description = "How often a probe polls a view row")
+    public long probeIntervalMs = 10;
+
+    @Option(name = {"--probe-timeout-ms"}, description = "A view row that isn't right this long after the write counts as unconverged")
+    public long probeTimeoutMs = 10000;
+
+    @Option(name = {"--max-probes"}, description = "The most view rows polled at once, writes sampled past this aren't probed")
+    public int maxProbes = 1000;
+
+    @Option(name = {"--speculative-percentile"}, description = "In manual mode send a second copy of the reads before updates and deletes when the first takes longer than this percentile of recent reads, e.g. 99 (0 disables)")
+    public double speculativePercentile = 0;
+
+    @Option(name = {"--speculative-min-delay-ms"}, description = "Never send the second copy of a read sooner than this")
+    public double speculativeMinDelayMs = 1;
+
+    @Option(name = {"--traffic"}, description = "Count the requests, mutations and bytes each operation type sends and gets back, per type and per table")
+    public boolean countTraffic = false;
+
     @Option(name = {"-n", "--num-iter"}, description = "The number of iterations")
     public long numberIterations = 100000;
 
+    @Option(name = {"--duration"}, description = "Run for this many seconds instead of --num-iter iterations")
+    public int durationSeconds = 0;
+
+    @Option(name = {"--ramp-start"}, description = "Ramp the rate up from this many playlists per sec until it can't be sustained, in place of --maxplaylistspersec (0 disables)")
+    public double rampStart = 0;
+
+    @Option(name = {"--ramp-step"}, description = "How much each ramp step adds to the rate")
+    public double rampStep = 1000;
+
+    @Option(name = {"--ramp-step-seconds"}, description = "How long each ramp step runs")
+    public int rampStepSeconds = 30;
+
+    @Option(name = {"--ramp-max"}, description = "Stop the ramp after this rate (0 for no limit)")
+    public double rampMax = 0;
+
+    @Option(name = {"--sla-p99-ms"}, description = "A ramp step fails when its corrected p99 is above this")
+    public double slaP99Ms = 100;
+
+    @Option(name = {"--max-error-rate"}, description = "A ramp step fails when more than this share of its operations fail")
+    public double maxErrorRate = 0.01;
+
+    @Option(name = {"--populate"}, description = "Load this many playlists as fast as possible, with unlogged batches grouped by partition, and exit (0 runs the benchmark)")
+    public long populateCount = 0;
+
+    @Option(name = {"--compare-trials"}, description = "Run manual and materialized view mode against each other this many times, alternating which goes first, and report the differences with confidence intervals")
+    public int compareTrials = 0;
+
+    @Option(name = {"--compare-window-seconds"}, description = "With --compare-trials, run each mode for this many seconds per trial (0 runs --duration or --num-iter)")
+    public int compareWindowSeconds = 0;
+
+    @Option(name = {"--compare-timers"}, description = "With --compare-trials, the timers to compare")
+    public String compareTimers = "total,add,update,delete";
+
     @Option(name = {"--seed"}, description = "The seed")
     public long seed = 1238888L;
 
     @Option(name = {"--manual"}, description = "Should the views be managed manually")
     public boolean isManual = false;
 
-    @Option(name = {"--endpoint"}, description = "the cassandra endpoint")
+    @Option(name = {"--endpoint"}, description = "the cassandra contact points, comma separated")
     public String cassandraEndpoint = "127.0.0.1";
 
+    @Option(name = {"--load-balancing"}, description = "How requests pick their coordinator: TOKEN_AWARE (a replica of the partition, in the local DC), DC_AWARE (round robin over the local DC) or ROUND_ROBIN (every host)")
+    public LoadBalancing loadBalancing = LoadBalancing.TOKEN_AWARE;
+
+    @Option(name = {"--local-dc"}, description = "The local datacenter for TOKEN_AWARE and DC_AWARE, by default the one of the contact points")
+    public String localDc = null;
+
+    @Option(name = {"--connections-per-host"}, description = "The connections to each host (0 sizes the pool from --maxinflight and --max-requests-per-connection)")
+    public int connectionsPerHost = 8;
+
+    @Option(name = {"--max-requests-per-connection"}, description = "The most requests in flight on one connection")
+    public int maxRequestsPerConnection = 128;
+
+    @Option(name = {"--new-connection-threshold"}, description = "Open another connection to a host once its connections average this many requests in flight")
+    public int newConnectionThreshold = 100;
+
     @Option(name = {"--maxinflight"}, description = "max requests in flight at a time")
     public int maxInFlight = 1000;
 
+    @Option(name = {"--adaptive-inflight"}, description = "Adjust the in flight limit between --mininflight and --maxinflight based on latency and errors")
+    public boolean isAdaptiveInFlight = false;
+
+    @Option(name = {"--mininflight"}, description = "the lowest the adaptive in flight limit can go")
+    public int minInFlight = 16;
+
+    @Option(name = {"--latency-tolerance"}, description = "back off the adaptive in flight limit when latency rises past this multiple of the lowest latency seen")
+    public double latencyTolerance = 2.0;
+
     @Option(name = {"--maxplaylistspersec"}, description = "generate max playlists per sec")
     public int maxPlaylistsPerSec = 5000;
 
-    void run()
-    {
-        Random random = new Random(seed);
+    @Option(name = {"--open-loop"}, description = "Schedule operations at a fixed rate and measure latency from the intended start time.  The in flight limit still holds back issuing, time spent waiting on it shows up in the corrected latency")
+    public boolean isOpenLoop = false;
 
-        AbstractPlaylist.Factory factory = new AbstractPlaylist.Factory(random, numUsers, songsPerPlaylists, numSongs, numArtists, numGenres, percentDelete, percentUpdate, isManual);
+    @Option(name = {"--shards"}, description = "Split the users and playlists into this many shards, each generated on its own thread (at most --num-users)")
+    public int numShards = 1;
 
-        PoolingOptions poolingOpts = new PoolingOptions()
-                .setConnectionsPerHost(HostDistance.LOCAL, 8, 8)
-                .setMaxRequestsPerConnection(HostDistance.LOCAL, 128)
-                .setNewConnectionThreshold(HostDistance.LOCAL, 100);
+    @Option(name = {"--hlog-interval"}, description = "Write a HdrHistogram interval log (.hlog) per timer every this many seconds (0 disables)")
+    public int hlogIntervalSeconds = 0;
 
-        Cluster cluster = new Cluster.Builder()
-                .addContactPoint(cassandraEndpoint)
-                .withoutMetrics()
-                .withoutJMXReporting()
-                .withPoolingOptions(poolingOpts)
-                .withRetryPolicy(DowngradingConsistencyRetryPolicy.INSTANCE)
-                .build();
+    @Option(name = {"--metrics-port"}, description = "Serve the live metrics, last second latencies and rates included, on this port as Prometheus text (/metrics) and JSON (/metrics.json) (0 disables)")
+    public int metricsPort = 0;
+
+    @Option(name = {"--metrics-host"}, description = "The address the metrics are served on")
+    public String metricsHost = "127.0.0.1";
+
+    @Option(name = {"--warmup-seconds"}, description = "Leave at least this many seconds at the start out of the reports (kept as warmup-* instead)")
+    public int warmupSeconds = 0;
+
+    @Option(name = {"--warmup-ops"}, description = "Leave at least this many completed operations at the start out of the reports")
+    public long warmupOps = 0;
+
+    @Option(name = {"--steady-state-window"}, description = "After the warmup, also wait until throughput and p99 have been steady for this many seconds (0 disables)")
+    public int steadyStateWindow = 0;
+
+    @Option(name = {"--steady-state-tolerance"}, description = "How much throughput and p99 may vary over the steady state window, as a coefficient of variation")
+    public double steadyStateTolerance = 0.1;
+
+    @Option(name = {"--steady-state-max-seconds"}, description = "Stop waiting for a steady state after this many seconds from the start")
+    public int steadyStateMaxSeconds = 300;
+
+    @Option(name = {"--execution"}, description = "Where playlist operations run: POOLED (worker pool), INLINE (issuing thread and driver I/O threads) or SYNC (blocking calls, a virtual thread per operation on Java 21+, platform threads before)")
+    public AbstractPlaylist.ExecutionMode executionMode = AbstractPlaylist.ExecutionMode.POOLED;
+
+    @Option(name = {"--manual-write-strategy"}, description = "How manual mode sends its writes: LOGGED (one logged batch), UNLOGGED (an unlogged batch per partition) or ASYNC (every statement on its own)")
+    public WriteStrategy writeStrategy = WriteStrategy.LOGGED;
+
+    @Option(name = {"--state-cache-size"}, description = "Keep up to this many playlists client side in manual mode so updates and deletes can skip their reads (0 disables)")
+    public long stateCacheSize = 0;
+
+    @Option(name = {"--view-buckets"}, description = "In manual mode spread each view partition over this many hash buckets, using the manual_bucketed schema (0 keeps the original layout)")
+    public int viewBuckets = 0;
+
+    @Option(name = {"--recent-bucket-seconds"}, description = "With --view-buckets, how much time each recently_played partition covers")
+    public int recentBucketSeconds = 60;
+
+    @Option(name = {"--print-bucketed-schema"}, description = "Print the CQL for the manual_bucketed schema and exit")
+    public boolean printBucketedSchema = false;
+
+    @Option(name = {"--workload"}, description = "Write the base table and views defined in this workload file instead of the built in schema (see playlists.workload)")
+    public String workloadFile = null;
+
+    @Option(name = {"--workload-views"}, description = "With --workload, use only the first this many of its views (-1 for all of them)")
+    public int workloadViews = -1;
+
+    @Option(name = {"--print-workload-schema"}, description = "Print the CQL for both modes of --workload and exit")
+    public boolean printWorkloadSchema = false;
+
+    @Option(name = {"--record"}, description = "Generate the operations into binary logs at this path (one per shard, path.N) instead of running them")
+    public String recordFile = null;
 
-        Session session = cluster.connect(isManual ? "manual" : "mview");
+    @Option(name = {"--replay"}, description = "Run the operations recorded at this path by --record, one thread per shard log")
+    public String replayFile = null;
 
-        RateLimiter limiter = RateLimiter.create(maxPlaylistsPerSec);
+    @Option(name = {"--replay-speed"}, description = "With --replay, 0 runs the operations as fast as the in flight limit allows, otherwise on the recorded schedule sped up by this factor")
+    public double replaySpeed = 0;
 
-        System.out.println("Writing for "+numberIterations+ " iterations to " + (isManual ? "manual" : "materialied view") + " schema.");
+    @Option(name = {"--backend"}, description = "Where requests go: CASSANDRA (the cluster at --endpoint) or MEMORY (an in process stand in, to measure the client alone)")
+    public Backend backend = Backend.CASSANDRA;
 
-        for (int i = 0; i < numberIterations; i++)
+    @Option(name = {"--schema"}, description = "The CQL schema the MEMORY backend creates its tables and views from")
+    public String schemaFile = "bench_schema.cql";
+
+    @Option(name = {"--memory-latency"}, description = "How long the MEMORY backend takes to answer, in microseconds: none, fixed:us, uniform:min:max, exponential:mean or normal:mean:stddev")
+    public String memoryLatency = "none";
+
+    @Option(name = {"--memory-errors"}, description = "The chance the MEMORY backend fails a request, as kind:chance with kinds timeout, unavailable and overloaded, e.g. timeout:0.01,unavailable:0.001")
+    public String memoryErrors = "none";
+
+    @Option(name = {"--memory-responder-threads"}, description = "The threads the MEMORY backend answers delayed requests on")
+    public int memoryResponderThreads = 4;
+
+    //Set when ramping, it drives the shards' rate from the interval sampler
+    Ramp ramp = null;
+
+    //Set with --populate, it reports the progress from the interval sampler
+    Populate populate = null;
+
+    //Set with --workload
+    Workload workload = null;
+
+    //Set when running against a cluster
+    HostMetrics hostMetrics = null;
+
+    public enum LoadBalancing
+    {
+        TOKEN_AWARE, DC_AWARE, ROUND_ROBIN;
+
+        LoadBalancingPolicy policy(String localDc)
         {
+            if (this == ROUND_ROBIN)
+                return new RoundRobinPolicy();
 
-            while (AbstractPlaylist.tracker.get() > maxInFlight)
-                Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+            LoadBalancingPolicy dcAware = localDc == null ? new DCAwareRoundRobinPolicy() : new DCAwareRoundRobinPolicy(localDc);
+            return this == TOKEN_AWARE ? new TokenAwarePolicy(dcAware) : dcAware;
+        }
+    }
 
-            limiter.acquire();
+    /**
+     * Enough connections per host for every operation in flight to be sent to one host at
+     * once, as can happen with a hot partition.  Manual writes sent as separate statements
+     * count as one request per view row
+     */
+    int autoConnectionsPerHost()
+    {
+        int requestsPerOp = isManual && writeStrategy != WriteStrategy.LOGGED ? 4 * songsPerPlaylists : 1;
+        long requests = (long) maxInFlight * requestsPerOp;
 
-            factory.next().write(session);
+        return (int) Math.max(1, Math.min(64, (requests + maxRequestsPerConnection - 1) / maxRequestsPerConnection));
+    }
+
+    /**
+     * Loads --workload, its mix replaces --percent-update and --percent-delete when it has one
+     */
+    void loadWorkload() throws IOException
+    {
+        if (workloadFile == null)
+            return;
+
+        workload = Workload.load(new File(workloadFile));
+        if (workloadViews >= 0)
+            workload = workload.withViews(workloadViews);
+
+        if (workload.percentUpdate >= 0)
+            percentUpdate = workload.percentUpdate;
+
+        if (workload.percentDelete >= 0)
+            percentDelete = workload.percentDelete;
+
+        if (percentReadSong + percentReadArtist + percentReadGenre + percentReadRecent > 0)
+            throw new IllegalArgumentException("Workload files only define writes, they can't be used with --percent-read-*");
+
+        if (viewBuckets > 0 || stateCacheSize > 0 || probeFraction > 0)
+            throw new IllegalArgumentException("--view-buckets, --state-cache-size and --probe-fraction only apply to the built in schema, not --workload");
+
+        //Updates play the second song of a playlist
+        if (songsPerPlaylists < 2)
+            throw new IllegalArgumentException("Workload playlists need at least 2 songs, not --songs-per-playlist " + songsPerPlaylists);
+
+        WorkloadPlaylist.workload = workload;
+    }
+
+    String keyspace()
+    {
+        if (workload != null)
+            return workload.keyspace(isManual);
 
-            if (i % 10000 == 0)
-                System.err.println("Iteration " + i + ", Tracker at " + AbstractPlaylist.tracker.get());
+        return isManual ? (viewBuckets > 0 ? ViewBuckets.KEYSPACE : "manual") : "mview";
+    }
+
+    void run() throws IOException
+    {
+        AbstractPlaylist.setExecutionMode(executionMode);
+        if (AbstractPlaylist.syncExecutor != null)
+            System.out.println("Running each operation on a " + (AbstractPlaylist.syncExecutor.isVirtual() ? "virtual" : "platform") + " thread of its own");
+        ManualPlaylist.writeStrategy = populate != null ? WriteStrategy.UNLOGGED : writeStrategy;
+        MaterializedViewPlaylist.batchType = populate != null ? BatchStatement.Type.UNLOGGED : BatchStatement.Type.LOGGED;
+        ManualPlaylist.stateCache = stateCacheSize > 0 ? new PlaylistStateCache(stateCacheSize) : null;
+        ManualPlaylist.buckets = viewBuckets > 0 ? new ViewBuckets(viewBuckets, TimeUnit.SECONDS.toMillis(recentBucketSeconds)) : null;
+        AbstractPlaylist.limiter = isAdaptiveInFlight ? InFlightLimiter.adaptive(minInFlight, maxInFlight, latencyTolerance) : InFlightLimiter.fixed(maxInFlight);
+
+        AbstractPlaylist.readPageSize = readPageSize;
+        AbstractPlaylist.traffic = countTraffic ? new Traffic() : null;
+        AbstractPlaylist.speculativeReads = speculativePercentile > 0 ? new SpeculativeReads(speculativePercentile, speculativeMinDelayMs) : null;
+
+        SongCatalog catalog = catalog();
+
+        String keyspace = keyspace();
+
+        Cluster cluster = null;
+        MemoryStore store = null;
+        Session session;
+
+        if (backend == Backend.MEMORY)
+        {
+            store = new MemoryStore(LatencyDistribution.parse(memoryLatency), ErrorDistribution.parse(memoryErrors), memoryResponderThreads);
+            if (workload != null)
+                store.load(workload.schema(isManual));
+            else
+                store.load(new File(schemaFile));
+
+            session = store.connect(keyspace);
         }
+        else
+        {
+            int connections = connectionsPerHost > 0 ? connectionsPerHost : autoConnectionsPerHost();
+            PoolingOptions poolingOpts = new PoolingOptions()
+                    .setConnectionsPerHost(HostDistance.LOCAL, connections, connections)
+                    .setMaxRequestsPerConnection(HostDistance.LOCAL, maxRequestsPerConnection)
+                    .setNewConnectionThreshold(HostDistance.LOCAL, Math.min(newConnectionThreshold, maxRequestsPerConnection));
+
+            Cluster.Builder builder = new Cluster.Builder()
+                    .addContactPoints(cassandraEndpoint.split("\\s*,\\s*"))
+                    .withLoadBalancingPolicy(loadBalancing.policy(localDc))
+                    .withoutMetrics()
+                    .withoutJMXReporting()
+                    .withPoolingOptions(poolingOpts)
+                    .withRetryPolicy(new CountingRetryPolicy(DowngradingConsistencyRetryPolicy.INSTANCE));
+
+            if (AbstractPlaylist.traffic != null)
+                builder.withNettyOptions(AbstractPlaylist.traffic.wireCounter());
+
+            cluster = builder.build();
+
+            //A workload's schema depends on its views, so it is created here rather than up front
+            if (workload != null)
+            {
+                Session setup = cluster.connect();
+                for (String statement : workload.schema(isManual).split(";"))
+                {
+                    if (!statement.trim().isEmpty())
+                        setup.execute(statement);
+                }
+
+                setup.close();
+            }
+
+            hostMetrics = new HostMetrics();
+            cluster.register(hostMetrics);
+
+            session = cluster.connect(keyspace);
+            hostMetrics.watch(session);
+            System.out.println("Connected to " + session.getState().getConnectedHosts().size() + " hosts with " + connections + " connections each, "
+                               + loadBalancing + " load balancing");
+        }
+
+        if (probeFraction > 0)
+            AbstractPlaylist.prober = new ConvergenceProber(session, probeFraction, probeIntervalMs, probeTimeoutMs, maxProbes);
+
+        Thread[] threads = populate != null ? populate(catalog, session) : replayFile != null ? replay(catalog, session) : generate(catalog, session);
+
+        for (Thread thread : threads)
+            Uninterruptibles.joinUninterruptibly(thread);
+
+        //Every operation holds its limiter permit from before it is queued until it finishes
+        AbstractPlaylist.limiter.drain();
 
         while (AbstractPlaylist.tracker.get() > 1)
         {
@@ -117,7 +464,197 @@ public class Bench
             Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
         }
 
-        cluster.close();
+        if (AbstractPlaylist.prober != null)
+            AbstractPlaylist.prober.drain();
+
+        if (store != null)
+        {
+            for (MemoryTable table : store.tables(keyspace))
+                System.out.println("In memory " + keyspace + "." + table.name + (table.isView() ? " (view)" : "") + " holds " + table.size() + " rows");
+
+            store.close();
+        }
+
+        session.close();
+        if (cluster != null)
+            cluster.close();
+    }
+
+    SongCatalog catalog()
+    {
+        return new SongCatalog(numSongs, KeyDistribution.parse("artists", artistDistribution, numArtists),
+                               KeyDistribution.parse("genres", genreDistribution, numGenres));
+    }
+
+    AbstractPlaylist.Factory[] factories(SongCatalog catalog)
+    {
+        double[] percentRead = new double[View.values().length];
+        percentRead[View.SONG_TO_USER.ordinal()] = percentReadSong;
+        percentRead[View.ARTIST_TO_USER.ordinal()] = percentReadArtist;
+        percentRead[View.GENRE_TO_USER.ordinal()] = percentReadGenre;
+        percentRead[View.RECENTLY_PLAYED.ordinal()] = percentReadRecent;
+
+        if (numShards < 1 || numShards > numUsers)
+            throw new IllegalArgumentException("--shards must be between 1 and --num-users " + numUsers + ", not " + numShards);
+
+        //The distributions are immutable and shared by every shard.  Shards own every numShards'th
+        //user, so the first numUsers % numShards shards have one more than the rest
+        int usersPerShard = numUsers / numShards;
+        KeyDistribution users = KeyDistribution.parse("users", userDistribution, usersPerShard);
+        KeyDistribution moreUsers = numUsers % numShards == 0 ? users : KeyDistribution.parse("users", userDistribution, usersPerShard + 1);
+        KeyDistribution songs = KeyDistribution.parse("songs", songDistribution, numSongs);
+
+        //Each shard gets its own deterministic seed so a given seed and shard count always
+        //produces the same operation stream
+        AbstractPlaylist.Factory[] factories = new AbstractPlaylist.Factory[numShards];
+        for (int i = 0; i < numShards; i++)
+        {
+            factories[i] = new AbstractPlaylist.Factory(new Random(seed + i), i, numShards, numUsers, songsPerPlaylists, catalog, percentDelete, percentUpdate, percentRead,
+                                                        i < numUsers % numShards ? moreUsers : users, songs, isManual);
+        }
+
+        return factories;
+    }
+
+    //Spread the remainder over the first shards so we still issue exactly numberIterations
+    long shardIterations(int shard)
+    {
+        return numberIterations / numShards + (shard < numberIterations % numShards ? 1 : 0);
+    }
+
+    Thread[] generate(SongCatalog catalog, Session session)
+    {
+        AbstractPlaylist.Factory[] factories = factories(catalog);
+
+        String length = ramp != null ? "a ramp from " + rampStart + "/s by " + rampStep + "/s every " + rampStepSeconds + "s" + (durationSeconds > 0 ? " (at most " + durationSeconds + "s)" : "")
+                        : durationSeconds > 0 ? durationSeconds + "s" : numberIterations + " iterations";
+
+        System.out.println("Writing for " + length + " to " + (isManual ? "manual" : "materialied view") + " schema" + (backend == Backend.MEMORY ? " in memory (latency " + memoryLatency + ", errors " + memoryErrors + ")" : "") + (isOpenLoop ? " (open loop)" : "") + " using " + numShards + " shard(s), " + executionMode + " execution" + (isManual ? ", " + writeStrategy + " writes" + (viewBuckets > 0 ? " over " + viewBuckets + " view buckets." : ".") : "."));
+
+        if (workload != null)
+            System.out.println("Workload " + workload + " in keyspace " + keyspace() + ", " + percentUpdate + " updates and " + percentDelete + " deletes");
+
+        System.out.println("Keys picked with users " + userDistribution + ", songs " + songDistribution + ", artists " + artistDistribution + ", genres " + genreDistribution);
+
+        //Duration and ramp runs go until they are stopped, not for a number of iterations
+        boolean isTimed = durationSeconds > 0 || ramp != null;
+        long deadline = durationSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds) : Long.MAX_VALUE;
+        double rate = ramp != null ? ramp.getStartRate() : maxPlaylistsPerSec;
+
+        Shard[] shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++)
+            shards[i] = new Shard(i, factories[i], session, isTimed ? Long.MAX_VALUE : shardIterations(i), rate / numShards, isOpenLoop, deadline);
+
+        if (ramp != null)
+            ramp.control(shards);
+
+        Thread[] threads = new Thread[numShards];
+        for (int i = 0; i < numShards; i++)
+        {
+            threads[i] = new Thread(shards[i], "shard-" + i);
+            threads[i].start();
+        }
+
+        return threads;
+    }
+
+    Thread[] populate(SongCatalog catalog, Session session)
+    {
+        System.out.println("Populating " + populateCount + " playlists into the " + (isManual ? "manual" : "materialied view") + " schema" + (backend == Backend.MEMORY ? " in memory" : "") + " using " + numShards + " shard(s), " + executionMode + " execution, unlogged batches per partition.");
+
+        return populate.start(factories(catalog), session);
+    }
+
+    //The rows one playlist add writes, the base table's and those of the views we keep ourselves
+    int rowsPerPlaylist()
+    {
+        int views = isManual ? (workload != null ? workload.views.size() : 3) : 0;
+        return songsPerPlaylists * (1 + views);
+    }
+
+    Thread[] replay(SongCatalog catalog, Session session) throws IOException
+    {
+        List<OperationLog.Reader> readers = new ArrayList<OperationLog.Reader>();
+        for (File log = new File(replayFile + ".0"); log.exists(); log = new File(replayFile + "." + readers.size()))
+            readers.add(new OperationLog.Reader(log, catalog, isManual));
+
+        if (readers.isEmpty())
+            throw new IOException("No operation logs at " + replayFile + ".0");
+
+        System.out.println("Replaying " + readers.size() + " operation log(s) from " + replayFile + " to " + (isManual ? "manual" : "materialied view") + " schema" + (backend == Backend.MEMORY ? " in memory" : "") + (replaySpeed > 0 ? " at " + replaySpeed + "x the recorded rate" : " as fast as possible") + ", " + executionMode + " execution" + (isManual ? ", " + writeStrategy + " writes." : "."));
+
+        Thread[] threads = new Thread[readers.size()];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(new Replay(i, readers.get(i), session, replaySpeed), "replay-" + i);
+            threads[i].start();
+        }
+
+        return threads;
+    }
+
+    /**
+     * Generates each shard's operations into its own log, scheduled the way an open loop
+     * run at --maxplaylistspersec would issue them
+     */
+    void record() throws IOException
+    {
+        SongCatalog catalog = catalog();
+        AbstractPlaylist.Factory[] factories = factories(catalog);
+
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (maxPlaylistsPerSec / (double) numShards);
+
+        for (int i = 0; i < numShards; i++)
+        {
+            File log = new File(recordFile + "." + i);
+            OperationLog.Writer writer = new OperationLog.Writer(log, catalog);
+            try
+            {
+                for (long j = 0; j < shardIterations(i); j++)
+                    writer.append((long) (j * intervalNanos), factories[i].next());
+            }
+            finally
+            {
+                writer.close();
+            }
+
+            System.out.println("Recorded " + writer.count() + " operations to " + log);
+        }
+    }
+
+    static void printLatencyComparison()
+    {
+        System.out.println("===LATENCY REPORT (ms) uncorrected / corrected===");
+        System.out.println(String.format("%-16s %17s %17s %17s %17s %17s", "op", "p50", "p99", "p999", "max", "mean"));
+
+        printLatencyComparison("total", AbstractPlaylist.totalTimer, AbstractPlaylist.totalCorrectedTimer);
+        printLatencyComparison("add", AbstractPlaylist.addTimer, AbstractPlaylist.addCorrectedTimer);
+        printLatencyComparison("update", AbstractPlaylist.updateTimer, AbstractPlaylist.updateCorrectedTimer);
+        printLatencyComparison("delete", AbstractPlaylist.deleteTimer, AbstractPlaylist.deleteCorrectedTimer);
+
+        for (View view : View.values())
+        {
+            if (view.timer.getCount() > 0)
+                printLatencyComparison(view.table, view.timer, view.correctedTimer);
+        }
+    }
+
+    static void printLatencyComparison(String name, Timer timer, Timer correctedTimer)
+    {
+        Snapshot s = timer.getSnapshot();
+        Snapshot c = correctedTimer.getSnapshot();
+
+        System.out.println(String.format("%-16s %17s %17s %17s %17s %17s", name,
+                                         pair(s.getMedian(), c.getMedian()),
+                                         pair(s.get99thPercentile(), c.get99thPercentile()),
+                                         pair(s.get999thPercentile(), c.get999thPercentile()),
+                                         pair(s.getMax(), c.getMax()),
+                                         pair(s.getMean(), c.getMean())));
+    }
+
+    private static String pair(double uncorrectedNanos, double correctedNanos)
+    {
+        return String.format("%.2f/%.2f", uncorrectedNanos / 1000000d, correctedNanos / 1000000d);
     }
 
     public static void main(String[] args)
@@ -129,6 +666,65 @@ public class Bench
             return;
         }
 
+        if (bench.printBucketedSchema)
+        {
+            System.out.print(ViewBuckets.schema(ViewBuckets.KEYSPACE));
+            return;
+        }
+
+        try
+        {
+            bench.loadWorkload();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+
+        if (bench.printWorkloadSchema)
+        {
+            if (bench.workload == null)
+                throw new IllegalArgumentException("--print-workload-schema needs --workload");
+
+            System.out.print(bench.workload.schema(true));
+            System.out.print(bench.workload.schema(false));
+            return;
+        }
+
+        if (bench.recordFile != null)
+        {
+            try
+            {
+                bench.record();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+
+            return;
+        }
+
+        if (bench.compareTrials > 0)
+        {
+            if (bench.rampStart > 0)
+                throw new IllegalArgumentException("--compare-trials can't be used with --ramp-start");
+
+            try
+            {
+                new Compare(args, bench.compareTrials, bench.compareWindowSeconds, bench.durationSeconds, bench.warmupSeconds,
+                            bench.compareTimers, new File("./reports/compare")).run();
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+
+            return;
+        }
 
         final ConsoleReporter reporter = ConsoleReporter.forRegistry(AbstractPlaylist.registry)
                 .convertRatesTo(TimeUnit.SECONDS)
@@ -144,8 +740,57 @@ public class Bench
                 .convertDurationsTo(TimeUnit.MILLISECONDS)
                 .build(output);
 
+        if (bench.hlogIntervalSeconds > 0)
+            AbstractPlaylist.intervals.addListener(new HistogramLogger(output, bench.hlogIntervalSeconds));
+
+        if (bench.rampStart > 0)
+        {
+            if (bench.replayFile != null)
+                throw new IllegalArgumentException("--ramp-start can't be used with --replay, use --replay-speed");
+
+            bench.ramp = new Ramp(bench.keyspace(), bench.rampStart, bench.rampStep, bench.rampStepSeconds, bench.rampMax, bench.slaP99Ms, bench.maxErrorRate,
+                                  new File(output, "ramp.csv"), new File("./reports/ramp-summary.csv"));
+            AbstractPlaylist.intervals.addListener(bench.ramp);
+        }
+
+        if (bench.populateCount > 0)
+        {
+            if (bench.rampStart > 0 || bench.replayFile != null || bench.durationSeconds > 0)
+                throw new IllegalArgumentException("--populate can't be used with --ramp-start, --replay or --duration");
+
+            //Only adds
+            bench.percentDelete = bench.percentUpdate = 0;
+            bench.percentReadSong = bench.percentReadArtist = bench.percentReadGenre = bench.percentReadRecent = 0;
+
+            bench.populate = new Populate(bench.populateCount, bench.rowsPerPlaylist(), 10);
+            AbstractPlaylist.intervals.addListener(bench.populate);
+        }
+
+        if (bench.warmupSeconds > 0 || bench.warmupOps > 0 || bench.steadyStateWindow > 0)
+            AbstractPlaylist.intervals.addListener(new Warmup(AbstractPlaylist.intervals, "total", bench.warmupSeconds, bench.warmupOps,
+                                                              bench.steadyStateWindow, bench.steadyStateTolerance, bench.steadyStateMaxSeconds));
+
+        ClientCpu cpu = new ClientCpu(AbstractPlaylist.registry, "total", "error");
+
+        if (bench.metricsPort > 0)
+        {
+            try
+            {
+                MetricsServer server = new MetricsServer(AbstractPlaylist.registry, bench.metricsHost, bench.metricsPort);
+                AbstractPlaylist.intervals.addListener(server);
+                System.out.println("Serving metrics on http://" + bench.metricsHost + ":" + server.getAddress().getPort() + "/metrics");
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+
         reporter.start(30, TimeUnit.SECONDS);
         csv.start(1, TimeUnit.SECONDS);
+        AbstractPlaylist.intervals.start();
+        cpu.start();
 
         try
         {
@@ -157,6 +802,7 @@ public class Bench
             System.exit(-1);
         }
 
+        AbstractPlaylist.intervals.stop();
         csv.stop();
         reporter.stop();
 
@@ -167,6 +813,31 @@ public class Bench
             for (String line : Files.readAllLines(new File(output, "total.csv").toPath(), Charset.defaultCharset()))
                 System.out.println(line);
 
+            printLatencyComparison();
+            cpu.printReport();
+
+            if (bench.populate != null)
+                bench.populate.printReport();
+
+            if (AbstractPlaylist.prober != null)
+                AbstractPlaylist.prober.printReport();
+
+            if (AbstractPlaylist.traffic != null)
+                AbstractPlaylist.traffic.printReport();
+
+            if (AbstractPlaylist.speculativeReads != null)
+                AbstractPlaylist.speculativeReads.printReport();
+
+            Failures.printReport();
+
+            if (bench.hostMetrics != null)
+                bench.hostMetrics.printReport();
+
+            if (bench.isAdaptiveInFlight)
+                System.out.println("In flight limit finished at " + AbstractPlaylist.limiter.getLimit() + " after "
+                                   + AbstractPlaylist.limiter.getIncreases() + " increases and "
+                                   + AbstractPlaylist.limiter.getDecreases() + " decreases (see inflight-limit.csv)");
+
             System.out.flush();
         } catch (IOException e)
         {
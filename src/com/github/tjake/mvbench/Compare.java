@@ -0,0 +1,339 @@
+package com.github.tjake.mvbench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+/**
+ * Runs manual and materialized view mode against each other and reports the difference.
+ *
+ * Each trial runs both modes, one after the other, as separate runs of the benchmark with
+ * the same arguments and so the same seed and operation stream.  Odd trials run manual
+ * first and even ones the views first, so drift in the cluster over the trials (compaction,
+ * data growing) falls on both modes alike.  With a window every run lasts that long, so
+ * many short alternating windows can be used in place of a few long runs.
+ *
+ * Every run writes its timers as interval logs, which are read back and merged per mode
+ * and timer.  The report gives each mode's throughput and percentiles over all the trials
+ * and the paired difference (views minus manual) with a 95% confidence interval from the
+ * spread of the per trial differences.
+ */
+public class Compare
+{
+    private static final String[] modes = new String[] { "manual", "view" };
+
+    //Two sided 95% critical values of Student's t by degrees of freedom, 1.96 past the end
+    private static final double[] t95 = new double[] { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+                                                       2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+                                                       2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    //The options the compare consumes, and how many values each takes, the runs get the rest
+    private static final Map<String, Integer> ownOptions = new LinkedHashMap<String, Integer>();
+
+    static
+    {
+        ownOptions.put("--compare-trials", 1);
+        ownOptions.put("--compare-window-seconds", 1);
+        ownOptions.put("--compare-timers", 1);
+        ownOptions.put("--manual", 0);
+        ownOptions.put("--hlog-interval", 1);
+        ownOptions.put("--duration", 1);
+    }
+
+    /**
+     * What one mode did in one trial, per timer
+     */
+    static class Run
+    {
+        final Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+        double seconds;
+
+        double throughput()
+        {
+            Histogram total = histograms.get("total");
+            return total == null || seconds == 0 ? 0 : total.getTotalCount() / seconds;
+        }
+    }
+
+    private final List<String> args;
+    private final int trials;
+    private final int windowSeconds;
+    private final int durationSeconds;
+    private final int skipSeconds;
+    private final List<String> timers;
+    private final File output;
+
+    //Indexed by mode then trial
+    private final List<List<Run>> runs = new ArrayList<List<Run>>();
+
+    /**
+     * @param args the arguments the benchmark was started with
+     * @param skipSeconds how much of the start of each run is warmup, left out
+     */
+    public Compare(String[] args, int trials, int windowSeconds, int durationSeconds, int skipSeconds, String timers, File output)
+    {
+        this.args = runArgs(args);
+        this.trials = trials;
+        this.windowSeconds = windowSeconds;
+        this.durationSeconds = durationSeconds;
+        this.skipSeconds = skipSeconds;
+        this.timers = new ArrayList<String>(Arrays.asList(timers.split("\\s*,\\s*")));
+        if (!this.timers.contains("total"))
+            this.timers.add(0, "total");
+        this.output = output;
+
+        for (String mode : modes)
+            runs.add(new ArrayList<Run>());
+    }
+
+    private static List<String> runArgs(String[] args)
+    {
+        List<String> kept = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            String name = args[i].contains("=") ? args[i].substring(0, args[i].indexOf('=')) : args[i];
+            Integer values = ownOptions.get(name);
+
+            if (values == null)
+                kept.add(args[i]);
+            else if (!args[i].contains("="))
+                i += values;
+        }
+
+        return kept;
+    }
+
+    public void run() throws IOException, InterruptedException
+    {
+        output.mkdirs();
+
+        for (int trial = 0; trial < trials; trial++)
+        {
+            //Manual first on odd trials, the views first on even ones
+            for (int i = 0; i < modes.length; i++)
+            {
+                int mode = trial % 2 == 0 ? i : modes.length - 1 - i;
+                runs.get(mode).add(run(trial, mode));
+            }
+        }
+
+        report();
+    }
+
+    private Run run(int trial, int mode) throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Bench.class.getName());
+        command.addAll(args);
+        command.add("--hlog-interval");
+        command.add("1");
+
+        int seconds = windowSeconds > 0 ? windowSeconds : durationSeconds;
+        if (seconds > 0)
+        {
+            command.add("--duration");
+            command.add(String.valueOf(seconds));
+        }
+
+        if (modes[mode].equals("manual"))
+            command.add("--manual");
+
+        File log = new File(output, "trial-" + (trial + 1) + "-" + modes[mode] + ".log");
+        System.out.println(String.format("Compare trial %d of %d: %s (output in %s)", trial + 1, trials, modes[mode], log));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+        int exit = process.waitFor();
+        if (exit != 0)
+            throw new IOException("The " + modes[mode] + " run of trial " + (trial + 1) + " exited with " + exit + ", see " + log);
+
+        return read(new File("./reports/" + modes[mode]));
+    }
+
+    /**
+     * Sums each timer's interval log, after the warmup
+     */
+    private Run read(File reports) throws FileNotFoundException
+    {
+        Run run = new Run();
+
+        for (String timer : timers)
+        {
+            File file = new File(reports, timer + ".hlog");
+            if (!file.exists())
+                continue;
+
+            HistogramLogReader reader = new HistogramLogReader(file);
+            Histogram sum = new Histogram(3);
+            double seconds = 0;
+
+            EncodableHistogram interval;
+            while ((interval = reader.nextIntervalHistogram((double) skipSeconds, Double.MAX_VALUE)) != null)
+            {
+                Histogram histogram = (Histogram) interval;
+                sum.add(histogram);
+                seconds += (histogram.getEndTimeStamp() - histogram.getStartTimeStamp()) / 1000.0;
+            }
+
+            run.histograms.put(timer, sum);
+            if (timer.equals("total"))
+                run.seconds = seconds;
+        }
+
+        return run;
+    }
+
+    private void report() throws IOException
+    {
+        PrintStream out = System.out;
+        out.println(String.format("===COMPARE REPORT (%d trials, views minus manual, 95%% confidence)===", trials));
+        out.println(String.format("%-12s %-12s %14s %14s %14s %24s %10s", "timer", "metric", "manual", "view", "delta", "95% CI", "delta %"));
+
+        PrintWriter csv = new PrintWriter(new FileWriter(new File(output, "compare.csv")));
+        try
+        {
+            csv.println("timer,metric,manual,view,delta,ci_low,ci_high,delta_percent");
+
+            compare(out, csv, "total", "ops/s", -1);
+            for (String timer : timers)
+            {
+                compare(out, csv, timer, "p50 ms", 50);
+                compare(out, csv, timer, "p99 ms", 99);
+                compare(out, csv, timer, "p999 ms", 99.9);
+            }
+        }
+        finally
+        {
+            csv.close();
+        }
+
+        //The merged histograms of every trial, to plot
+        for (int mode = 0; mode < modes.length; mode++)
+        {
+            for (String timer : timers)
+            {
+                Histogram merged = merged(mode, timer);
+                if (merged.getTotalCount() == 0)
+                    continue;
+
+                PrintStream hgrm = new PrintStream(new File(output, modes[mode] + "-" + timer + ".hgrm"));
+                try
+                {
+                    merged.outputPercentileDistribution(hgrm, 1000000.0);
+                }
+                finally
+                {
+                    hgrm.close();
+                }
+            }
+        }
+
+        out.println("Wrote compare.csv and the merged percentile distributions to " + output);
+    }
+
+    /**
+     * @param percentile of the timer to compare, negative for the throughput
+     */
+    private void compare(PrintStream out, PrintWriter csv, String timer, String metric, double percentile)
+    {
+        if (merged(0, timer).getTotalCount() == 0 && merged(1, timer).getTotalCount() == 0)
+            return;
+
+        //The paired difference of each trial
+        double[] deltas = new double[trials];
+        for (int trial = 0; trial < trials; trial++)
+            deltas[trial] = value(runs.get(1).get(trial), timer, percentile) - value(runs.get(0).get(trial), timer, percentile);
+
+        double manual = percentile < 0 ? meanThroughput(0) : merged(0, timer).getValueAtPercentile(percentile) / 1e6;
+        double view = percentile < 0 ? meanThroughput(1) : merged(1, timer).getValueAtPercentile(percentile) / 1e6;
+
+        double mean = mean(deltas);
+        double halfWidth = halfWidth(deltas, mean);
+        double percent = manual == 0 ? Double.NaN : mean * 100 / manual;
+
+        out.println(String.format("%-12s %-12s %14.2f %14.2f %14.2f %24s %9.1f%%", timer, metric, manual, view, mean,
+                                  Double.isNaN(halfWidth) ? "n/a" : String.format("[%.2f, %.2f]", mean - halfWidth, mean + halfWidth), percent));
+        csv.println(String.format("%s,%s,%.3f,%.3f,%.3f,%.3f,%.3f,%.2f", timer, metric, manual, view, mean, mean - halfWidth, mean + halfWidth, percent));
+    }
+
+    private static double value(Run run, String timer, double percentile)
+    {
+        if (percentile < 0)
+            return run.throughput();
+
+        Histogram histogram = run.histograms.get(timer);
+        return histogram == null ? 0 : histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private Histogram merged(int mode, String timer)
+    {
+        Histogram merged = new Histogram(3);
+        for (Run run : runs.get(mode))
+        {
+            Histogram histogram = run.histograms.get(timer);
+            if (histogram != null)
+                merged.add(histogram);
+        }
+
+        return merged;
+    }
+
+    private double meanThroughput(int mode)
+    {
+        double sum = 0;
+        for (Run run : runs.get(mode))
+            sum += run.throughput();
+
+        return sum / runs.get(mode).size();
+    }
+
+    static double mean(double[] values)
+    {
+        double sum = 0;
+        for (double value : values)
+            sum += value;
+
+        return sum / values.length;
+    }
+
+    static double stddev(double[] values, double mean)
+    {
+        double sum = 0;
+        for (double value : values)
+            sum += (value - mean) * (value - mean);
+
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    static double t(int degreesOfFreedom)
+    {
+        return degreesOfFreedom <= t95.length ? t95[degreesOfFreedom - 1] : 1.96;
+    }
+
+    /**
+     * Half the width of the 95% confidence interval of the mean of values, NaN with fewer than two
+     */
+    static double halfWidth(double[] values, double mean)
+    {
+        if (values.length < 2)
+            return Double.NaN;
+
+        return t(values.length - 1) * stddev(values, mean) / Math.sqrt(values.length);
+    }
+}
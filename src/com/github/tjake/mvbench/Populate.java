@@ -0,0 +1,111 @@
+package com.github.tjake.mvbench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import com.datastax.driver.core.Session;
+import com.github.tjake.mvbench.metrics.IntervalListener;
+import com.github.tjake.mvbench.playlist.AbstractPlaylist;
+
+/**
+ * Loads a dataset to benchmark against: the first playlists of the operation stream, as
+ * fast as the in flight limit lets them go.
+ *
+ * Only adds are issued, the same playlists (keys only depend on the iteration) a run with
+ * these options adds first, so a benchmark started afterwards updates and deletes rows
+ * that are already there.  Every shard issues its share without a rate limit.  Progress
+ * and throughput are printed every few seconds from the add and error timers' intervals.
+ */
+public class Populate implements IntervalListener
+{
+    private final long playlists;
+    private final int rowsPerPlaylist;
+    private final long reportMs;
+
+    private long startMs = -1;
+    private long lastReportMs = -1;
+    private long added = 0;
+    private long failed = 0;
+    private long addedAtLastReport = 0;
+    private long endMs = -1;
+
+    /**
+     * @param rowsPerPlaylist how many rows one playlist writes over every table
+     */
+    public Populate(long playlists, int rowsPerPlaylist, int reportSeconds)
+    {
+        this.playlists = playlists;
+        this.rowsPerPlaylist = rowsPerPlaylist;
+        this.reportMs = TimeUnit.SECONDS.toMillis(reportSeconds);
+    }
+
+    /**
+     * Starts a thread per shard adding its share of the playlists
+     */
+    public Thread[] start(AbstractPlaylist.Factory[] factories, Session session)
+    {
+        Thread[] threads = new Thread[factories.length];
+        for (int i = 0; i < factories.length; i++)
+        {
+            //Spread the remainder over the first shards so we add exactly playlists
+            long iterations = playlists / factories.length + (i < playlists % factories.length ? 1 : 0);
+
+            threads[i] = new Thread(new Shard(i, factories[i], session, iterations, Double.MAX_VALUE, false), "populate-" + i);
+            threads[i].start();
+        }
+
+        return threads;
+    }
+
+    @Override
+    public synchronized void onInterval(long startTimeMs, long endTimeMs, Map<String, Histogram> intervals)
+    {
+        if (startMs < 0)
+        {
+            startMs = startTimeMs;
+            lastReportMs = startTimeMs;
+        }
+
+        added += intervals.get("add").getTotalCount();
+        failed += intervals.get("error").getTotalCount();
+        endMs = endTimeMs;
+
+        if (endTimeMs - lastReportMs < reportMs)
+            return;
+
+        double seconds = (endTimeMs - lastReportMs) / 1000.0;
+        double rate = (added - addedAtLastReport) / seconds;
+        double averageRate = added * 1000.0 / (endTimeMs - startMs);
+
+        System.out.println(String.format("Populated %d of %d playlists (%.1f%%), %.0f playlists/s and %.0f rows/s over the last %.0fs, %d failed, about %s left",
+                                         added, playlists, added * 100.0 / playlists, rate, rate * rowsPerPlaylist, seconds, failed,
+                                         averageRate > 0 ? duration((long) ((playlists - added) / averageRate)) : "?"));
+
+        lastReportMs = endTimeMs;
+        addedAtLastReport = added;
+    }
+
+    private static String duration(long seconds)
+    {
+        return String.format("%dh%02dm%02ds", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    public synchronized void printReport()
+    {
+        System.out.println("===POPULATE REPORT===");
+
+        double seconds = Math.max(1, endMs - startMs) / 1000.0;
+        System.out.println(String.format("Added %d playlists (%d rows) in %s, %.0f playlists/s and %.0f rows/s on average, %d failed",
+                                         added, added * rowsPerPlaylist, duration((long) seconds), added / seconds, added * rowsPerPlaylist / seconds, failed));
+
+        if (failed > 0)
+            System.out.println("Failed adds are not retried, run again with the same options to fill them in");
+    }
+}
@@ -0,0 +1,263 @@
+package com.github.tjake.mvbench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import com.github.tjake.mvbench.metrics.IntervalListener;
+
+/**
+ * Steps the target rate of the shards up until the run can no longer sustain it, to find
+ * the highest rate that can be sustained.
+ *
+ * Each step runs at its rate for a fixed time.  A step fails when its corrected p99
+ * breaks the SLA, too many operations fail, or the shards fall well short of the target.
+ * The ramp stops at the first failed step (or past the max rate) and reports every step
+ * and the highest rate that passed.
+ */
+public class Ramp implements IntervalListener
+{
+    //A step that achieves less than this share of its target couldn't keep up
+    private static final double KEEP_UP = 0.9;
+
+    private final String mode;
+    private final double startRate;
+    private final double stepRate;
+    private final long stepMs;
+    private final double maxRate;
+    private final double slaP99Ms;
+    private final double maxErrorRate;
+    private final File output;
+    private final File summary;
+
+    private final List<Step> steps = new ArrayList<Step>();
+
+    private volatile Shard[] shards = new Shard[0];
+    private volatile boolean stopped = false;
+
+    //The step being run
+    private double rate;
+    private long stepStartMs = -1;
+    private long successes;
+    private long errors;
+    private final Histogram latency = new Histogram(3);
+
+    private String stopReason = "never reached";
+
+    /**
+     * @param mode what is being ramped, e.g. manual, for the summary
+     * @param maxRate stop after this rate passes, 0 for no limit
+     * @param output where the steps are written (ramp.csv)
+     * @param summary the file every ramp appends its result to, so several modes can be compared
+     */
+    public Ramp(String mode, double startRate, double stepRate, int stepSeconds, double maxRate, double slaP99Ms, double maxErrorRate, File output, File summary)
+    {
+        assert startRate > 0 && stepRate > 0 && stepSeconds > 0;
+
+        this.mode = mode;
+        this.startRate = startRate;
+        this.stepRate = stepRate;
+        this.stepMs = TimeUnit.SECONDS.toMillis(stepSeconds);
+        this.maxRate = maxRate;
+        this.slaP99Ms = slaP99Ms;
+        this.maxErrorRate = maxErrorRate;
+        this.output = output;
+        this.summary = summary;
+        this.rate = startRate;
+    }
+
+    public double getStartRate()
+    {
+        return startRate;
+    }
+
+    /**
+     * Starts driving the rate of these shards, which should start at getStartRate() between them
+     */
+    public void control(Shard[] shards)
+    {
+        this.shards = shards;
+    }
+
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    @Override
+    public void onInterval(long startTimeMs, long endTimeMs, Map<String, Histogram> intervals)
+    {
+        if (stopped || shards.length == 0)
+            return;
+
+        //The first interval has the client starting up in it, so the first step starts after it
+        if (stepStartMs < 0)
+        {
+            stepStartMs = endTimeMs;
+            return;
+        }
+
+        successes += intervals.get("total").getTotalCount();
+        errors += intervals.get("error").getTotalCount();
+        latency.add(intervals.get("total-corrected"));
+
+        if (endTimeMs - stepStartMs < stepMs)
+            return;
+
+        Step step = new Step(rate, successes * 1000.0 / (endTimeMs - stepStartMs), latency, errors, successes + errors);
+        steps.add(step);
+
+        System.out.println("Ramp " + step);
+
+        String failure = step.failure();
+        if (failure != null)
+        {
+            stop(String.format("%s at %.0f/s", failure, rate));
+            return;
+        }
+
+        if (maxRate > 0 && rate + stepRate > maxRate)
+        {
+            stop(String.format("reached the max rate of %.0f/s", maxRate));
+            return;
+        }
+
+        rate += stepRate;
+        for (Shard shard : shards)
+            shard.setRate(rate / shards.length);
+
+        stepStartMs = endTimeMs;
+        successes = 0;
+        errors = 0;
+        latency.reset();
+    }
+
+    private void stop(String reason)
+    {
+        stopReason = reason;
+        stopped = true;
+
+        for (Shard shard : shards)
+            shard.stop();
+    }
+
+    /**
+     * The highest rate a step passed at, 0 if none did
+     */
+    public double getMaxSustainableRate()
+    {
+        double max = 0;
+        for (Step step : steps)
+        {
+            if (step.failure() == null)
+                max = Math.max(max, step.target);
+        }
+
+        return max;
+    }
+
+    @Override
+    public void close()
+    {
+        if (steps.isEmpty())
+            return;
+
+        System.out.println(String.format("===RAMP REPORT (%s)===", mode));
+        System.out.println(Step.HEADER);
+        for (Step step : steps)
+            System.out.println(step.toCsv());
+
+        System.out.println(String.format("Max sustainable rate for %s: %.0f/s (stopped: %s)", mode, getMaxSustainableRate(), stopReason));
+
+        try
+        {
+            PrintWriter out = new PrintWriter(new FileWriter(output));
+            try
+            {
+                out.println(Step.HEADER);
+                for (Step step : steps)
+                    out.println(step.toCsv());
+            }
+            finally
+            {
+                out.close();
+            }
+
+            boolean isNew = !summary.exists();
+            out = new PrintWriter(new FileWriter(summary, true));
+            try
+            {
+                if (isNew)
+                    out.println("mode,max_sustainable_rate,steps,stopped");
+
+                out.println(String.format("%s,%.0f,%d,%s", mode, getMaxSustainableRate(), steps.size(), stopReason));
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    class Step
+    {
+        static final String HEADER = "target_rate,achieved_rate,p50_ms,p99_ms,p999_ms,max_ms,error_rate,result";
+
+        final double target;
+        final double achieved;
+        final double p50Ms, p99Ms, p999Ms, maxMs;
+        final double errorRate;
+
+        Step(double target, double achieved, Histogram latency, long errors, long total)
+        {
+            this.target = target;
+            this.achieved = achieved;
+            this.p50Ms = latency.getValueAtPercentile(50) / 1e6;
+            this.p99Ms = latency.getValueAtPercentile(99) / 1e6;
+            this.p999Ms = latency.getValueAtPercentile(99.9) / 1e6;
+            this.maxMs = latency.getMaxValue() / 1e6;
+            this.errorRate = total == 0 ? 0 : errors / (double) total;
+        }
+
+        //Why the step failed, null if it passed
+        String failure()
+        {
+            if (p99Ms > slaP99Ms)
+                return String.format("p99 of %.2fms broke the %.2fms SLA", p99Ms, slaP99Ms);
+
+            if (errorRate > maxErrorRate)
+                return String.format("error rate of %.4f broke the %.4f limit", errorRate, maxErrorRate);
+
+            if (achieved < target * KEEP_UP)
+                return String.format("only achieved %.0f/s", achieved);
+
+            return null;
+        }
+
+        String toCsv()
+        {
+            String failure = failure();
+            return String.format("%.0f,%.0f,%.2f,%.2f,%.2f,%.2f,%.4f,%s", target, achieved, p50Ms, p99Ms, p999Ms, maxMs, errorRate,
+                                 failure == null ? "pass" : "fail: " + failure.replace(',', ';'));
+        }
+
+        @Override
+        public String toString()
+        {
+            String failure = failure();
+            return String.format("target %.0f/s achieved %.0f/s, p50 %.2fms p99 %.2fms p999 %.2fms (corrected), error rate %.4f: %s",
+                                 target, achieved, p50Ms, p99Ms, p999Ms, errorRate, failure == null ? "pass" : failure);
+        }
+    }
+}
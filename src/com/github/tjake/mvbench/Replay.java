@@ -0,0 +1,80 @@
+package com.github.tjake.mvbench;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import com.datastax.driver.core.Session;
+import com.github.tjake.mvbench.playlist.AbstractPlaylist;
+import com.github.tjake.mvbench.playlist.OperationLog;
+
+/**
+ * Issues the operations of one recorded log on its own thread.
+ *
+ * With a speed of 0 operations go out as fast as the in flight limit allows, otherwise
+ * on the recorded schedule sped up by that factor (1 is the recorded rate, 2 twice as fast).
+ * Like open loop shards, latency is measured from when the schedule wanted each one sent.
+ */
+public class Replay implements Runnable
+{
+    private final int id;
+    private final OperationLog.Reader reader;
+    private final Session session;
+    private final double speed;
+
+    public Replay(int id, OperationLog.Reader reader, Session session, double speed)
+    {
+        this.id = id;
+        this.reader = reader;
+        this.session = session;
+        this.speed = speed;
+    }
+
+    @Override
+    public void run()
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            AbstractPlaylist operation;
+            for (long i = 0; (operation = reader.next()) != null; i++)
+            {
+                AbstractPlaylist.limiter.acquire();
+
+                long intendedStartTime;
+                if (speed > 0)
+                {
+                    intendedStartTime = start + (long) (reader.offsetNanos() / speed);
+
+                    long delay;
+                    while ((delay = intendedStartTime - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(delay);
+                }
+                else
+                {
+                    intendedStartTime = System.nanoTime();
+                }
+
+                operation.write(session, intendedStartTime);
+
+                if (i % 10000 == 0)
+                    System.err.println("Replay " + id + " Iteration " + i + ", Tracker at " + AbstractPlaylist.tracker.get() + ", Limit at " + AbstractPlaylist.limiter.getLimit());
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
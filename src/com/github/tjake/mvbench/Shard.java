@@ -0,0 +1,111 @@
+package com.github.tjake.mvbench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import com.datastax.driver.core.Session;
+import com.github.tjake.mvbench.playlist.AbstractPlaylist;
+
+/**
+ * Issues the operations for one shard of the user/playlist keyspace on its own thread.
+ */
+public class Shard implements Runnable
+{
+    private final int id;
+    private final AbstractPlaylist.Factory factory;
+    private final Session session;
+    private final long numberIterations;
+    private final boolean isOpenLoop;
+
+    //When to stop issuing (System.nanoTime()), Long.MAX_VALUE to run all the iterations
+    private final long deadline;
+
+    private volatile double playlistsPerSec;
+    private volatile boolean stopped = false;
+
+    public Shard(int id, AbstractPlaylist.Factory factory, Session session, long numberIterations,
+                 double playlistsPerSec, boolean isOpenLoop)
+    {
+        this(id, factory, session, numberIterations, playlistsPerSec, isOpenLoop, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param deadline stop once System.nanoTime() passes this, even if iterations remain
+     */
+    public Shard(int id, AbstractPlaylist.Factory factory, Session session, long numberIterations,
+                 double playlistsPerSec, boolean isOpenLoop, long deadline)
+    {
+        this.id = id;
+        this.factory = factory;
+        this.session = session;
+        this.numberIterations = numberIterations;
+        this.playlistsPerSec = playlistsPerSec;
+        this.isOpenLoop = isOpenLoop;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Changes the rate from the next operation on
+     */
+    public void setRate(double playlistsPerSec)
+    {
+        this.playlistsPerSec = playlistsPerSec;
+    }
+
+    /**
+     * Stops issuing after the current operation
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    @Override
+    public void run()
+    {
+        double rate = playlistsPerSec;
+        RateLimiter limiter = RateLimiter.create(rate);
+
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long scheduled = 0;
+
+        for (long i = 0; i < numberIterations && !stopped && System.nanoTime() < deadline; i++)
+        {
+            //A new rate starts a new schedule from now
+            if (playlistsPerSec != rate)
+            {
+                rate = playlistsPerSec;
+                limiter.setRate(rate);
+                intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+                start = System.nanoTime();
+                scheduled = 0;
+            }
+
+            long intendedStartTime = start + (long) (scheduled++ * intervalNanos);
+
+            AbstractPlaylist.limiter.acquire();
+
+            if (isOpenLoop)
+            {
+                //The schedule never slips, if we fell behind we issue straight away
+                //and the corrected timers pick up the time we spent waiting
+                long delay;
+                while ((delay = intendedStartTime - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(delay);
+            }
+            else
+            {
+                limiter.acquire();
+                intendedStartTime = System.nanoTime();
+            }
+
+            factory.next().write(session, intendedStartTime);
+
+            if (i % 10000 == 0)
+                System.err.println("Shard " + id + " Iteration " + i + ", Tracker at " + AbstractPlaylist.tracker.get() + ", Limit at " + AbstractPlaylist.limiter.getLimit());
+        }
+    }
+}
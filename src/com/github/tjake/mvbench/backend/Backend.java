@@ -0,0 +1,12 @@
+package com.github.tjake.mvbench.backend;
+
+/**
+ * What the benchmark sends its requests to
+ */
+public enum Backend
+{
+    //A real cluster at --endpoint
+    CASSANDRA,
+    //The in process MemoryStore, for measuring the client on its own
+    MEMORY
+}
@@ -0,0 +1,104 @@
+package com.github.tjake.mvbench.backend;
+
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+/**
+ * Which requests the in memory backend fails, and how.
+ *
+ * Parsed from a comma separated list of kind:chance, for example timeout:0.01,unavailable:0.001.
+ * The kinds are timeout (a read or write timeout matching the request), unavailable and overloaded.
+ * Failed requests are not applied.
+ */
+public class ErrorDistribution
+{
+    public static final ErrorDistribution NONE = new ErrorDistribution(0, 0, 0, "none");
+
+    private static final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 9042);
+
+    private final double timeout;
+    private final double unavailable;
+    private final double overloaded;
+    private final String spec;
+
+    private ErrorDistribution(double timeout, double unavailable, double overloaded, String spec)
+    {
+        this.timeout = timeout;
+        this.unavailable = unavailable;
+        this.overloaded = overloaded;
+        this.spec = spec;
+    }
+
+    public static ErrorDistribution parse(String spec)
+    {
+        if (spec.trim().isEmpty() || spec.trim().equalsIgnoreCase("none"))
+            return NONE;
+
+        double timeout = 0, unavailable = 0, overloaded = 0;
+
+        for (String entry : spec.split(","))
+        {
+            String[] parts = entry.trim().toLowerCase().split(":");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Bad error distribution " + spec + ", expected kind:chance,...");
+
+            double chance = Double.parseDouble(parts[1]);
+            if (chance < 0.0 || chance > 1.0)
+                throw new IllegalArgumentException("Bad error chance " + entry);
+
+            if (parts[0].equals("timeout"))
+                timeout = chance;
+            else if (parts[0].equals("unavailable"))
+                unavailable = chance;
+            else if (parts[0].equals("overloaded"))
+                overloaded = chance;
+            else
+                throw new IllegalArgumentException("Unknown error kind " + parts[0] + ", expected timeout, unavailable or overloaded");
+        }
+
+        if (timeout + unavailable + overloaded > 1.0)
+            throw new IllegalArgumentException("Error chances add up to more than 1: " + spec);
+
+        return new ErrorDistribution(timeout, unavailable, overloaded, spec);
+    }
+
+    /**
+     * The error to fail a request with, or null if it should succeed
+     */
+    public DriverException next(Random random, boolean isRead, boolean isBatch, ConsistencyLevel consistency)
+    {
+        if (this == NONE)
+            return null;
+
+        ConsistencyLevel cl = consistency == null ? ConsistencyLevel.ONE : consistency;
+
+        double chance = random.nextDouble();
+        if (chance < timeout)
+            return isRead ? new ReadTimeoutException(address, cl, 0, 1, false)
+                          : new WriteTimeoutException(address, cl, isBatch ? WriteType.BATCH : WriteType.SIMPLE, 0, 1);
+
+        chance -= timeout;
+        if (chance < unavailable)
+            return new UnavailableException(address, cl, 1, 0);
+
+        chance -= unavailable;
+        if (chance < overloaded)
+            return new OverloadedException(address, "Injected by the in memory backend");
+
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+}
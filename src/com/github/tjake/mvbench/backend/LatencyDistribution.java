@@ -0,0 +1,124 @@
+package com.github.tjake.mvbench.backend;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long the in memory backend holds each request before answering it.
+ *
+ * Parsed from a spec with every time in microseconds:
+ *   none
+ *   fixed:500
+ *   uniform:200:2000
+ *   exponential:500          (the mean)
+ *   normal:500:100           (mean and standard deviation, never below zero)
+ */
+public abstract class LatencyDistribution
+{
+    public static final LatencyDistribution NONE = new LatencyDistribution("none")
+    {
+        @Override
+        public long nextNanos(Random random)
+        {
+            return 0;
+        }
+    };
+
+    private final String spec;
+
+    private LatencyDistribution(String spec)
+    {
+        this.spec = spec;
+    }
+
+    public abstract long nextNanos(Random random);
+
+    public static LatencyDistribution parse(String spec)
+    {
+        String[] parts = spec.trim().toLowerCase().split(":");
+
+        try
+        {
+            if (parts[0].equals("none") && parts.length == 1)
+                return NONE;
+
+            if (parts[0].equals("fixed") && parts.length == 2)
+            {
+                final long nanos = micros(parts[1]);
+                return new LatencyDistribution(spec)
+                {
+                    @Override
+                    public long nextNanos(Random random)
+                    {
+                        return nanos;
+                    }
+                };
+            }
+
+            if (parts[0].equals("uniform") && parts.length == 3)
+            {
+                final long min = micros(parts[1]);
+                final long max = micros(parts[2]);
+                if (max < min)
+                    throw new IllegalArgumentException("max is below min");
+
+                return new LatencyDistribution(spec)
+                {
+                    @Override
+                    public long nextNanos(Random random)
+                    {
+                        return min + (long) (random.nextDouble() * (max - min));
+                    }
+                };
+            }
+
+            if (parts[0].equals("exponential") && parts.length == 2)
+            {
+                final long mean = micros(parts[1]);
+                return new LatencyDistribution(spec)
+                {
+                    @Override
+                    public long nextNanos(Random random)
+                    {
+                        return (long) (-Math.log(1.0 - random.nextDouble()) * mean);
+                    }
+                };
+            }
+
+            if (parts[0].equals("normal") && parts.length == 3)
+            {
+                final long mean = micros(parts[1]);
+                final long stddev = micros(parts[2]);
+                return new LatencyDistribution(spec)
+                {
+                    @Override
+                    public long nextNanos(Random random)
+                    {
+                        return Math.max(0, mean + (long) (random.nextGaussian() * stddev));
+                    }
+                };
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Bad latency distribution " + spec, e);
+        }
+
+        throw new IllegalArgumentException("Bad latency distribution " + spec + ", expected none, fixed:us, uniform:min_us:max_us, exponential:mean_us or normal:mean_us:stddev_us");
+    }
+
+    private static long micros(String value)
+    {
+        long micros = Long.parseLong(value);
+        if (micros < 0)
+            throw new IllegalArgumentException("Negative latency " + value);
+
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+}
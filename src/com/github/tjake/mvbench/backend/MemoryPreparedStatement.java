@@ -0,0 +1,415 @@
+package com.github.tjake.mvbench.backend;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.policies.RetryPolicy;
+
+/**
+ * A statement prepared against a {@link MemoryStore}.
+ *
+ * Understands the subset of CQL the playlists use: INSERT, UPDATE ... SET, DELETE FROM and
+ * SELECT by primary key prefix, with every value a bind marker.
+ */
+public class MemoryPreparedStatement implements PreparedStatement
+{
+    private static final Pattern insert = Pattern.compile("INSERT\\s+INTO\\s+([\\w.]+)\\s*\\(([^)]*)\\)\\s*VALUES\\s*\\(([^)]*)\\)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern update = Pattern.compile("UPDATE\\s+([\\w.]+)\\s+SET\\s+(.+?)\\s+WHERE\\s+(.+?)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern delete = Pattern.compile("DELETE\\s+FROM\\s+([\\w.]+)\\s+WHERE\\s+(.+?)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern select = Pattern.compile("SELECT\\s+(.+?)\\s+FROM\\s+([\\w.]+)\\s+WHERE\\s+(.+?)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern relation = Pattern.compile("(\\w+)\\s*=\\s*\\?");
+    private static final Pattern and = Pattern.compile("\\s+AND\\s+", Pattern.CASE_INSENSITIVE);
+
+    enum Kind
+    {
+        INSERT, UPDATE, DELETE, SELECT;
+
+        boolean isWrite()
+        {
+            return this != SELECT;
+        }
+    }
+
+    final Kind kind;
+    final MemoryTable table;
+
+    private final String query;
+
+    //The table column each bind variable sets
+    private final List<Integer> bound = new ArrayList<Integer>();
+
+    //How much of the primary key a DELETE or SELECT restricts
+    private int keySize;
+
+    //The columns a SELECT returns
+    private final List<Integer> selected = new ArrayList<Integer>();
+
+    private final ColumnDefinitions variables;
+    private final ColumnDefinitions resultColumns;
+    private final PreparedId preparedId;
+
+    private volatile ByteBuffer routingKey;
+    private volatile ConsistencyLevel consistency;
+    private volatile ConsistencyLevel serialConsistency;
+    private volatile boolean tracing;
+    private volatile RetryPolicy retryPolicy;
+    private volatile Map<String, ByteBuffer> outgoingPayload;
+
+    MemoryPreparedStatement(String query, MemoryStore store, String keyspace)
+    {
+        this.query = query;
+
+        Matcher m;
+        if ((m = insert.matcher(query)).matches())
+        {
+            kind = Kind.INSERT;
+            table = store.table(keyspace, m.group(1));
+
+            String[] columns = m.group(2).split(",");
+            String[] values = m.group(3).split(",");
+            if (columns.length != values.length)
+                throw new InvalidQueryException("Unmatched column names/values in " + query);
+
+            for (int i = 0; i < columns.length; i++)
+            {
+                if (!values[i].trim().equals("?"))
+                    throw new InvalidQueryException("Only bind markers are supported by the in memory backend: " + query);
+
+                bound.add(column(columns[i].trim()));
+            }
+
+            keySize = table.primaryKeySize;
+        }
+        else if ((m = update.matcher(query)).matches())
+        {
+            kind = Kind.UPDATE;
+            table = store.table(keyspace, m.group(1));
+
+            for (String assignment : m.group(2).split(","))
+                bound.add(column(relation(assignment)));
+
+            keySize = where(m.group(3));
+            if (keySize != table.primaryKeySize)
+                throw new InvalidQueryException("UPDATE must restrict the whole primary key: " + query);
+        }
+        else if ((m = delete.matcher(query)).matches())
+        {
+            kind = Kind.DELETE;
+            table = store.table(keyspace, m.group(1));
+            keySize = where(m.group(2));
+        }
+        else if ((m = select.matcher(query)).matches())
+        {
+            kind = Kind.SELECT;
+            table = store.table(keyspace, m.group(2));
+
+            if (m.group(1).trim().equals("*"))
+            {
+                for (int i = 0; i < table.columns.size(); i++)
+                    selected.add(i);
+            }
+            else
+            {
+                for (String column : m.group(1).split(","))
+                    selected.add(column(column.trim()));
+            }
+
+            keySize = where(m.group(3));
+        }
+        else
+        {
+            throw new InvalidQueryException("Unsupported by the in memory backend: " + query);
+        }
+
+        if (kind == Kind.INSERT)
+        {
+            for (int i = 0; i < table.primaryKeySize; i++)
+            {
+                if (!bound.contains(i))
+                    throw new InvalidQueryException("Missing primary key column " + table.columns.get(i) + ": " + query);
+            }
+        }
+
+        variables = columns(bound);
+        resultColumns = columns(selected);
+
+        //Lets token aware routing and the unlogged write strategy group by partition
+        int[] routingKeyIndexes = new int[table.partitionKeySize];
+        for (int i = 0; i < routingKeyIndexes.length; i++)
+        {
+            routingKeyIndexes[i] = bound.indexOf(i);
+            if (routingKeyIndexes[i] < 0)
+            {
+                routingKeyIndexes = null;
+                break;
+            }
+        }
+
+        preparedId = DriverInternals.preparedId(variables, resultColumns, routingKeyIndexes);
+    }
+
+    private int column(String name)
+    {
+        int index = table.indexOf(name.toLowerCase());
+        if (index < 0)
+            throw new InvalidQueryException("Unknown column " + name + " in " + table.name);
+
+        return index;
+    }
+
+    private static String relation(String relation)
+    {
+        Matcher m = MemoryPreparedStatement.relation.matcher(relation.trim());
+        if (!m.matches())
+            throw new InvalidQueryException("Only column = ? is supported by the in memory backend, not " + relation);
+
+        return m.group(1);
+    }
+
+    //Binds the restricted columns and returns how much of the primary key they cover
+    private int where(String where)
+    {
+        int restricted = 0;
+        for (String relation : and.split(where))
+        {
+            int index = column(relation(relation));
+            if (index >= table.primaryKeySize)
+                throw new InvalidQueryException("Only primary key columns can be restricted: " + query);
+
+            bound.add(index);
+            restricted++;
+        }
+
+        //Has to be the whole partition key and then a prefix of the clustering
+        for (int i = 0; i < restricted; i++)
+        {
+            if (!bound.contains(i))
+                throw new InvalidQueryException("The restricted columns must be a primary key prefix: " + query);
+        }
+
+        if (restricted < table.partitionKeySize)
+            throw new InvalidQueryException("The whole partition key must be restricted: " + query);
+
+        return restricted;
+    }
+
+    private ColumnDefinitions columns(List<Integer> indexes)
+    {
+        List<String> names = new ArrayList<String>(indexes.size());
+        List<DataType> types = new ArrayList<DataType>(indexes.size());
+
+        for (int index : indexes)
+        {
+            names.add(table.columns.get(index));
+            types.add(table.types.get(index));
+        }
+
+        return DriverInternals.columns(table.keyspace, table.name, names, types);
+    }
+
+    /**
+     * Runs the statement against the store
+     */
+    ResultSet execute(BoundStatement statement)
+    {
+        ByteBuffer[] values = new ByteBuffer[table.columns.size()];
+        for (int i = 0; i < bound.size(); i++)
+        {
+            if (!statement.isSet(i))
+                throw new IllegalStateException("Unset value at index " + i + ". If you want this value to be null, please set it to null explicitly.");
+
+            values[bound.get(i)] = statement.getBytesUnsafe(i);
+        }
+
+        switch (kind)
+        {
+            case INSERT:
+            case UPDATE:
+                table.upsert(values);
+                return MemoryResultSet.empty();
+            case DELETE:
+                table.delete(values, keySize);
+                return MemoryResultSet.empty();
+            case SELECT:
+                //Only the first page comes back
+                int limit = statement.getFetchSize() > 0 ? statement.getFetchSize() : 5000;
+                return new MemoryResultSet(resultColumns, selected, table.select(values, keySize, limit));
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    @Override
+    public ColumnDefinitions getVariables()
+    {
+        return variables;
+    }
+
+    @Override
+    public BoundStatement bind(Object... values)
+    {
+        return new BoundStatement(this).bind(values);
+    }
+
+    @Override
+    public BoundStatement bind()
+    {
+        return new BoundStatement(this);
+    }
+
+    @Override
+    public PreparedStatement setRoutingKey(ByteBuffer routingKey)
+    {
+        this.routingKey = routingKey;
+        return this;
+    }
+
+    /**
+     * Composes the components the way the driver does: one alone is the key, several are each
+     * written as a 2 byte length, the bytes and a 0
+     */
+    @Override
+    public PreparedStatement setRoutingKey(ByteBuffer... routingKeyComponents)
+    {
+        if (routingKeyComponents.length == 1)
+            return setRoutingKey(routingKeyComponents[0]);
+
+        int size = 0;
+        for (ByteBuffer component : routingKeyComponents)
+            size += 2 + component.remaining() + 1;
+
+        ByteBuffer composite = ByteBuffer.allocate(size);
+        for (ByteBuffer component : routingKeyComponents)
+        {
+            composite.putShort((short) component.remaining());
+            composite.put(component.duplicate());
+            composite.put((byte) 0);
+        }
+        composite.flip();
+
+        return setRoutingKey(composite);
+    }
+
+    @Override
+    public ByteBuffer getRoutingKey()
+    {
+        return routingKey;
+    }
+
+    @Override
+    public PreparedStatement setConsistencyLevel(ConsistencyLevel consistency)
+    {
+        this.consistency = consistency;
+        return this;
+    }
+
+    @Override
+    public ConsistencyLevel getConsistencyLevel()
+    {
+        return consistency;
+    }
+
+    @Override
+    public PreparedStatement setSerialConsistencyLevel(ConsistencyLevel serialConsistency)
+    {
+        this.serialConsistency = serialConsistency;
+        return this;
+    }
+
+    @Override
+    public ConsistencyLevel getSerialConsistencyLevel()
+    {
+        return serialConsistency;
+    }
+
+    @Override
+    public String getQueryString()
+    {
+        return query;
+    }
+
+    @Override
+    public String getQueryKeyspace()
+    {
+        return table.keyspace;
+    }
+
+    @Override
+    public PreparedStatement enableTracing()
+    {
+        tracing = true;
+        return this;
+    }
+
+    @Override
+    public PreparedStatement disableTracing()
+    {
+        tracing = false;
+        return this;
+    }
+
+    @Override
+    public boolean isTracing()
+    {
+        return tracing;
+    }
+
+    @Override
+    public PreparedStatement setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    @Override
+    public PreparedId getPreparedId()
+    {
+        return preparedId;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getIncomingPayload()
+    {
+        return null;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getOutgoingPayload()
+    {
+        return outgoingPayload;
+    }
+
+    @Override
+    public PreparedStatement setOutgoingPayload(Map<String, ByteBuffer> payload)
+    {
+        this.outgoingPayload = payload == null ? null : Collections.unmodifiableMap(payload);
+        return this;
+    }
+
+    @Override
+    public CodecRegistry getCodecRegistry()
+    {
+        return CodecRegistry.DEFAULT_INSTANCE;
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.tjake.mvbench.backend;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+/**
+ * The rows a statement against the {@link MemoryStore} returned, always a single page.
+ */
+public class MemoryResultSet implements ResultSet
+{
+    private static final ColumnDefinitions noColumns = DriverInternals.columns(null, null, Collections.<String>emptyList(), Collections.<DataType>emptyList());
+
+    private final ColumnDefinitions columns;
+    private final List<Row> rows;
+    private int next = 0;
+
+    //Has no rows, so nothing about it changes as it's read and it can be shared
+    private static final MemoryResultSet empty = new MemoryResultSet(noColumns, Collections.<Integer>emptyList(), Collections.<ByteBuffer[]>emptyList());
+
+    public static MemoryResultSet empty()
+    {
+        return empty;
+    }
+
+    MemoryResultSet(ColumnDefinitions columns, List<Integer> selected, List<ByteBuffer[]> tableRows)
+    {
+        this.columns = columns;
+        this.rows = new ArrayList<Row>(tableRows.size());
+
+        for (ByteBuffer[] tableRow : tableRows)
+        {
+            List<ByteBuffer> values = new ArrayList<ByteBuffer>(selected.size());
+            for (int column : selected)
+                values.add(tableRow[column] == null ? null : tableRow[column].duplicate());
+
+            rows.add(DriverInternals.row(columns, values));
+        }
+    }
+
+    @Override
+    public ColumnDefinitions getColumnDefinitions()
+    {
+        return columns;
+    }
+
+    @Override
+    public boolean isExhausted()
+    {
+        return next >= rows.size();
+    }
+
+    @Override
+    public Row one()
+    {
+        return isExhausted() ? null : rows.get(next++);
+    }
+
+    @Override
+    public List<Row> all()
+    {
+        List<Row> remaining = new ArrayList<Row>(rows.subList(next, rows.size()));
+        next = rows.size();
+
+        return remaining;
+    }
+
+    @Override
+    public Iterator<Row> iterator()
+    {
+        return new Iterator<Row>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return !isExhausted();
+            }
+
+            @Override
+            public Row next()
+            {
+                return one();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int getAvailableWithoutFetching()
+    {
+        return rows.size() - next;
+    }
+
+    /**
+     * The bytes the cells of the rows not read yet would take in a response, each value and its length
+     */
+    public long cellBytes()
+    {
+        long bytes = 0;
+        for (Row row : rows.subList(next, rows.size()))
+        {
+            for (int i = 0; i < columns.size(); i++)
+            {
+                ByteBuffer value = row.getBytesUnsafe(i);
+                bytes += 4 + (value == null ? 0 : value.remaining());
+            }
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public boolean isFullyFetched()
+    {
+        return true;
+    }
+
+    @Override
+    public ListenableFuture<ResultSet> fetchMoreResults()
+    {
+        return Futures.<ResultSet>immediateFuture(this);
+    }
+
+    @Override
+    public ExecutionInfo getExecutionInfo()
+    {
+        return null;
+    }
+
+    @Override
+    public List<ExecutionInfo> getAllExecutionInfo()
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean wasApplied()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.tjake.mvbench.backend;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+
+/**
+ * Completed by the {@link MemoryStore} once the injected latency has passed.
+ */
+public class MemoryResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture
+{
+    public static MemoryResultSetFuture completed(ResultSet result)
+    {
+        MemoryResultSetFuture future = new MemoryResultSetFuture();
+        future.set(result);
+        return future;
+    }
+
+    void complete(ResultSet result, Throwable error)
+    {
+        if (error == null)
+            set(result);
+        else
+            setException(error);
+    }
+
+    @Override
+    public ResultSet getUninterruptibly()
+    {
+        try
+        {
+            return Uninterruptibles.getUninterruptibly(this);
+        }
+        catch (ExecutionException e)
+        {
+            throw DriverInternals.propagateCause(e);
+        }
+    }
+
+    @Override
+    public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException
+    {
+        try
+        {
+            return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+        }
+        catch (ExecutionException e)
+        {
+            throw DriverInternals.propagateCause(e);
+        }
+    }
+}
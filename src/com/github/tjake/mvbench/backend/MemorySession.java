@@ -0,0 +1,200 @@
+package com.github.tjake.mvbench.backend;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.datastax.driver.core.CloseFuture;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+
+/**
+ * A session on one keyspace of a {@link MemoryStore}.
+ *
+ * Only prepared statements can be executed, queries given as strings are prepared first.
+ */
+public class MemorySession implements Session
+{
+    private final MemoryStore store;
+    private final String keyspace;
+    private final ConcurrentMap<String, PreparedStatement> prepared = new ConcurrentHashMap<String, PreparedStatement>();
+    private volatile boolean isClosed = false;
+
+    MemorySession(MemoryStore store, String keyspace)
+    {
+        this.store = store;
+        this.keyspace = keyspace;
+    }
+
+    @Override
+    public String getLoggedKeyspace()
+    {
+        return keyspace;
+    }
+
+    @Override
+    public Session init()
+    {
+        return this;
+    }
+
+    @Override
+    public ResultSet execute(String query)
+    {
+        return executeAsync(query).getUninterruptibly();
+    }
+
+    @Override
+    public ResultSet execute(String query, Object... values)
+    {
+        return executeAsync(query, values).getUninterruptibly();
+    }
+
+    @Override
+    public ResultSet execute(Statement statement)
+    {
+        return executeAsync(statement).getUninterruptibly();
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(String query)
+    {
+        return executeAsync(prepare(query).bind());
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(String query, Object... values)
+    {
+        return executeAsync(prepare(query).bind(values));
+    }
+
+    @Override
+    public SimpleStatement newSimpleStatement(String query)
+    {
+        throw new UnsupportedOperationException("The in memory backend only runs prepared statements");
+    }
+
+    @Override
+    public SimpleStatement newSimpleStatement(String query, Object... values)
+    {
+        throw new UnsupportedOperationException("The in memory backend only runs prepared statements");
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(Statement statement)
+    {
+        if (isClosed)
+            throw new IllegalStateException("Session is closed");
+
+        return store.execute(statement);
+    }
+
+    @Override
+    public PreparedStatement prepare(String query)
+    {
+        //Like the server, preparing the same query again hands back the same statement
+        PreparedStatement statement = prepared.get(query);
+        if (statement == null)
+        {
+            statement = new MemoryPreparedStatement(query, store, keyspace);
+            PreparedStatement existing = prepared.putIfAbsent(query, statement);
+            if (existing != null)
+                statement = existing;
+        }
+
+        return statement;
+    }
+
+    @Override
+    public PreparedStatement prepare(RegularStatement statement)
+    {
+        return prepare(statement.getQueryString());
+    }
+
+    @Override
+    public ListenableFuture<PreparedStatement> prepareAsync(String query)
+    {
+        return Futures.immediateFuture(prepare(query));
+    }
+
+    @Override
+    public ListenableFuture<PreparedStatement> prepareAsync(RegularStatement statement)
+    {
+        return prepareAsync(statement.getQueryString());
+    }
+
+    @Override
+    public CloseFuture closeAsync()
+    {
+        isClosed = true;
+        return DriverInternals.closed();
+    }
+
+    @Override
+    public void close()
+    {
+        closeAsync();
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return isClosed;
+    }
+
+    @Override
+    public Cluster getCluster()
+    {
+        return null;
+    }
+
+    @Override
+    public State getState()
+    {
+        //There are no hosts or connections to report on
+        return new State()
+        {
+            @Override
+            public Session getSession()
+            {
+                return MemorySession.this;
+            }
+
+            @Override
+            public Collection<Host> getConnectedHosts()
+            {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public int getOpenConnections(Host host)
+            {
+                return 0;
+            }
+
+            @Override
+            public int getTrashedConnections(Host host)
+            {
+                return 0;
+            }
+
+            @Override
+            public int getInFlightQueries(Host host)
+            {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,410 @@
+package com.github.tjake.mvbench.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+
+/**
+ * An in process stand in for Cassandra, so the client side of the benchmark can be measured
+ * without a cluster.
+ *
+ * The keyspaces, tables and materialized views are loaded from a CQL schema (bench_schema.cql)
+ * and views are kept up to date synchronously with every base table write.  Each request is
+ * applied on the calling thread, then answered after a delay drawn from the latency
+ * distribution, or failed according to the error distribution.
+ */
+public class MemoryStore
+{
+    private static final Pattern keyspace = Pattern.compile("CREATE\\s+KEYSPACE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+).*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern table = Pattern.compile("CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?([\\w.]+)\\s*\\((.*)\\)(?:\\s*WITH\\s+.*)?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern view = Pattern.compile("CREATE\\s+MATERIALIZED\\s+VIEW\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?([\\w.]+)\\s+AS\\s+SELECT\\s+(.+?)\\s+FROM\\s+([\\w.]+)\\s+WHERE\\s+(.+?)\\s*PRIMARY\\s+KEY\\s*\\((.*)\\)(?:\\s*WITH\\s+.*)?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern primaryKey = Pattern.compile("PRIMARY\\s+KEY\\s*\\((.*)\\)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern column = Pattern.compile("(\\w+)\\s+(\\w+)(\\s+PRIMARY\\s+KEY)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern use = Pattern.compile("USE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Map<String, MemoryTable>> keyspaces = new LinkedHashMap<String, Map<String, MemoryTable>>();
+
+    private final LatencyDistribution latency;
+    private final ErrorDistribution errors;
+    private final ScheduledThreadPoolExecutor responder;
+
+    public MemoryStore(LatencyDistribution latency, ErrorDistribution errors, int responderThreads)
+    {
+        this.latency = latency;
+        this.errors = errors;
+        this.responder = new ScheduledThreadPoolExecutor(responderThreads, new ThreadFactoryBuilder().setNameFormat("memory-backend-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Creates everything defined in a CQL schema file
+     */
+    public void load(File schema) throws IOException
+    {
+        StringBuilder cql = new StringBuilder();
+        for (String line : Files.readAllLines(schema.toPath(), Charset.defaultCharset()))
+            cql.append(line).append('\n');
+
+        load(cql.toString());
+    }
+
+    /**
+     * Creates everything defined in a CQL schema
+     */
+    public void load(String schema)
+    {
+        StringBuilder cql = new StringBuilder();
+        for (String line : schema.split("\n"))
+        {
+            //Drop comments
+            int comment = line.indexOf("//");
+            if (comment < 0)
+                comment = line.indexOf("--");
+
+            cql.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+        }
+
+        String current = null;
+        for (String statement : cql.toString().split(";"))
+        {
+            statement = statement.trim();
+            if (statement.isEmpty())
+                continue;
+
+            Matcher m;
+            if ((m = keyspace.matcher(statement)).matches())
+            {
+                current = m.group(1).toLowerCase();
+                if (!keyspaces.containsKey(current))
+                    keyspaces.put(current, new LinkedHashMap<String, MemoryTable>());
+            }
+            else if ((m = use.matcher(statement)).matches())
+            {
+                current = m.group(1).toLowerCase();
+            }
+            else if ((m = view.matcher(statement)).matches())
+            {
+                createView(current, m.group(1), m.group(2), m.group(3), m.group(5));
+            }
+            else if ((m = table.matcher(statement)).matches())
+            {
+                createTable(current, m.group(1), m.group(2));
+            }
+            else
+            {
+                throw new InvalidQueryException("Unsupported by the in memory backend: " + statement);
+            }
+        }
+    }
+
+    private void createTable(String current, String qualifiedName, String definition)
+    {
+        Map<String, DataType> columns = new LinkedHashMap<String, DataType>();
+        List<List<String>> key = null;
+
+        for (String entry : splitTopLevel(definition))
+        {
+            Matcher m;
+            if ((m = primaryKey.matcher(entry)).matches())
+            {
+                key = parsePrimaryKey(m.group(1));
+            }
+            else if ((m = column.matcher(entry)).matches())
+            {
+                String name = m.group(1).toLowerCase();
+                columns.put(name, type(m.group(2)));
+
+                if (m.group(3) != null)
+                {
+                    key = new ArrayList<List<String>>();
+                    key.add(single(name));
+                    key.add(new ArrayList<String>());
+                }
+            }
+            else
+            {
+                throw new InvalidQueryException("Unsupported column definition " + entry + " in " + qualifiedName);
+            }
+        }
+
+        if (key == null)
+            throw new InvalidQueryException("No primary key for " + qualifiedName);
+
+        List<String> names = ordered(key, columns.keySet());
+        List<DataType> types = new ArrayList<DataType>(names.size());
+        for (String name : names)
+        {
+            if (!columns.containsKey(name))
+                throw new InvalidQueryException("Unknown primary key column " + name + " in " + qualifiedName);
+
+            types.add(columns.get(name));
+        }
+
+        String keyspace = keyspace(current, qualifiedName);
+        String name = name(qualifiedName);
+        keyspace(keyspace).put(name, new MemoryTable(keyspace, name, names, types, key.get(0).size(), key.get(0).size() + key.get(1).size()));
+    }
+
+    private void createView(String current, String qualifiedName, String selected, String baseName, String primaryKey)
+    {
+        String keyspace = keyspace(current, qualifiedName);
+        String name = name(qualifiedName);
+        MemoryTable base = table(keyspace, baseName);
+
+        List<List<String>> key = parsePrimaryKey(primaryKey);
+
+        //A view holds its primary key and whatever it selects
+        List<String> columns = new ArrayList<String>();
+        if (selected.trim().equals("*"))
+        {
+            columns.addAll(base.columns);
+        }
+        else
+        {
+            for (String column : selected.split(","))
+                columns.add(column.trim().toLowerCase());
+        }
+
+        List<String> names = ordered(key, columns);
+        List<DataType> types = new ArrayList<DataType>(names.size());
+        for (String column : names)
+        {
+            int index = base.indexOf(column);
+            if (index < 0)
+                throw new InvalidQueryException("Unknown column " + column + " in view " + qualifiedName);
+
+            types.add(base.types.get(index));
+        }
+
+        keyspace(keyspace).put(name, new MemoryTable(keyspace, name, names, types, key.get(0).size(), key.get(0).size() + key.get(1).size(), base));
+    }
+
+    //Partition key then clustering columns
+    private static List<List<String>> parsePrimaryKey(String definition)
+    {
+        List<String> parts = splitTopLevel(definition);
+        List<List<String>> key = new ArrayList<List<String>>();
+
+        String partition = parts.get(0);
+        if (partition.startsWith("("))
+        {
+            List<String> partitionKey = new ArrayList<String>();
+            for (String column : partition.substring(1, partition.length() - 1).split(","))
+                partitionKey.add(column.trim().toLowerCase());
+
+            key.add(partitionKey);
+        }
+        else
+        {
+            key.add(single(partition.toLowerCase()));
+        }
+
+        List<String> clustering = new ArrayList<String>();
+        for (String column : parts.subList(1, parts.size()))
+            clustering.add(column.toLowerCase());
+
+        key.add(clustering);
+        return key;
+    }
+
+    //Primary key columns first, then the rest in the order they were declared
+    private static List<String> ordered(List<List<String>> key, Iterable<String> columns)
+    {
+        List<String> names = new ArrayList<String>(key.get(0));
+        names.addAll(key.get(1));
+
+        for (String column : columns)
+        {
+            if (!names.contains(column))
+                names.add(column);
+        }
+
+        return names;
+    }
+
+    private static List<String> single(String name)
+    {
+        List<String> list = new ArrayList<String>(1);
+        list.add(name);
+        return list;
+    }
+
+    //Splits on commas outside of parentheses
+    private static List<String> splitTopLevel(String definition)
+    {
+        List<String> parts = new ArrayList<String>();
+        int depth = 0, start = 0;
+
+        for (int i = 0; i < definition.length(); i++)
+        {
+            char c = definition.charAt(i);
+            if (c == '(')
+                depth++;
+            else if (c == ')')
+                depth--;
+            else if (c == ',' && depth == 0)
+            {
+                parts.add(definition.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+
+        parts.add(definition.substring(start).trim());
+        return parts;
+    }
+
+    private static DataType type(String name)
+    {
+        String type = name.toLowerCase().equals("varchar") ? "text" : name.toLowerCase();
+        for (DataType dataType : DataType.allPrimitiveTypes())
+        {
+            if (dataType.getName().toString().equals(type))
+                return dataType;
+        }
+
+        throw new InvalidQueryException("Unsupported type " + name);
+    }
+
+    private static String keyspace(String current, String qualifiedName)
+    {
+        int dot = qualifiedName.indexOf('.');
+        if (dot >= 0)
+            return qualifiedName.substring(0, dot).toLowerCase();
+
+        if (current == null)
+            throw new InvalidQueryException("No keyspace specified for " + qualifiedName);
+
+        return current;
+    }
+
+    private static String name(String qualifiedName)
+    {
+        return qualifiedName.substring(qualifiedName.indexOf('.') + 1).toLowerCase();
+    }
+
+    private Map<String, MemoryTable> keyspace(String name)
+    {
+        Map<String, MemoryTable> tables = keyspaces.get(name);
+        if (tables == null)
+            throw new InvalidQueryException("Keyspace " + name + " does not exist");
+
+        return tables;
+    }
+
+    /**
+     * @param qualifiedName a table or view, either on its own or prefixed by its keyspace
+     */
+    public MemoryTable table(String current, String qualifiedName)
+    {
+        MemoryTable table = keyspace(keyspace(current, qualifiedName)).get(name(qualifiedName));
+        if (table == null)
+            throw new InvalidQueryException("unconfigured table " + name(qualifiedName));
+
+        return table;
+    }
+
+    public List<MemoryTable> tables(String keyspace)
+    {
+        return new ArrayList<MemoryTable>(keyspace(keyspace).values());
+    }
+
+    public MemorySession connect(String keyspace)
+    {
+        keyspace(keyspace);
+        return new MemorySession(this, keyspace);
+    }
+
+    /**
+     * Applies a bound statement, or a batch of them, and answers once the injected latency has passed
+     */
+    ResultSetFuture execute(Statement statement)
+    {
+        final MemoryResultSetFuture future = new MemoryResultSetFuture();
+        Random random = ThreadLocalRandom.current();
+
+        boolean isBatch = statement instanceof BatchStatement;
+        boolean isRead = !isBatch && prepared(statement).kind == MemoryPreparedStatement.Kind.SELECT;
+
+        ResultSet result = null;
+        DriverException error = errors.next(random, isRead, isBatch, statement.getConsistencyLevel());
+
+        if (error == null)
+        {
+            try
+            {
+                result = apply(statement);
+            }
+            catch (DriverException e)
+            {
+                error = e;
+            }
+        }
+
+        long delay = latency.nextNanos(random);
+        if (delay <= 0)
+        {
+            future.complete(result, error);
+            return future;
+        }
+
+        final ResultSet delayedResult = result;
+        final DriverException delayedError = error;
+        responder.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                future.complete(delayedResult, delayedError);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+
+        return future;
+    }
+
+    private ResultSet apply(Statement statement)
+    {
+        if (statement instanceof BatchStatement)
+        {
+            for (Statement child : ((BatchStatement) statement).getStatements())
+                apply(child);
+
+            return MemoryResultSet.empty();
+        }
+
+        return prepared(statement).execute((BoundStatement) statement);
+    }
+
+    private static MemoryPreparedStatement prepared(Statement statement)
+    {
+        if (!(statement instanceof BoundStatement) || !(((BoundStatement) statement).preparedStatement() instanceof MemoryPreparedStatement))
+            throw new InvalidQueryException("The in memory backend only runs statements it prepared");
+
+        return (MemoryPreparedStatement) ((BoundStatement) statement).preparedStatement();
+    }
+
+    public void close()
+    {
+        responder.shutdown();
+    }
+}
@@ -0,0 +1,305 @@
+package com.github.tjake.mvbench.backend;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+
+/**
+ * A table or materialized view held in memory.
+ *
+ * Columns are ordered partition key, then clustering columns, then the rest, so the first
+ * primaryKeySize values of a row are its primary key.  Rows are ByteBuffer[] indexed by
+ * column with null for columns that were never written.
+ */
+public class MemoryTable
+{
+    public final String keyspace;
+    public final String name;
+    public final List<String> columns;
+    public final List<DataType> types;
+    public final int partitionKeySize;
+    public final int primaryKeySize;
+
+    //For views, which base column each of our columns is copied from
+    private final MemoryTable base;
+    private final int[] baseColumns;
+
+    private final List<MemoryTable> views = new CopyOnWriteArrayList<MemoryTable>();
+
+    private final ConcurrentMap<List<ByteBuffer>, ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]>> partitions
+            = new ConcurrentHashMap<List<ByteBuffer>, ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]>>();
+
+    private final Comparator<ByteBuffer[]> clusteringComparator = new Comparator<ByteBuffer[]>()
+    {
+        @Override
+        public int compare(ByteBuffer[] a, ByteBuffer[] b)
+        {
+            //Keys are compared component by component, a prefix sorts before anything it prefixes
+            for (int i = 0; i < a.length && i < b.length; i++)
+            {
+                int c = compareValues(types.get(partitionKeySize + i), a[i], b[i]);
+                if (c != 0)
+                    return c;
+            }
+
+            return a.length - b.length;
+        }
+    };
+
+    public MemoryTable(String keyspace, String name, List<String> columns, List<DataType> types, int partitionKeySize, int primaryKeySize)
+    {
+        this(keyspace, name, columns, types, partitionKeySize, primaryKeySize, null);
+    }
+
+    /**
+     * A materialized view of base, every one of our columns must exist in the base table
+     */
+    public MemoryTable(String keyspace, String name, List<String> columns, List<DataType> types, int partitionKeySize, int primaryKeySize, MemoryTable base)
+    {
+        this.keyspace = keyspace;
+        this.name = name;
+        this.columns = columns;
+        this.types = types;
+        this.partitionKeySize = partitionKeySize;
+        this.primaryKeySize = primaryKeySize;
+        this.base = base;
+
+        if (base == null)
+        {
+            baseColumns = null;
+            return;
+        }
+
+        baseColumns = new int[columns.size()];
+        for (int i = 0; i < baseColumns.length; i++)
+        {
+            baseColumns[i] = base.indexOf(columns.get(i));
+            if (baseColumns[i] < 0)
+                throw new InvalidQueryException("Unknown column " + columns.get(i) + " in view " + name);
+        }
+
+        base.views.add(this);
+    }
+
+    public boolean isView()
+    {
+        return base != null;
+    }
+
+    public int indexOf(String column)
+    {
+        return columns.indexOf(column);
+    }
+
+    /**
+     * How many rows the table holds, walks every partition
+     */
+    public long size()
+    {
+        long size = 0;
+        for (ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition : partitions.values())
+            size += partition.size();
+
+        return size;
+    }
+
+    /**
+     * Insert or update the columns set in values, the primary key must be complete
+     */
+    public void upsert(ByteBuffer[] values)
+    {
+        if (isView())
+            throw new InvalidQueryException("Cannot directly modify a materialized view");
+
+        ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition = partition(values, true);
+        ByteBuffer[] clustering = clustering(values, primaryKeySize);
+
+        //Base writes are serialized per partition so the views always see the row they replace
+        synchronized (partition)
+        {
+            ByteBuffer[] previous = partition.get(clustering);
+            ByteBuffer[] row = previous == null ? new ByteBuffer[columns.size()] : previous.clone();
+
+            for (int i = 0; i < values.length; i++)
+            {
+                if (values[i] != null)
+                    row[i] = values[i];
+            }
+
+            partition.put(clustering, row);
+            updateViews(previous, row);
+        }
+    }
+
+    /**
+     * Delete every row starting with the first keySize values, the partition key must be complete
+     */
+    public void delete(ByteBuffer[] values, int keySize)
+    {
+        if (isView())
+            throw new InvalidQueryException("Cannot directly modify a materialized view");
+
+        ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition = partition(values, false);
+        if (partition == null)
+            return;
+
+        synchronized (partition)
+        {
+            for (ByteBuffer[] previous : slice(partition, clustering(values, keySize), Integer.MAX_VALUE))
+            {
+                partition.remove(clustering(previous, primaryKeySize));
+                updateViews(previous, null);
+            }
+        }
+    }
+
+    /**
+     * The rows starting with the first keySize values, at most limit of them
+     */
+    public List<ByteBuffer[]> select(ByteBuffer[] values, int keySize, int limit)
+    {
+        ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition = partition(values, false);
+        if (partition == null)
+            return new ArrayList<ByteBuffer[]>(0);
+
+        return slice(partition, clustering(values, keySize), limit);
+    }
+
+    private void updateViews(ByteBuffer[] previous, ByteBuffer[] row)
+    {
+        for (MemoryTable view : views)
+        {
+            ByteBuffer[] previousViewRow = view.fromBase(previous);
+            ByteBuffer[] viewRow = view.fromBase(row);
+
+            if (previousViewRow != null && (viewRow == null || !view.samePrimaryKey(previousViewRow, viewRow)))
+            {
+                ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition = view.partition(previousViewRow, false);
+                if (partition != null)
+                    partition.remove(view.clustering(previousViewRow, view.primaryKeySize));
+            }
+
+            if (viewRow != null)
+                view.partition(viewRow, true).put(view.clustering(viewRow, view.primaryKeySize), viewRow);
+        }
+    }
+
+    //The view row for a base row, null if any of the view's primary key is missing
+    private ByteBuffer[] fromBase(ByteBuffer[] baseRow)
+    {
+        if (baseRow == null)
+            return null;
+
+        ByteBuffer[] row = new ByteBuffer[columns.size()];
+        for (int i = 0; i < row.length; i++)
+        {
+            row[i] = baseRow[baseColumns[i]];
+            if (row[i] == null && i < primaryKeySize)
+                return null;
+        }
+
+        return row;
+    }
+
+    private boolean samePrimaryKey(ByteBuffer[] a, ByteBuffer[] b)
+    {
+        for (int i = 0; i < primaryKeySize; i++)
+        {
+            if (!a[i].equals(b[i]))
+                return false;
+        }
+
+        return true;
+    }
+
+    private ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition(ByteBuffer[] values, boolean create)
+    {
+        for (int i = 0; i < partitionKeySize; i++)
+        {
+            if (values[i] == null)
+                throw new InvalidQueryException("Missing partition key column " + columns.get(i) + " for " + name);
+        }
+
+        List<ByteBuffer> key = Arrays.asList(Arrays.copyOf(values, partitionKeySize));
+        ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition = partitions.get(key);
+
+        if (partition == null && create)
+        {
+            partition = new ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]>(clusteringComparator);
+            ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> existing = partitions.putIfAbsent(key, partition);
+            if (existing != null)
+                partition = existing;
+        }
+
+        return partition;
+    }
+
+    private ByteBuffer[] clustering(ByteBuffer[] values, int keySize)
+    {
+        for (int i = partitionKeySize; i < keySize; i++)
+        {
+            if (values[i] == null)
+                throw new InvalidQueryException("Missing primary key column " + columns.get(i) + " for " + name);
+        }
+
+        return Arrays.copyOfRange(values, partitionKeySize, keySize);
+    }
+
+    //The first limit rows whose clustering starts with prefix
+    private List<ByteBuffer[]> slice(ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> partition, ByteBuffer[] prefix, int limit)
+    {
+        List<ByteBuffer[]> rows = new ArrayList<ByteBuffer[]>();
+
+        //A prefix sorts before every key it prefixes, so they all directly follow it
+        for (Map.Entry<ByteBuffer[], ByteBuffer[]> entry : partition.tailMap(prefix, true).entrySet())
+        {
+            if (rows.size() >= limit || clusteringComparator.compare(Arrays.copyOf(entry.getKey(), prefix.length), prefix) != 0)
+                break;
+
+            rows.add(entry.getValue());
+        }
+
+        return rows;
+    }
+
+    static int compareValues(DataType type, ByteBuffer a, ByteBuffer b)
+    {
+        switch (type.getName())
+        {
+            case BIGINT:
+            case COUNTER:
+            case TIMESTAMP:
+            case TIME:
+                return compareLong(a.getLong(a.position()), b.getLong(b.position()));
+            case INT:
+            case DATE:
+                return compareLong(a.getInt(a.position()), b.getInt(b.position()));
+            default:
+                //Everything else we use sorts by its unsigned bytes
+                int length = Math.min(a.remaining(), b.remaining());
+                for (int i = 0; i < length; i++)
+                {
+                    int c = (a.get(a.position() + i) & 0xff) - (b.get(b.position() + i) & 0xff);
+                    if (c != 0)
+                        return c;
+                }
+
+                return a.remaining() - b.remaining();
+        }
+    }
+
+    private static int compareLong(long a, long b)
+    {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
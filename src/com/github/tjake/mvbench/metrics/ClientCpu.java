@@ -0,0 +1,119 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * How much CPU the benchmark process spends per operation, to weigh one way of running the
+ * operations against another at the same rate.
+ *
+ * The process CPU time (all threads, GC and the driver's included) since start() is divided
+ * by the operations the given timers finished meanwhile, warmup included.  The gauges,
+ * client-cpu-cores and client-cpu-us-per-op, and the report cover the run so far.  This
+ * reads the timers' counts rather than listening for intervals, so it doesn't need interval
+ * histograms recorded.  With the MEMORY backend the simulated cluster runs in the same
+ * process and is counted too.
+ */
+public class ClientCpu
+{
+    private final MetricRegistry registry;
+    private final String[] timers;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private volatile long startCpuNanos = -1;
+    private volatile long startMs;
+
+    /**
+     * @param timers the timers whose operations the CPU is shared between
+     */
+    public ClientCpu(MetricRegistry registry, String... timers)
+    {
+        this.registry = registry;
+        this.timers = timers;
+
+        registry.register("client-cpu-cores", new Gauge<Double>()
+        {
+            @Override
+            public Double getValue()
+            {
+                long cpuNanos = cpuNanosSinceStart();
+                long ms = System.currentTimeMillis() - startMs;
+                return cpuNanos < 0 || ms <= 0 ? 0 : cpuNanos / 1e6 / ms;
+            }
+        });
+
+        registry.register("client-cpu-us-per-op", new Gauge<Double>()
+        {
+            @Override
+            public Double getValue()
+            {
+                long cpuNanos = cpuNanosSinceStart();
+                long ops = ops();
+                return cpuNanos < 0 || ops == 0 ? 0 : cpuNanos / 1e3 / ops;
+            }
+        });
+    }
+
+    public void start()
+    {
+        startMs = System.currentTimeMillis();
+        startCpuNanos = cpuNanos();
+    }
+
+    //-1 where the JVM can't tell us
+    private long cpuNanos()
+    {
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+
+        return -1;
+    }
+
+    //-1 before start or where the JVM can't tell us
+    private long cpuNanosSinceStart()
+    {
+        long start = startCpuNanos;
+        long cpu = cpuNanos();
+        return start < 0 || cpu < 0 ? -1 : cpu - start;
+    }
+
+    //The timers' operations, and those they set aside as warmup
+    private long ops()
+    {
+        long ops = 0;
+        Map<String, Metric> metrics = registry.getMetrics();
+        for (String timer : timers)
+        {
+            for (String name : new String[] { timer, "warmup-" + timer })
+            {
+                Metric metric = metrics.get(name);
+                if (metric instanceof Timer)
+                    ops += ((Timer) metric).getCount();
+            }
+        }
+
+        return ops;
+    }
+
+    public void printReport()
+    {
+        long cpuNanos = cpuNanosSinceStart();
+        long ops = ops();
+        long ms = System.currentTimeMillis() - startMs;
+
+        if (cpuNanos < 0 || ops == 0 || ms <= 0)
+        {
+            System.out.println("Client CPU: not measured");
+            return;
+        }
+
+        System.out.println(String.format("Client CPU: %.1fus per operation, %.2f cores on average over %d operations",
+                                         cpuNanos / 1e3 / ops, cpuNanos / 1e6 / ms, ops));
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Writes a HdrHistogram interval log (.hlog) per timer, values are in nanoseconds.
+ */
+public class HistogramLogger implements IntervalListener
+{
+    private final File directory;
+    private final int intervalSeconds;
+    private final long baseTimeMs;
+
+    private final Map<String, PrintStream> streams = new HashMap<String, PrintStream>();
+    private final Map<String, HistogramLogWriter> writers = new HashMap<String, HistogramLogWriter>();
+    private final Map<String, Histogram> pending = new HashMap<String, Histogram>();
+
+    private int ticks = 0;
+    private long pendingStartMs = -1;
+
+    public HistogramLogger(File directory, int intervalSeconds)
+    {
+        assert intervalSeconds > 0;
+
+        this.directory = directory;
+        this.intervalSeconds = intervalSeconds;
+        this.baseTimeMs = System.currentTimeMillis();
+    }
+
+    @Override
+    public void onInterval(long startTimeMs, long endTimeMs, Map<String, Histogram> intervals)
+    {
+        if (pendingStartMs < 0)
+            pendingStartMs = startTimeMs;
+
+        for (Map.Entry<String, Histogram> entry : intervals.entrySet())
+        {
+            Histogram histogram = pending.get(entry.getKey());
+            if (histogram == null)
+                pending.put(entry.getKey(), entry.getValue().copy());
+            else
+                histogram.add(entry.getValue());
+        }
+
+        if (++ticks >= intervalSeconds)
+            flush(endTimeMs);
+    }
+
+    @Override
+    public void close()
+    {
+        if (ticks > 0)
+            flush(System.currentTimeMillis());
+
+        for (PrintStream stream : streams.values())
+            stream.close();
+    }
+
+    private void flush(long endTimeMs)
+    {
+        for (Map.Entry<String, Histogram> entry : pending.entrySet())
+        {
+            HistogramLogWriter writer = writer(entry.getKey());
+            if (writer == null)
+                continue;
+
+            Histogram histogram = entry.getValue();
+            histogram.setStartTimeStamp(pendingStartMs);
+            histogram.setEndTimeStamp(endTimeMs);
+
+            //Timestamps are relative to the start time in the log header, max is reported in ms
+            writer.outputIntervalHistogram((pendingStartMs - baseTimeMs) / 1000.0, (endTimeMs - baseTimeMs) / 1000.0, histogram, 1000000.0);
+        }
+
+        pending.clear();
+        ticks = 0;
+        pendingStartMs = -1;
+    }
+
+    private HistogramLogWriter writer(String name)
+    {
+        HistogramLogWriter writer = writers.get(name);
+        if (writer != null)
+            return writer;
+
+        try
+        {
+            directory.mkdirs();
+            PrintStream stream = new PrintStream(new File(directory, name + ".hlog"));
+
+            writer = new HistogramLogWriter(stream);
+            writer.outputComment("[mvbench " + name + ", values in nanoseconds]");
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(baseTimeMs);
+            writer.outputLegend();
+
+            streams.put(name, stream);
+            writers.put(name, writer);
+
+            return writer;
+        }
+        catch (FileNotFoundException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
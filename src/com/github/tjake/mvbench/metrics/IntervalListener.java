@@ -0,0 +1,21 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Receives the interval histograms of every timer once per sampling tick.
+ */
+public interface IntervalListener
+{
+    /**
+     * @param intervals the values recorded by each timer during the interval, keyed by timer name
+     */
+    void onInterval(long startTimeMs, long endTimeMs, Map<String, Histogram> intervals);
+
+    /**
+     * Called once after the last interval
+     */
+    void close();
+}
@@ -0,0 +1,79 @@
+package com.github.tjake.mvbench.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+/**
+ * A HdrHistogram reservoir that can also record into its own interval recorder, so the
+ * full precision histogram of each interval can be pulled out without resetting
+ * or locking the running totals used by the reporters.
+ *
+ * The recorder only exists once intervals are started, before then, or when nothing
+ * listens for them, values only go into the totals.
+ */
+public class IntervalReservoir implements Reservoir
+{
+    private final HdrHistogramReservoir totals = new HdrHistogramReservoir();
+    private volatile Recorder recorder;
+
+    public IntervalReservoir()
+    {
+        this(null);
+    }
+
+    private IntervalReservoir(Recorder recorder)
+    {
+        this.recorder = recorder;
+    }
+
+    /**
+     * A reservoir with empty totals that carries on recording into the same intervals
+     */
+    public IntervalReservoir restart()
+    {
+        return new IntervalReservoir(recorder);
+    }
+
+    /**
+     * Starts recording intervals, dropping nothing as there was nothing recorded before
+     */
+    public synchronized void startIntervals()
+    {
+        if (recorder == null)
+            recorder = new Recorder(3);
+    }
+
+    @Override
+    public int size()
+    {
+        return totals.size();
+    }
+
+    @Override
+    public void update(long value)
+    {
+        totals.update(value);
+
+        Recorder recorder = this.recorder;
+        if (recorder != null)
+            recorder.recordValue(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot()
+    {
+        return totals.getSnapshot();
+    }
+
+    /**
+     * Everything recorded since the last call, empty until intervals are started
+     */
+    public Histogram getIntervalHistogram()
+    {
+        Recorder recorder = this.recorder;
+        return recorder == null ? new Histogram(3) : recorder.getIntervalHistogram();
+    }
+}
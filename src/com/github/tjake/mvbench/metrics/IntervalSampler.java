@@ -0,0 +1,158 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Creates the timers of a registry and, once started, pulls the interval
+ * histogram of every one of them each second and hands them to the listeners.
+ *
+ * Interval histograms are only recorded once started with at least one listener.
+ */
+public class IntervalSampler
+{
+    private final MetricRegistry registry;
+    private final ConcurrentMap<String, IntervalReservoir> reservoirs = new ConcurrentHashMap<String, IntervalReservoir>();
+    private final ConcurrentMap<String, RestartableTimer> timers = new ConcurrentHashMap<String, RestartableTimer>();
+    private final List<IntervalListener> listeners = new CopyOnWriteArrayList<IntervalListener>();
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean isRecording = false;
+    private long lastTickMs;
+
+    public IntervalSampler(MetricRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    public Timer timer(String name)
+    {
+        IntervalReservoir reservoir = new IntervalReservoir();
+        RestartableTimer timer = registry.register(name, new RestartableTimer(new Timer(reservoir)));
+        reservoirs.put(name, reservoir);
+        timers.put(name, timer);
+
+        //Created after start, e.g. by a class first loaded mid run
+        if (isRecording)
+            reservoir.startIntervals();
+
+        return timer;
+    }
+
+    /**
+     * Sets everything the timers recorded so far aside as warmup-name, every timer then starts
+     * over from empty.  The interval histograms carry on as before.
+     */
+    public synchronized void endWarmup()
+    {
+        for (Map.Entry<String, RestartableTimer> entry : timers.entrySet())
+        {
+            IntervalReservoir reservoir = reservoirs.get(entry.getKey()).restart();
+            reservoirs.put(entry.getKey(), reservoir);
+
+            registry.register("warmup-" + entry.getKey(), entry.getValue().restart(new Timer(reservoir)));
+        }
+    }
+
+    public void addListener(IntervalListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public synchronized void start()
+    {
+        if (scheduler != null || listeners.isEmpty())
+            return;
+
+        lastTickMs = System.currentTimeMillis();
+
+        //Set first, so a timer created meanwhile is either seen here or sees this
+        isRecording = true;
+        for (IntervalReservoir reservoir : reservoirs.values())
+            reservoir.startIntervals();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "interval-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        scheduler.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                tick();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop()
+    {
+        if (scheduler == null)
+            return;
+
+        scheduler.shutdown();
+        try
+        {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        //Pick up the partial interval since the last tick
+        tick();
+
+        for (IntervalListener listener : listeners)
+            listener.close();
+
+        scheduler = null;
+    }
+
+    private synchronized void tick()
+    {
+        long nowMs = System.currentTimeMillis();
+
+        Map<String, Histogram> intervals = new TreeMap<String, Histogram>();
+        for (Map.Entry<String, IntervalReservoir> entry : reservoirs.entrySet())
+        {
+            Histogram interval = entry.getValue().getIntervalHistogram();
+            interval.setStartTimeStamp(lastTickMs);
+            interval.setEndTimeStamp(nowMs);
+            intervals.put(entry.getKey(), interval);
+        }
+
+        for (IntervalListener listener : listeners)
+        {
+            try
+            {
+                listener.onInterval(lastTickMs, nowMs, intervals);
+            }
+            catch (Throwable t)
+            {
+                t.printStackTrace();
+            }
+        }
+
+        lastTickMs = nowMs;
+    }
+}
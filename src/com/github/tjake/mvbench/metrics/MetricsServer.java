@@ -0,0 +1,274 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.HdrHistogram.Histogram;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Serves the live metrics over HTTP while a run goes, for watching long runs.
+ *
+ *   /metrics       Prometheus text
+ *   /metrics.json  the same as JSON
+ *
+ * Latencies and rates come from the last one second interval of every timer, summarised
+ * as the sampler hands the interval over, so serving a request never touches the timers
+ * the operations record into.  Meters, counters and gauges are read from the registry as
+ * they stand, their totals and rates.
+ */
+public class MetricsServer implements IntervalListener
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double[] percentiles = new double[] { 50, 90, 99, 99.9 };
+    private static final String[] percentileNames = new String[] { "p50", "p90", "p99", "p999" };
+    private static final String[] quantiles = new String[] { "0.5", "0.9", "0.99", "0.999" };
+
+    /**
+     * One timer's interval
+     */
+    static class Interval
+    {
+        final long count;
+        final double rate;
+        final double[] percentilesMs = new double[percentiles.length];
+        final double maxMs;
+
+        Interval(Histogram histogram, double seconds)
+        {
+            this.count = histogram.getTotalCount();
+            this.rate = seconds > 0 ? count / seconds : 0;
+            for (int i = 0; i < percentiles.length; i++)
+                percentilesMs[i] = histogram.getValueAtPercentile(percentiles[i]) / 1e6;
+
+            this.maxMs = histogram.getMaxValue() / 1e6;
+        }
+    }
+
+    private final MetricRegistry registry;
+    private final HttpServer server;
+
+    //Replaced each interval, never changed once published
+    private volatile Map<String, Interval> last = Collections.emptyMap();
+    private volatile long lastEndMs = 0;
+
+    public MetricsServer(MetricRegistry registry, String host, int port) throws IOException
+    {
+        this.registry = registry;
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+
+        server.createContext("/metrics", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                boolean json = exchange.getRequestURI().getPath().endsWith(".json");
+                respond(exchange, json ? "application/json" : "text/plain; version=0.0.4", json ? json() : prometheus());
+            }
+        });
+
+        server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "metrics-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+
+        server.start();
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return server.getAddress();
+    }
+
+    @Override
+    public void onInterval(long startTimeMs, long endTimeMs, Map<String, Histogram> intervals)
+    {
+        double seconds = (endTimeMs - startTimeMs) / 1000.0;
+
+        Map<String, Interval> summary = new TreeMap<String, Interval>();
+        for (Map.Entry<String, Histogram> entry : intervals.entrySet())
+            summary.put(entry.getKey(), new Interval(entry.getValue(), seconds));
+
+        last = summary;
+        lastEndMs = endTimeMs;
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        OutputStream out = exchange.getResponseBody();
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    String prometheus()
+    {
+        StringBuilder out = new StringBuilder();
+        Map<String, Interval> intervals = last;
+
+        out.append("# HELP mvbench_interval_rate Operations per second over the last interval\n");
+        out.append("# TYPE mvbench_interval_rate gauge\n");
+        for (Map.Entry<String, Interval> entry : intervals.entrySet())
+            sample(out, "mvbench_interval_rate", "timer", entry.getKey(), null, entry.getValue().rate);
+
+        out.append("# HELP mvbench_interval_latency_ms Latency percentiles over the last interval\n");
+        out.append("# TYPE mvbench_interval_latency_ms gauge\n");
+        for (Map.Entry<String, Interval> entry : intervals.entrySet())
+        {
+            for (int i = 0; i < percentiles.length; i++)
+                sample(out, "mvbench_interval_latency_ms", "timer", entry.getKey(), quantiles[i], entry.getValue().percentilesMs[i]);
+        }
+
+        out.append("# HELP mvbench_interval_latency_max_ms The slowest operation of the last interval\n");
+        out.append("# TYPE mvbench_interval_latency_max_ms gauge\n");
+        for (Map.Entry<String, Interval> entry : intervals.entrySet())
+            sample(out, "mvbench_interval_latency_max_ms", "timer", entry.getKey(), null, entry.getValue().maxMs);
+
+        out.append("# TYPE mvbench_timer_count counter\n");
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet())
+            sample(out, "mvbench_timer_count", "timer", entry.getKey(), null, entry.getValue().getCount());
+
+        out.append("# TYPE mvbench_meter_count counter\n");
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet())
+            sample(out, "mvbench_meter_count", "meter", entry.getKey(), null, entry.getValue().getCount());
+
+        out.append("# HELP mvbench_meter_rate One minute rate per second\n");
+        out.append("# TYPE mvbench_meter_rate gauge\n");
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet())
+            sample(out, "mvbench_meter_rate", "meter", entry.getKey(), null, entry.getValue().getOneMinuteRate());
+
+        out.append("# TYPE mvbench_counter gauge\n");
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet())
+            sample(out, "mvbench_counter", "counter", entry.getKey(), null, entry.getValue().getCount());
+
+        out.append("# TYPE mvbench_gauge gauge\n");
+        for (Map.Entry<String, Double> entry : gauges().entrySet())
+            sample(out, "mvbench_gauge", "gauge", entry.getKey(), null, entry.getValue());
+
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String metric, String label, String name, String quantile, double value)
+    {
+        out.append(metric).append('{').append(label).append("=\"").append(escape(name)).append('"');
+        if (quantile != null)
+            out.append(",quantile=\"").append(quantile).append('"');
+
+        out.append("} ").append(value).append('\n');
+    }
+
+    String json()
+    {
+        StringBuilder out = new StringBuilder();
+        Map<String, Interval> intervals = last;
+
+        out.append("{\"interval_end_ms\":").append(lastEndMs).append(",\"intervals\":{");
+        boolean first = true;
+        for (Map.Entry<String, Interval> entry : intervals.entrySet())
+        {
+            Interval interval = entry.getValue();
+
+            out.append(first ? "" : ",").append('"').append(escape(entry.getKey())).append("\":{\"count\":").append(interval.count)
+               .append(",\"rate\":").append(number(interval.rate));
+            for (int i = 0; i < percentiles.length; i++)
+                out.append(",\"").append(percentileNames[i]).append("_ms\":").append(number(interval.percentilesMs[i]));
+
+            out.append(",\"max_ms\":").append(number(interval.maxMs)).append('}');
+            first = false;
+        }
+
+        out.append("},\"meters\":{");
+        first = true;
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet())
+        {
+            out.append(first ? "" : ",").append('"').append(escape(entry.getKey())).append("\":{\"count\":").append(entry.getValue().getCount())
+               .append(",\"rate\":").append(number(entry.getValue().getOneMinuteRate())).append('}');
+            first = false;
+        }
+
+        out.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet())
+        {
+            out.append(first ? "" : ",").append('"').append(escape(entry.getKey())).append("\":").append(entry.getValue().getCount());
+            first = false;
+        }
+
+        out.append("},\"gauges\":{");
+        first = true;
+        for (Map.Entry<String, Double> entry : gauges().entrySet())
+        {
+            out.append(first ? "" : ",").append('"').append(escape(entry.getKey())).append("\":").append(number(entry.getValue()));
+            first = false;
+        }
+
+        return out.append("}}").toString();
+    }
+
+    //The gauges with a numeric value
+    private SortedMap<String, Double> gauges()
+    {
+        SortedMap<String, Double> values = new TreeMap<String, Double>();
+        //getGauges() hands back raw Gauges, the metrics themselves can be checked for one
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet())
+        {
+            if (!(entry.getValue() instanceof Gauge))
+                continue;
+
+            Object value = ((Gauge<?>) entry.getValue()).getValue();
+            if (value instanceof Number)
+                values.put(entry.getKey(), ((Number) value).doubleValue());
+        }
+
+        return values;
+    }
+
+    //JSON has no NaN or infinity
+    private static String number(double value)
+    {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    private static String escape(String name)
+    {
+        return name.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * A timer that records into a timer it can swap out, so what was recorded so far can be
+ * set aside while everything holding this one keeps recording into a fresh one.
+ */
+public class RestartableTimer extends Timer
+{
+    private volatile Timer current;
+
+    public RestartableTimer(Timer current)
+    {
+        this.current = current;
+    }
+
+    /**
+     * Starts recording into next
+     * @return the timer recorded into until now
+     */
+    public Timer restart(Timer next)
+    {
+        Timer previous = current;
+        current = next;
+        return previous;
+    }
+
+    @Override
+    public void update(long duration, TimeUnit unit)
+    {
+        current.update(duration, unit);
+    }
+
+    @Override
+    public <T> T time(Callable<T> event) throws Exception
+    {
+        return current.time(event);
+    }
+
+    @Override
+    public Context time()
+    {
+        return current.time();
+    }
+
+    @Override
+    public long getCount()
+    {
+        return current.getCount();
+    }
+
+    @Override
+    public double getFifteenMinuteRate()
+    {
+        return current.getFifteenMinuteRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate()
+    {
+        return current.getFiveMinuteRate();
+    }
+
+    @Override
+    public double getMeanRate()
+    {
+        return current.getMeanRate();
+    }
+
+    @Override
+    public double getOneMinuteRate()
+    {
+        return current.getOneMinuteRate();
+    }
+
+    @Override
+    public Snapshot getSnapshot()
+    {
+        return current.getSnapshot();
+    }
+}
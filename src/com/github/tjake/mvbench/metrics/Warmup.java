@@ -0,0 +1,128 @@
+package com.github.tjake.mvbench.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Decides when the warmup is over and then restarts the timers of a sampler, so the
+ * reports only cover what came after it.
+ *
+ * The warmup lasts at least the given time and number of completed operations.  With a
+ * steady state window it then carries on until throughput and p99 over the last window
+ * seconds each vary by no more than the tolerance (their coefficient of variation), or
+ * until the time limit, whichever comes first.
+ */
+public class Warmup implements IntervalListener
+{
+    private final IntervalSampler sampler;
+    private final String timer;
+    private final long minMs;
+    private final long minOps;
+    private final double tolerance;
+    private final long maxMs;
+
+    //The last window intervals of throughput and p99, as rings
+    private final double[] throughput;
+    private final double[] p99;
+    private int sampled = 0;
+
+    private long startMs = -1;
+    private long ops = 0;
+    private volatile boolean finished = false;
+
+    /**
+     * @param timer the timer whose operations are counted and checked for steady state
+     * @param window how many one second intervals must be steady, 0 to not wait for a steady state
+     */
+    public Warmup(IntervalSampler sampler, String timer, long minSeconds, long minOps, int window, double tolerance, long maxSeconds)
+    {
+        this.sampler = sampler;
+        this.timer = timer;
+        this.minMs = TimeUnit.SECONDS.toMillis(minSeconds);
+        this.minOps = minOps;
+        this.tolerance = tolerance;
+        this.maxMs = TimeUnit.SECONDS.toMillis(maxSeconds);
+        this.throughput = new double[window];
+        this.p99 = new double[window];
+    }
+
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    @Override
+    public void onInterval(long startTimeMs, long endTimeMs, Map<String, Histogram> intervals)
+    {
+        if (finished)
+            return;
+
+        if (startMs < 0)
+            startMs = startTimeMs;
+
+        Histogram interval = intervals.get(timer);
+        ops += interval.getTotalCount();
+
+        if (throughput.length > 0)
+        {
+            int slot = sampled++ % throughput.length;
+            throughput[slot] = interval.getTotalCount() * 1000.0 / Math.max(1, endTimeMs - startTimeMs);
+            p99[slot] = interval.getValueAtPercentile(99);
+        }
+
+        long elapsedMs = endTimeMs - startMs;
+        if (elapsedMs < minMs || ops < minOps)
+            return;
+
+        String reason;
+        if (throughput.length == 0)
+            reason = "";
+        else if (isSteady())
+            reason = String.format(", throughput and p99 were steady to within %.0f%% over %ds", tolerance * 100, throughput.length);
+        else if (elapsedMs >= maxMs)
+            reason = String.format(", gave up waiting for a steady state after %ds", TimeUnit.MILLISECONDS.toSeconds(maxMs));
+        else
+            return;
+
+        sampler.endWarmup();
+        finished = true;
+
+        System.out.println(String.format("Warmup finished after %ds and %d operations%s, reports cover only what follows (warmup-* have the warmup)",
+                                         TimeUnit.MILLISECONDS.toSeconds(elapsedMs), ops, reason));
+    }
+
+    private boolean isSteady()
+    {
+        if (sampled < throughput.length)
+            return false;
+
+        return variation(throughput) <= tolerance && variation(p99) <= tolerance;
+    }
+
+    //Coefficient of variation, the standard deviation relative to the mean
+    private static double variation(double[] values)
+    {
+        double mean = 0;
+        for (double value : values)
+            mean += value;
+
+        mean /= values.length;
+        if (mean == 0)
+            return Double.MAX_VALUE;
+
+        double variance = 0;
+        for (double value : values)
+            variance += (value - mean) * (value - mean);
+
+        return Math.sqrt(variance / values.length) / mean;
+    }
+
+    @Override
+    public void close()
+    {
+        if (!finished)
+            System.out.println("The run ended before the warmup did, reports include the warmup");
+    }
+}
@@ -1,18 +1,33 @@
 package com.github.tjake.mvbench.playlist;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
-import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+import com.datastax.driver.core.Statement;
+import com.github.tjake.mvbench.metrics.IntervalSampler;
 
 /**
  * Created by jake on 8/14/15.
@@ -20,133 +35,818 @@ import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
 public abstract class AbstractPlaylist
 {
     public static final MetricRegistry registry = new MetricRegistry();
+    public static final IntervalSampler intervals = new IntervalSampler(registry);
 
-    public static Timer totalTimer = registry.register("total", new Timer(new HdrHistogramReservoir()));
-    public static Timer readTimer = registry.register("read", new Timer(new HdrHistogramReservoir()));
-    public static Timer addTimer = registry.register("add", new Timer(new HdrHistogramReservoir()));
-    public static Timer updateTimer = registry.register("update", new Timer(new HdrHistogramReservoir()));
-    public static Timer deleteTimer = registry.register("delete", new Timer(new HdrHistogramReservoir()));
-    public static Timer errorTimer = registry.register("error", new Timer(new HdrHistogramReservoir()));
+    public static Timer totalTimer = timer("total");
+    public static Timer readTimer = timer("read");
+    public static Timer addTimer = timer("add");
+    public static Timer updateTimer = timer("update");
+    public static Timer deleteTimer = timer("delete");
+    public static Timer errorTimer = timer("error");
 
+    //Same as above but measured from when the scheduler intended to send the operation,
+    //so stalls in the cluster or the client aren't hidden (coordinated omission)
+    public static Timer totalCorrectedTimer = timer("total-corrected");
+    public static Timer addCorrectedTimer = timer("add-corrected");
+    public static Timer updateCorrectedTimer = timer("update-corrected");
+    public static Timer deleteCorrectedTimer = timer("delete-corrected");
+
+
+    public static Timer timer(String name)
+    {
+        return intervals.timer(name);
+    }
+
+    //Where the time inside each type of operation goes
+    private static final Timer[][] phaseTimers = new Timer[Type.values().length][Phase.values().length];
+
+    static
+    {
+        for (Type type : Type.values())
+            for (Phase phase : Phase.values())
+                phaseTimers[type.ordinal()][phase.ordinal()] = timer(type.name().toLowerCase() + "-" + phase.name().toLowerCase());
+    }
 
     public static AtomicLong tracker = new AtomicLong(0);
-    protected static ExecutorService executor = Executors.newFixedThreadPool(16);
+    public static volatile InFlightLimiter limiter = InFlightLimiter.fixed(1000);
+
+    static
+    {
+        registry.register("inflight", new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return tracker.get();
+            }
+        });
+
+        registry.register("inflight-limit", new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                return limiter.getLimit();
+            }
+        });
+
+        registry.register("inflight-limit-increases", new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return limiter.getIncreases();
+            }
+        });
+
+        registry.register("inflight-limit-decreases", new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return limiter.getDecreases();
+            }
+        });
+    }
+
+    protected static final ThreadPoolExecutor workerPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(16);
+    public static Timer executorWaitTimer = timer("executor-wait");
+    public static Gauge<Integer> executorQueueGauge = registry.register("executor-queue", new Gauge<Integer>()
+    {
+        @Override
+        public Integer getValue()
+        {
+            return workerPool.getQueue().size();
+        }
+    });
+
+    /**
+     * Where operations are built and where their callbacks run
+     */
+    public enum ExecutionMode
+    {
+        //Hand each operation and callback to the worker pool
+        POOLED,
+        //Build and send on the issuing thread, run callbacks on the driver's I/O threads
+        INLINE,
+        //Run each operation as blocking calls on a (virtual) thread of its own, see SyncExecutor
+        SYNC
+    }
+
+    private static volatile ExecutionMode executionMode = ExecutionMode.POOLED;
+    protected static volatile Executor executor = new TimedExecutor(workerPool, executorWaitTimer);
+
+    //Only in SYNC mode
+    public static volatile SyncExecutor syncExecutor = null;
+
+    public static void setExecutionMode(ExecutionMode mode)
+    {
+        executionMode = mode;
+        executor = mode == ExecutionMode.POOLED ? new TimedExecutor(workerPool, executorWaitTimer) : MoreExecutors.sameThreadExecutor();
+        syncExecutor = mode == ExecutionMode.SYNC ? new SyncExecutor() : null;
+    }
 
-    public final List<Song> songList;
+    public final SongCatalog catalog;
+    public final int[] songs;
+    public final long userId;
+    public final long playlistId;
     public final String userName;
     public final String playlistName;
     public final Type type;
 
-    enum Type {
-        ADD, UPDATE, DELETE;
+    //Encoded once per playlist and shared by every statement we bind
+    protected final ByteBuffer userKey;
+    protected final ByteBuffer playlistKey;
 
-        //Track how many iterations of each operation type
-        private long iteration = 0;
+    //When the scheduler wanted this operation to start (System.nanoTime())
+    protected long intendedStartTime;
 
+    //When the operation was handed to write()
+    protected long issuedTime;
 
-        public long increment()
-        {
-            iteration++;
+    //When start() counted this operation as in flight, -1 before
+    private long startedTime = -1;
 
-            //Make sure DELETE and UPDATE don't
-            //Trample eachother
-            if (this == UPDATE)
-                DELETE.iteration = iteration;
-            else if (this == DELETE)
-                UPDATE.iteration = iteration;
+    //Set by whichever of complete() or fail() runs first, the operation's in flight count
+    //and limiter permit are given back exactly once
+    private volatile int finished = 0;
 
-            return iteration;
+    private static final AtomicIntegerFieldUpdater<AbstractPlaylist> finishedUpdater = AtomicIntegerFieldUpdater.newUpdater(AbstractPlaylist.class, "finished");
+
+    //The last_played an update wrote, so the prober knows which recently_played row to look for
+    protected volatile long lastPlayed;
+
+    //How many rows to fetch per page when reading the views
+    public static volatile int readPageSize = 100;
+
+    //Optional, follows a sample of the writes into the views
+    public static volatile ConvergenceProber prober = null;
+
+    //Optional, hedges the reads manual writes wait on
+    public static volatile SpeculativeReads speculativeReads = null;
+
+    //Optional, counts the requests, mutations and bytes each operation sends and gets back
+    public static volatile Traffic traffic = null;
+
+    //What this operation has sent and got back so far, when traffic is counted.  Requests go
+    //out from whichever thread answered the last one, responses arrive on several at once
+    volatile int mutationsSent;
+    volatile long bytesSent;
+    volatile long bytesReceived;
+
+    static final AtomicIntegerFieldUpdater<AbstractPlaylist> mutationsSentUpdater = AtomicIntegerFieldUpdater.newUpdater(AbstractPlaylist.class, "mutationsSent");
+    static final AtomicLongFieldUpdater<AbstractPlaylist> bytesSentUpdater = AtomicLongFieldUpdater.newUpdater(AbstractPlaylist.class, "bytesSent");
+    static final AtomicLongFieldUpdater<AbstractPlaylist> bytesReceivedUpdater = AtomicLongFieldUpdater.newUpdater(AbstractPlaylist.class, "bytesReceived");
+
+    enum Type {
+        ADD, UPDATE, DELETE,
+        READ_SONG, READ_ARTIST, READ_GENRE, READ_RECENT;
+
+        /**
+         * The view this operation reads, null for writes.  Looked up rather than held, View's
+         * timers initialize this class so the View constants may not exist yet when Type's do
+         */
+        View view()
+        {
+            switch (this)
+            {
+                case READ_SONG:
+                    return View.SONG_TO_USER;
+                case READ_ARTIST:
+                    return View.ARTIST_TO_USER;
+                case READ_GENRE:
+                    return View.GENRE_TO_USER;
+                case READ_RECENT:
+                    return View.RECENTLY_PLAYED;
+                default:
+                    return null;
+            }
         }
     }
 
-    protected AbstractPlaylist(String userName, String playlistName, List<Song> songList, Type type)
+    /**
+     * @param playlistId negative for reads, which only point at a user and song
+     */
+    protected AbstractPlaylist(SongCatalog catalog, long userId, long playlistId, int[] songs, Type type)
     {
-        this.userName = userName;
-        this.playlistName = playlistName;
-        this.songList = songList;
+        this.catalog = catalog;
+        this.userId = userId;
+        this.playlistId = playlistId;
+        this.userName = "user_" + userId;
+        this.playlistName = playlistId < 0 ? null : "playlist_" + playlistId;
+        this.songs = songs;
         this.type = type;
+        this.userKey = SongCatalog.encode(userName);
+        this.playlistKey = playlistName == null ? null : SongCatalog.encode(playlistName);
+    }
+
+    static AbstractPlaylist create(SongCatalog catalog, boolean isManual, long userId, long playlistId, int[] songs, Type type)
+    {
+        if (WorkloadPlaylist.workload != null)
+            return new WorkloadPlaylist(catalog, isManual, userId, playlistId, songs, type);
+
+        if (isManual)
+            return new ManualPlaylist(catalog, userId, playlistId, songs, type);
+        else
+            return new MaterializedViewPlaylist(catalog, userId, playlistId, songs, type);
+    }
+
+    public ListenableFuture<?> write(final Session session)
+    {
+        return write(session, System.nanoTime());
     }
 
-    public ResultSetFuture write(final Session session)
+    public ListenableFuture<?> write(final Session session, long intendedStartTime)
     {
+        this.intendedStartTime = intendedStartTime;
+        this.issuedTime = System.nanoTime();
+
+        if (executionMode == ExecutionMode.INLINE)
+            return execute(session);
+
+        if (executionMode == ExecutionMode.SYNC)
+        {
+            syncExecutor.submit(this, session);
+            return null;
+        }
 
-        executor.submit(new Runnable()
+        executor.execute(new Runnable()
         {
             @Override
             public void run()
             {
-                switch (type)
-                {
-                    case ADD:
-                        add(session);
-                        break;
-                    case UPDATE:
-                        update(session);
-                        break;
-                    case DELETE:
-                        delete(session);
-                        break;
-                    default:
-                        throw new IllegalStateException();
-                }
+                execute(session);
             }
         });
 
         return null;
     }
 
+    private ListenableFuture<?> execute(Session session)
+    {
+        phase(Phase.QUEUE, System.nanoTime() - issuedTime);
+
+        try
+        {
+            switch (type)
+            {
+                case ADD:
+                    return add(session);
+                case UPDATE:
+                    return update(session);
+                case DELETE:
+                    return delete(session);
+                case READ_SONG:
+                case READ_ARTIST:
+                case READ_GENRE:
+                case READ_RECENT:
+                    return read(session);
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            thrown(e);
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Runs the whole operation on this thread, for SYNC execution
+     */
+    void executeSync(Session session)
+    {
+        phase(Phase.QUEUE, System.nanoTime() - issuedTime);
+
+        try
+        {
+            switch (type)
+            {
+                case ADD:
+                    addSync(session);
+                    break;
+                case UPDATE:
+                    updateSync(session);
+                    break;
+                case DELETE:
+                    deleteSync(session);
+                    break;
+                default:
+                    read(session);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            thrown(e);
+        }
+    }
+
+    //Thrown rather than failed, e.g. by prepare or a bind.  Nothing else will finish the
+    //operation, and the issuer already holds its limiter permit
+    private void thrown(RuntimeException e)
+    {
+        if (startedTime < 0)
+            start();
+
+        fail(startedTime, e);
+    }
+
+    /**
+     * Counts the operation as in flight, returning the time its latency is measured from
+     */
+    protected long start()
+    {
+        tracker.incrementAndGet();
+        startedTime = System.nanoTime();
+
+        return startedTime;
+    }
+
+    /**
+     * Waits for a request of a synchronous operation and times its round trip as phase
+     */
+    protected <T> T await(ListenableFuture<T> future, Phase phase) throws ExecutionException
+    {
+        long sentTime = System.nanoTime();
+        try
+        {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        finally
+        {
+            phase(phase, System.nanoTime() - sentTime);
+        }
+    }
+
+    /**
+     * Reads the first page of the view partition this operation points at
+     */
+    ListenableFuture<?> read(Session session)
+    {
+        final View view = type.view();
+        PreparedStatement statement = readStatement(session, view);
+
+        long buildStart = System.nanoTime();
+        BoundStatement bound = bindRead(statement, view);
+
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
+
+        ResultSetFuture future = send(session, bound);
+
+        onCompletion(future, Phase.READ, new CompletionCallback(startTime)
+        {
+            @Override
+            protected void succeeded(Object result)
+            {
+                view.rows.update(((ResultSet) result).getAvailableWithoutFetching());
+            }
+        });
+
+        return future;
+    }
+
+    PreparedStatement readStatement(Session session, View view)
+    {
+        PreparedStatement[] statements = reader().readStatements();
+        PreparedStatement statement = statements[view.ordinal()];
+        if (statement == null)
+        {
+            statement = session.prepare("SELECT * FROM " + view.table + " WHERE " + readKey(view) + " = ?" + readRelations(view));
+            statements[view.ordinal()] = statement;
+        }
+
+        return statement;
+    }
+
+    /**
+     * Binds the key of the view partition this operation points at
+     */
+    BoundStatement bindRead(PreparedStatement statement, View view)
+    {
+        BoundStatement bound = statement.bind();
+        switch (view)
+        {
+            case SONG_TO_USER:
+                bound.setBytesUnsafe(0, catalog.songKey(songs[0]));
+                break;
+            case ARTIST_TO_USER:
+                bound.setBytesUnsafe(0, catalog.artistKey(songs[0]));
+                break;
+            case GENRE_TO_USER:
+                bound.setBytesUnsafe(0, catalog.genreKey(songs[0]));
+                break;
+            case RECENTLY_PLAYED:
+                reader().bindRecentlyPlayed(bound);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        bound.setConsistencyLevel(ConsistencyLevel.QUORUM);
+        bound.setFetchSize(readPageSize);
+
+        return bound;
+    }
+
+    private ViewReader reader()
+    {
+        if (!(this instanceof ViewReader))
+            throw new IllegalStateException(getClass().getSimpleName() + " has no views to read");
+
+        return (ViewReader) this;
+    }
+
+    /**
+     * The column a view is read by
+     */
+    String readKey(View view)
+    {
+        return view.partitionKey;
+    }
+
+    /**
+     * Any relations a view read needs after its key, bound after it
+     */
+    String readRelations(View view)
+    {
+        return "";
+    }
+
+    /**
+     * Any relations after the primary key a probe of a view row needs
+     */
+    String probeRelations(View view)
+    {
+        return "";
+    }
+
+    /**
+     * Binds what probeRelations added, from index onwards
+     */
+    BoundStatement bindProbe(BoundStatement statement, int index, View view)
+    {
+        return statement;
+    }
+
+
+    /**
+     * Sends a request that is part of this operation, counting it when traffic is
+     */
+    protected ResultSetFuture send(Session session, Statement statement)
+    {
+        Traffic traffic = AbstractPlaylist.traffic;
+        if (traffic == null)
+            return session.executeAsync(statement);
+
+        return traffic.send(session, statement, this);
+    }
+
+    /**
+     * Sends an idempotent read the rest of the operation waits on, hedged when speculative reads are on
+     */
+    protected ListenableFuture<ResultSet> sendRead(Session session, Statement statement)
+    {
+        SpeculativeReads speculativeReads = AbstractPlaylist.speculativeReads;
+        if (speculativeReads == null)
+            return send(session, statement);
+
+        return speculativeReads.send(this, session, statement);
+    }
+
+    protected void phase(Phase phase, long nanos)
+    {
+        phaseTimers[type.ordinal()][phase.ordinal()].update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Times the round trip of a request, from now until its response arrives
+     */
+    protected void timeRequest(ListenableFuture<?> future, final Phase phase)
+    {
+        final long sentTime = System.nanoTime();
+
+        future.addListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                phase(phase, System.nanoTime() - sentTime);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Times the round trip of the last request of an operation, then runs its callback
+     */
+    protected void onCompletion(ListenableFuture<?> future, final Phase phase, final CompletionCallback callback)
+    {
+        final long sentTime = System.nanoTime();
+
+        //Listeners run in the order they were added, so this sees the response before the callback is queued
+        future.addListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                callback.respondedTime = System.nanoTime();
+                phase(phase, callback.respondedTime - sentTime);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        Futures.addCallback(future, callback, executor);
+    }
+
+    /**
+     * Record a successful operation, startTime is when the request was actually sent
+     */
+    protected void complete(long startTime)
+    {
+        if (!finishedUpdater.compareAndSet(this, 0, 1))
+            return;
+
+        long endTime = System.nanoTime();
+
+        Timer timer, correctedTimer;
+        switch (type)
+        {
+            case ADD:
+                timer = addTimer;
+                correctedTimer = addCorrectedTimer;
+                break;
+            case UPDATE:
+                timer = updateTimer;
+                correctedTimer = updateCorrectedTimer;
+                break;
+            case DELETE:
+                timer = deleteTimer;
+                correctedTimer = deleteCorrectedTimer;
+                break;
+            case READ_SONG:
+            case READ_ARTIST:
+            case READ_GENRE:
+            case READ_RECENT:
+                timer = type.view().timer;
+                correctedTimer = type.view().correctedTimer;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
+        timer.update(endTime - startTime, TimeUnit.NANOSECONDS);
+
+        totalCorrectedTimer.update(endTime - intendedStartTime, TimeUnit.NANOSECONDS);
+        correctedTimer.update(endTime - intendedStartTime, TimeUnit.NANOSECONDS);
+
+        tracker.decrementAndGet();
+        limiter.release(endTime - startTime, false);
+
+        Traffic traffic = AbstractPlaylist.traffic;
+        if (traffic != null)
+            traffic.completed(this);
+
+        ConvergenceProber prober = AbstractPlaylist.prober;
+        if (prober != null)
+            prober.written(this, endTime);
+    }
+
+    protected void fail(long startTime, Throwable t)
+    {
+        if (!finishedUpdater.compareAndSet(this, 0, 1))
+            return;
+
+        long endTime = System.nanoTime();
+        Failures.failed(t);
+        //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
+        errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
+        tracker.decrementAndGet();
+        limiter.release(endTime - startTime, true);
+    }
+
+    /**
+     * Callback for the last request of an operation
+     */
+    protected class CompletionCallback implements FutureCallback<Object>
+    {
+        private final long startTime;
+        private volatile long respondedTime = 0;
+
+        protected CompletionCallback(long startTime)
+        {
+            this.startTime = startTime;
+        }
+
+        @Override
+        public final void onSuccess(Object result)
+        {
+            recordCallbackDelay();
+
+            //Futures swallows what a callback throws, which would leave the operation in flight
+            try
+            {
+                succeeded(result);
+            }
+            catch (RuntimeException e)
+            {
+                fail(startTime, e);
+                return;
+            }
+
+            complete(startTime);
+        }
 
-    abstract ResultSetFuture add(Session session);
+        /**
+         * Whatever the operation does with the last response before it counts as complete
+         */
+        protected void succeeded(Object result)
+        {
+        }
 
-    abstract ResultSetFuture update(Session session);
+        @Override
+        public void onFailure(Throwable t)
+        {
+            recordCallbackDelay();
+            fail(startTime, t);
+        }
 
-    abstract ResultSetFuture delete(Session session);
+        private void recordCallbackDelay()
+        {
+            if (respondedTime > 0)
+                phase(Phase.CALLBACK, System.nanoTime() - respondedTime);
+        }
+    }
 
-    public static class Song
+    /**
+     * Callback for a read the rest of the operation waits on, next sends the rest.  Anything
+     * next throws fails the operation, like a failed request would
+     */
+    protected abstract class StageCallback implements FutureCallback<ResultSet>
     {
-        final String songId;
-        final String artist;
-        final String genre;
+        private final long startTime;
+
+        protected StageCallback(long startTime)
+        {
+            this.startTime = startTime;
+        }
 
-        Song(String songId, String artist, String genre)
+        @Override
+        public final void onSuccess(ResultSet result)
         {
-            this.songId = songId;
-            this.artist = artist;
-            this.genre = genre;
+            readTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+            try
+            {
+                next(result);
+            }
+            catch (RuntimeException e)
+            {
+                fail(startTime, e);
+            }
         }
+
+        @Override
+        public final void onFailure(Throwable t)
+        {
+            fail(startTime, t);
+        }
+
+        protected abstract void next(ResultSet result);
     }
 
+    abstract ListenableFuture<?> add(Session session);
+
+    abstract ListenableFuture<?> update(Session session);
+
+    abstract ListenableFuture<?> delete(Session session);
+
+    /**
+     * The synchronous versions default to sending the asynchronous operation from this
+     * thread, with its callbacks on the driver's I/O threads
+     */
+    void addSync(Session session)
+    {
+        add(session);
+    }
+
+    void updateSync(Session session)
+    {
+        update(session);
+    }
+
+    void deleteSync(Session session)
+    {
+        delete(session);
+    }
+
+    /**
+     * Generates the operation stream for one shard of the user/playlist keyspace.
+     *
+     * Each shard owns every numShards'th playlist and user, and keeps its own iteration
+     * counters, so shards can be driven from separate threads.  With a single shard the
+     * stream is the same as the original unsharded generator.
+     */
     public static class Factory
     {
-        private final int numUsers;
+        private final int shard;
+        private final int numShards;
+        private final int usersPerShard;
         private final int songsPerPlaylist;
-        private final int numSongs;
-        private final int numArtists;
-        private final int numGenres;
+        private final SongCatalog catalog;
         private final double percentDelete;
         private final double percentUpdate;
+        private final double[] percentRead;
+        private final KeyDistribution users;
+        private final KeyDistribution songs;
         private final Random random;
         private final boolean isManual;
 
+        //Track how many iterations of each operation type
+        private final long[] iterations = new long[Type.values().length];
+
+        public Factory( Random random, int numUsers, int songsPerPlaylist, SongCatalog catalog,
+                        double percentDelete, double percentUpdate, boolean isManual)
+        {
+            this(random, 0, 1, numUsers, songsPerPlaylist, catalog, percentDelete, percentUpdate, new double[View.values().length], isManual);
+        }
+
+        /**
+         * @param percentRead the chance of reading each view, indexed by View ordinal
+         */
+        public Factory( Random random, int shard, int numShards, int numUsers, int songsPerPlaylist, SongCatalog catalog,
+                        double percentDelete, double percentUpdate, double[] percentRead, boolean isManual)
+        {
+            this(random, shard, numShards, numUsers, songsPerPlaylist, catalog, percentDelete, percentUpdate, percentRead,
+                 KeyDistribution.sequential(usersInShard(shard, numShards, numUsers)), KeyDistribution.sequential(catalog.numSongs), isManual);
+        }
 
-        public Factory( Random random, int numUsers, int songsPerPlaylist, int numSongs,
-                        int numArtists, int numGenres, double percentDelete, double percentUpdate, boolean isManual)
+        /**
+         * @param users how the users of a shard are picked, sized usersInShard(shard, numShards, numUsers)
+         * @param songs how songs are picked, sized catalog.numSongs
+         */
+        public Factory( Random random, int shard, int numShards, int numUsers, int songsPerPlaylist, SongCatalog catalog,
+                        double percentDelete, double percentUpdate, double[] percentRead,
+                        KeyDistribution users, KeyDistribution songs, boolean isManual)
         {
+            double totalRead = 0;
+            for (double p : percentRead)
+            {
+                assert p >= 0.0;
+                totalRead += p;
+            }
+
             //Just avoid having more deletes than adds
-            assert percentDelete >= 0.0 && (percentDelete + percentUpdate) < 0.5;
+            assert percentDelete >= 0.0 && (percentDelete + percentUpdate) < (1.0 - percentDelete - percentUpdate - totalRead);
             assert percentUpdate >= 0.0;
 
-            assert numSongs > numGenres;
+            //A shard without users would pick a negative one
+            if (shard < 0 || shard >= numShards || numShards > numUsers)
+                throw new IllegalArgumentException("Shard " + shard + " of " + numShards + " can't be made from " + numUsers + " users");
 
             this.random = random;
-            this.numUsers = numUsers;
+            this.shard = shard;
+            this.numShards = numShards;
+            this.usersPerShard = usersInShard(shard, numShards, numUsers);
             this.songsPerPlaylist = songsPerPlaylist;
-            this.numSongs = numSongs;
-            this.numArtists = numArtists;
-            this.numGenres = numGenres;
+            this.catalog = catalog;
             this.percentDelete = percentDelete;
             this.percentUpdate = percentUpdate;
+            this.percentRead = percentRead;
+            this.users = users;
+            this.songs = songs;
             this.isManual = isManual;
+
+            assert users.size == usersPerShard && songs.size == catalog.numSongs;
+        }
+
+        /**
+         * How many users a shard owns, each owns every numShards'th one so the first
+         * numUsers % numShards shards have one more than the rest
+         */
+        public static int usersInShard(int shard, int numShards, int numUsers)
+        {
+            return numUsers / numShards + (shard < numUsers % numShards ? 1 : 0);
+        }
+
+        private long increment(Type type)
+        {
+            long iteration = ++iterations[type.ordinal()];
+
+            //Make sure DELETE and UPDATE don't
+            //Trample eachother
+            if (type == Type.UPDATE)
+                iterations[Type.DELETE.ordinal()] = iteration;
+            else if (type == Type.DELETE)
+                iterations[Type.UPDATE.ordinal()] = iteration;
+
+            return iteration;
+        }
+
+        //Maps a shard local counter into the global keyspace
+        private long global(long iteration)
+        {
+            return iteration * numShards + shard;
         }
 
         public AbstractPlaylist next()
@@ -155,7 +855,7 @@ public abstract class AbstractPlaylist
             double chance = random.nextDouble();
             Type type = Type.ADD;
 
-            if (Type.ADD.iteration > 1000)
+            if (iterations[Type.ADD.ordinal()] > 1000)
             {
                 if (chance < percentDelete)
                     type = Type.DELETE;
@@ -163,29 +863,51 @@ public abstract class AbstractPlaylist
                     type = Type.UPDATE;
             }
 
-            type.increment();
+            //Reads don't touch the iteration counters, they pick a random partition of a view
+            double readChance = chance - percentDelete - percentUpdate;
+            for (View view : View.values())
+            {
+                if (readChance >= 0 && readChance < percentRead[view.ordinal()])
+                    return newRead(readType(view));
 
-            assert Type.ADD.iteration > Type.DELETE.iteration;
-            assert Type.ADD.iteration > Type.UPDATE.iteration;
+                readChance -= percentRead[view.ordinal()];
+            }
 
-            String userName = String.format("user_%d", type.iteration % numUsers);
-            String playlistName = String.format("playlist_%d", type.iteration);
-            List<Song> songList = new ArrayList<Song>(songsPerPlaylist);
+            long iteration = increment(type);
 
+            assert iterations[Type.ADD.ordinal()] > iterations[Type.DELETE.ordinal()];
+            assert iterations[Type.ADD.ordinal()] > iterations[Type.UPDATE.ordinal()];
 
-            for (int i = 0; i < songsPerPlaylist; i++, type.iteration++)
-            {
-                String songId = String.format("song_%d", type.iteration % this.numSongs);
-                String artist = String.format("artist_%d", type.iteration % numArtists);
-                String genre = String.format("genre_%d", (type.iteration % numArtists) % numGenres);
+            //Keys only depend on the iteration, so updates and deletes pick what the add did
+            long userId = (long) users.key(iteration) * numShards + shard;
+            long playlistId = global(iteration);
+            int[] playlistSongs = new int[songsPerPlaylist];
 
-                songList.add(new Song(songId, artist, genre));
-            }
+            for (int i = 0; i < songsPerPlaylist; i++, iteration++)
+                playlistSongs[i] = songs.key(global(iteration));
+
+            iterations[type.ordinal()] = iteration;
+
+            return create(catalog, isManual, userId, playlistId, playlistSongs, type);
+        }
+
+        private AbstractPlaylist newRead(Type type)
+        {
+            //Reads follow the same skew as the writes, relative to the latest add
+            long latest = iterations[Type.ADD.ordinal()];
+            long userId = (long) users.key(latest, random.nextDouble()) * numShards + shard;
+            int[] readSongs = new int[] { songs.key(global(latest), random.nextDouble()) };
+
+            return create(catalog, isManual, userId, -1, readSongs, type);
+        }
+
+        private static Type readType(View view)
+        {
+            for (Type type : Type.values())
+                if (type.view() == view)
+                    return type;
 
-            if (isManual)
-                return new ManualPlaylist(userName, playlistName, songList, type);
-            else
-                return new MaterializedViewPlaylist(userName, playlistName, songList, type);
+            throw new IllegalArgumentException();
         }
     }
 }
@@ -0,0 +1,278 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Snapshot;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+
+/**
+ * Measures how long after a write is acknowledged its change shows up in the views.
+ *
+ * For a sample of the writes it polls the view rows the write touched, by their whole
+ * primary key, until adds and updates appear or deletes disappear.  The lag runs from the
+ * acknowledgement to when the read that first saw the change was sent, so it is only as
+ * fine as the poll interval.  Rows still not right after the timeout count as unconverged.
+ *
+ * Adds are checked in song_to_user, artist_to_user and genre_to_user by their first song,
+ * updates in recently_played by the song they played, deletes like adds.  Manual mode is
+ * probed the same way, so its lag (usually none, the views are written with the base) can
+ * be compared with the materialized views'.  A view's statement is prepared asynchronously
+ * when it is first probed, writes sampled before it is ready aren't probed.
+ */
+public class ConvergenceProber
+{
+    private static final View[] playlistViews = new View[] { View.SONG_TO_USER, View.ARTIST_TO_USER, View.GENRE_TO_USER };
+
+    private final Session session;
+    private final double fraction;
+    private final long pollNanos;
+    private final long timeoutNanos;
+    private final int maxProbes;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("convergence-prober").setDaemon(true).build());
+
+    //Prepared without blocking on first use, written() can run on one of the driver's I/O threads
+    private final AtomicReferenceArray<ListenableFuture<PreparedStatement>> statements = new AtomicReferenceArray<ListenableFuture<PreparedStatement>>(View.values().length);
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final Counter skipped = AbstractPlaylist.registry.counter("lag-probes-skipped");
+    private final Counter unprepared = AbstractPlaylist.registry.counter("lag-probes-unprepared");
+
+    /**
+     * @param fraction the share of writes to probe
+     * @param maxProbes how many views may be polled at once, writes sampled past this are skipped
+     */
+    public ConvergenceProber(Session session, double fraction, long pollMs, long timeoutMs, int maxProbes)
+    {
+        assert fraction > 0.0 && fraction <= 1.0 && pollMs > 0;
+
+        this.session = session;
+        this.fraction = fraction;
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(pollMs);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.maxProbes = maxProbes;
+    }
+
+    /**
+     * Called once a write is acknowledged, at ackTime (System.nanoTime())
+     */
+    void written(AbstractPlaylist write, long ackTime)
+    {
+        if (ThreadLocalRandom.current().nextDouble() >= fraction)
+            return;
+
+        switch (write.type)
+        {
+            case ADD:
+                for (View view : playlistViews)
+                    probe(write, view, true, ackTime);
+                break;
+            case UPDATE:
+                probe(write, View.RECENTLY_PLAYED, true, ackTime);
+                break;
+            case DELETE:
+                for (View view : playlistViews)
+                    probe(write, view, false, ackTime);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void probe(AbstractPlaylist write, View view, boolean present, long ackTime)
+    {
+        PreparedStatement statement = statement(write, view);
+        if (statement == null)
+        {
+            unprepared.inc();
+            return;
+        }
+
+        if (inFlight.incrementAndGet() > maxProbes)
+        {
+            inFlight.decrementAndGet();
+            skipped.inc();
+            return;
+        }
+
+        new Probe(view, bind(statement, write, view), present, ackTime).run();
+    }
+
+    /**
+     * The statement reading a view row by its whole primary key, null until it is prepared
+     */
+    private PreparedStatement statement(AbstractPlaylist write, View view)
+    {
+        ListenableFuture<PreparedStatement> future = statements.get(view.ordinal());
+        if (future == null)
+        {
+            String clustering = view == View.SONG_TO_USER ? " AND user_name = ? AND playlist_name = ?"
+                                                          : " AND user_name = ? AND playlist_name = ? AND song_id = ?";
+
+            future = session.prepareAsync("SELECT user_name FROM " + view.table + " WHERE " + view.partitionKey + " = ?" + clustering + write.probeRelations(view));
+            if (!statements.compareAndSet(view.ordinal(), null, future))
+                return null;
+        }
+
+        if (!future.isDone())
+            return null;
+
+        try
+        {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (ExecutionException e)
+        {
+            //Prepare it again for a later write
+            statements.compareAndSet(view.ordinal(), future, null);
+            return null;
+        }
+    }
+
+    /**
+     * Binds the whole primary key of the view row the write touched
+     */
+    private BoundStatement bind(PreparedStatement statement, AbstractPlaylist write, View view)
+    {
+        int song = write.type == AbstractPlaylist.Type.UPDATE ? write.songs[1] : write.songs[0];
+
+        BoundStatement bound = statement.bind();
+        switch (view)
+        {
+            case SONG_TO_USER:
+                bound.setBytesUnsafe(0, write.catalog.songKey(song));
+                break;
+            case ARTIST_TO_USER:
+                bound.setBytesUnsafe(0, write.catalog.artistKey(song));
+                break;
+            case GENRE_TO_USER:
+                bound.setBytesUnsafe(0, write.catalog.genreKey(song));
+                break;
+            case RECENTLY_PLAYED:
+                bound.setLong(0, write.lastPlayed);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        bound.setBytesUnsafe(1, write.userKey).setBytesUnsafe(2, write.playlistKey);
+        int index = 3;
+        if (view != View.SONG_TO_USER)
+            bound.setBytesUnsafe(index++, write.catalog.songKey(song));
+
+        bound.setConsistencyLevel(ConsistencyLevel.QUORUM);
+
+        return write.bindProbe(bound, index, view);
+    }
+
+    /**
+     * Polls one view row until it is as the write left it, or the timeout passes
+     */
+    private class Probe implements Runnable, FutureCallback<ResultSet>
+    {
+        private final View view;
+        private final BoundStatement statement;
+        private final boolean present;
+        private final long ackTime;
+        private volatile long sentTime;
+
+        Probe(View view, BoundStatement statement, boolean present, long ackTime)
+        {
+            this.view = view;
+            this.statement = statement;
+            this.present = present;
+            this.ackTime = ackTime;
+        }
+
+        @Override
+        public void run()
+        {
+            sentTime = System.nanoTime();
+
+            Traffic traffic = AbstractPlaylist.traffic;
+            Futures.addCallback(traffic == null ? session.executeAsync(statement) : traffic.send(session, statement, null), this);
+        }
+
+        @Override
+        public void onSuccess(ResultSet result)
+        {
+            if ((result.one() != null) != present)
+            {
+                retry();
+                return;
+            }
+
+            view.lag.update(sentTime - ackTime, TimeUnit.NANOSECONDS);
+            inFlight.decrementAndGet();
+        }
+
+        @Override
+        public void onFailure(Throwable t)
+        {
+            retry();
+        }
+
+        private void retry()
+        {
+            if (System.nanoTime() - ackTime < timeoutNanos)
+            {
+                scheduler.schedule(this, pollNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            view.unconverged.inc();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Waits for the outstanding probes, each finishes by its timeout
+     */
+    public void drain()
+    {
+        while (inFlight.get() > 0)
+        {
+            System.out.println("Waiting for " + inFlight.get() + " convergence probes");
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+        }
+
+        scheduler.shutdown();
+    }
+
+    public void printReport()
+    {
+        System.out.println("===VIEW CONVERGENCE REPORT (ms after the write was acknowledged)===");
+        System.out.println(String.format("%-16s %10s %10s %10s %10s %10s %12s", "view", "converged", "p50", "p99", "p999", "max", "unconverged"));
+
+        for (View view : View.values())
+        {
+            Snapshot s = view.lag.getSnapshot();
+            System.out.println(String.format("%-16s %10d %10.2f %10.2f %10.2f %10.2f %12d", view.table, view.lag.getCount(),
+                                             s.getMedian() / 1000000d, s.get99thPercentile() / 1000000d,
+                                             s.get999thPercentile() / 1000000d, s.getMax() / 1000000d, view.unconverged.getCount()));
+        }
+
+        if (skipped.getCount() > 0)
+            System.out.println(skipped.getCount() + " probes were skipped with too many in flight");
+
+        if (unprepared.getCount() > 0)
+            System.out.println(unprepared.getCount() + " probes were skipped while their statement was being prepared");
+    }
+}
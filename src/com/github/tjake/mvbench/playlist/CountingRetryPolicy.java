@@ -0,0 +1,65 @@
+package com.github.tjake.mvbench.playlist;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.WriteType;
+import com.datastax.driver.core.policies.RetryPolicy;
+
+/**
+ * Counts what another retry policy decides, so retries at a lower consistency and errors
+ * it ignores, which both look like successes to the playlists, show up in the reports.
+ *
+ * Each decision marks retry-(read-timeout|write-timeout|unavailable)-(retry|rethrow|ignore),
+ * and a retry at a lower consistency level also marks downgrade-quorum-to-one and so on.
+ */
+public class CountingRetryPolicy implements RetryPolicy
+{
+    private final RetryPolicy delegate;
+
+    public CountingRetryPolicy(RetryPolicy delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public RetryDecision onReadTimeout(Statement statement, ConsistencyLevel cl, int requiredResponses, int receivedResponses, boolean dataRetrieved, int nbRetry)
+    {
+        return count("read-timeout", cl, delegate.onReadTimeout(statement, cl, requiredResponses, receivedResponses, dataRetrieved, nbRetry));
+    }
+
+    @Override
+    public RetryDecision onWriteTimeout(Statement statement, ConsistencyLevel cl, WriteType writeType, int requiredAcks, int receivedAcks, int nbRetry)
+    {
+        return count("write-timeout", cl, delegate.onWriteTimeout(statement, cl, writeType, requiredAcks, receivedAcks, nbRetry));
+    }
+
+    @Override
+    public RetryDecision onUnavailable(Statement statement, ConsistencyLevel cl, int requiredReplica, int aliveReplica, int nbRetry)
+    {
+        return count("unavailable", cl, delegate.onUnavailable(statement, cl, requiredReplica, aliveReplica, nbRetry));
+    }
+
+    private static RetryDecision count(String event, ConsistencyLevel cl, RetryDecision decision)
+    {
+        AbstractPlaylist.registry.meter("retry-" + event + "-" + decision.getType().name().toLowerCase()).mark();
+
+        ConsistencyLevel retryAt = decision.getRetryConsistencyLevel();
+        if (decision.getType() == RetryDecision.Type.RETRY && retryAt != null && retryAt != cl)
+            AbstractPlaylist.registry.meter("downgrade-" + cl.name().toLowerCase() + "-to-" + retryAt.name().toLowerCase()).mark();
+
+        return decision;
+    }
+
+    @Override
+    public void init(Cluster cluster)
+    {
+        delegate.init(cluster);
+    }
+
+    @Override
+    public void close()
+    {
+        delegate.close();
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Breaks failed operations down by the exception that failed them, as error-ReadTimeoutException
+ * and so on, next to the single error timer.
+ */
+public class Failures
+{
+    private static final ConcurrentMap<Class<?>, Meter> meters = new ConcurrentHashMap<Class<?>, Meter>();
+
+    static void failed(Throwable t)
+    {
+        Meter meter = meters.get(t.getClass());
+        if (meter == null)
+        {
+            meter = AbstractPlaylist.registry.meter("error-" + t.getClass().getSimpleName());
+            meters.put(t.getClass(), meter);
+        }
+
+        meter.mark();
+    }
+
+    /**
+     * Prints the failures by exception and what the retry policy did, if there was anything
+     */
+    public static void printReport()
+    {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Meter> entry : AbstractPlaylist.registry.getMeters().entrySet())
+        {
+            String name = entry.getKey();
+            if (name.startsWith("error-") || name.startsWith("retry-") || name.startsWith("downgrade-"))
+                report.append(String.format("%-40s %12d%n", name, entry.getValue().getCount()));
+        }
+
+        if (report.length() == 0)
+            return;
+
+        System.out.println("===FAILURE REPORT (failed operations by exception, retry policy decisions)===");
+        System.out.print(report);
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Latency, errors, in flight requests and connections per host the driver sends to, so
+ * coordinator hot spots and exhausted pools show up.
+ *
+ * Each host gets a host-address timer of every request it coordinated (retries and
+ * hedges included), host-address-errors, and gauges of its host-address-inflight,
+ * host-address-connections and host-address-pool-usage, the share of the requests its open
+ * connections can take that are in flight.
+ */
+public class HostMetrics implements LatencyTracker
+{
+    private final ConcurrentMap<Host, Timer> timers = new ConcurrentHashMap<Host, Timer>();
+    private final ConcurrentMap<Host, Meter> errors = new ConcurrentHashMap<Host, Meter>();
+
+    private volatile Session session = null;
+    private volatile Cluster cluster = null;
+
+    @Override
+    public void update(Host host, Statement statement, Exception exception, long newLatencyNanos)
+    {
+        Timer timer = timers.get(host);
+        if (timer == null)
+            timer = register(host);
+
+        timer.update(newLatencyNanos, TimeUnit.NANOSECONDS);
+
+        if (exception != null)
+            errors.get(host).mark();
+    }
+
+    /**
+     * Starts the gauges of the hosts a session is connected to, and of any it connects to later
+     */
+    public void watch(Session session)
+    {
+        this.session = session;
+
+        for (Host host : session.getState().getConnectedHosts())
+        {
+            if (!timers.containsKey(host))
+                register(host);
+        }
+    }
+
+    private synchronized Timer register(final Host host)
+    {
+        Timer timer = timers.get(host);
+        if (timer != null)
+            return timer;
+
+        String name = "host-" + host.getAddress().getHostAddress();
+
+        errors.put(host, AbstractPlaylist.registry.meter(name + "-errors"));
+
+        AbstractPlaylist.registry.register(name + "-inflight", new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                Session session = HostMetrics.this.session;
+                return session == null ? 0 : session.getState().getInFlightQueries(host);
+            }
+        });
+
+        AbstractPlaylist.registry.register(name + "-connections", new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                Session session = HostMetrics.this.session;
+                return session == null ? 0 : session.getState().getOpenConnections(host);
+            }
+        });
+
+        AbstractPlaylist.registry.register(name + "-pool-usage", new Gauge<Double>()
+        {
+            @Override
+            public Double getValue()
+            {
+                Session session = HostMetrics.this.session;
+                Cluster cluster = HostMetrics.this.cluster;
+                if (session == null || cluster == null)
+                    return 0.0;
+
+                Session.State state = session.getState();
+                int capacity = state.getOpenConnections(host) * cluster.getConfiguration().getPoolingOptions().getMaxRequestsPerConnection(HostDistance.LOCAL);
+
+                return capacity == 0 ? 0.0 : state.getInFlightQueries(host) / (double) capacity;
+            }
+        });
+
+        timer = AbstractPlaylist.timer(name);
+        timers.put(host, timer);
+
+        return timer;
+    }
+
+    @Override
+    public void onRegister(Cluster cluster)
+    {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void onUnregister(Cluster cluster)
+    {
+    }
+
+    public void printReport()
+    {
+        Map<String, Host> hosts = new TreeMap<String, Host>();
+        for (Host host : timers.keySet())
+            hosts.put(host.getAddress().getHostAddress(), host);
+
+        System.out.println("===HOST REPORT (ms, every request each host coordinated)===");
+        System.out.println(String.format("%-16s %-12s %12s %10s %10s %10s %10s %10s", "host", "dc", "requests", "rate/s", "p50", "p99", "p999", "errors"));
+
+        for (Map.Entry<String, Host> entry : hosts.entrySet())
+        {
+            Timer timer = timers.get(entry.getValue());
+            Snapshot s = timer.getSnapshot();
+
+            System.out.println(String.format("%-16s %-12s %12d %10.0f %10.2f %10.2f %10.2f %10d", entry.getKey(), entry.getValue().getDatacenter(),
+                                             timer.getCount(), timer.getMeanRate(), s.getMedian() / 1e6, s.get99thPercentile() / 1e6,
+                                             s.get999thPercentile() / 1e6, errors.get(entry.getValue()).getCount()));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds how many operations are in flight, blocking issuers until a permit frees up.
+ *
+ * In adaptive mode the limit follows an AIMD scheme driven by the same latencies and
+ * errors that go into the timers: every window of completions (about one round trip at
+ * the current limit) the limit grows by one, unless the window saw errors or its mean
+ * latency rose past tolerance * the lowest mean seen so far, in which case it is cut
+ * by the backoff ratio.
+ */
+public class InFlightLimiter
+{
+    private static final double BACKOFF = 0.9;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight = 0;
+
+    private long windowCount = 0;
+    private long windowErrors = 0;
+    private long windowLatency = 0;
+    private double minWindowLatency = Double.MAX_VALUE;
+
+    private volatile int currentLimit;
+    private volatile long increases = 0;
+    private volatile long decreases = 0;
+
+    private InFlightLimiter(boolean adaptive, int initialLimit, int minLimit, int maxLimit, double latencyTolerance)
+    {
+        assert minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit;
+
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = initialLimit;
+        this.currentLimit = initialLimit;
+    }
+
+    public static InFlightLimiter fixed(int limit)
+    {
+        return new InFlightLimiter(false, limit, limit, limit, 0);
+    }
+
+    public static InFlightLimiter adaptive(int minLimit, int maxLimit, double latencyTolerance)
+    {
+        return new InFlightLimiter(true, minLimit, minLimit, maxLimit, latencyTolerance);
+    }
+
+    public void acquire()
+    {
+        lock.lock();
+        try
+        {
+            while (inFlight >= currentLimit)
+                available.awaitUninterruptibly();
+
+            inFlight++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public void release(long latencyNanos, boolean error)
+    {
+        lock.lock();
+        try
+        {
+            inFlight--;
+
+            if (adaptive)
+                sample(latencyNanos, error);
+
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every permit handed out has been released
+     */
+    public void drain()
+    {
+        lock.lock();
+        try
+        {
+            while (inFlight > 0)
+                available.awaitUninterruptibly();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    //Called with the lock held
+    private void sample(long latencyNanos, boolean error)
+    {
+        windowCount++;
+        windowLatency += latencyNanos;
+        if (error)
+            windowErrors++;
+
+        if (windowCount < currentLimit)
+            return;
+
+        double meanLatency = windowLatency / (double) windowCount;
+        minWindowLatency = Math.min(minWindowLatency, meanLatency);
+
+        if (windowErrors > 0 || meanLatency > minWindowLatency * latencyTolerance)
+        {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            decreases++;
+        }
+        else if (limit < maxLimit)
+        {
+            limit = Math.min(maxLimit, limit + 1);
+            increases++;
+        }
+
+        currentLimit = (int) limit;
+
+        windowCount = 0;
+        windowErrors = 0;
+        windowLatency = 0;
+    }
+
+    public int getLimit()
+    {
+        return currentLimit;
+    }
+
+    public long getIncreases()
+    {
+        return increases;
+    }
+
+    public long getDecreases()
+    {
+        return decreases;
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.tjake.mvbench.playlist;
+
+/**
+ * How often each of n keys (users, songs, artists or genres) is picked.
+ *
+ * Keys are a pure function of a sequence number, so an update or delete that replays the
+ * sequence of an earlier add recomputes exactly the same keys.  Parsed from a spec:
+ *   sequential               (walks the keys in order, the original behaviour)
+ *   uniform
+ *   zipfian:theta            (0 < theta < 1, key 0 is the most popular, theta defaults to 0.99)
+ *   hotspot:keys:ops         (the first keys fraction of the keys gets the ops fraction of the picks)
+ *   latest:theta             (zipfian over how recently the key was picked in sequence)
+ */
+public abstract class KeyDistribution
+{
+    public final int size;
+
+    private final String spec;
+    private final long salt;
+
+    private KeyDistribution(String name, String spec, int size)
+    {
+        this.spec = spec;
+        this.size = size;
+
+        //Each dimension hashes the same sequence differently, so the users and songs
+        //picked for an operation aren't correlated
+        this.salt = name.hashCode() * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * The key for a sequence number, always the same for the same sequence
+     */
+    public int key(long sequence)
+    {
+        return key(sequence, unit(mix(sequence ^ salt)));
+    }
+
+    /**
+     * The key for a sequence number using u (uniform in [0, 1)) in place of its hash,
+     * for picks that don't need to be repeated, like reads
+     */
+    public int key(long sequence, double u)
+    {
+        return Math.min(size - 1, pick(sequence, u));
+    }
+
+    abstract int pick(long sequence, double u);
+
+    /**
+     * What the dimension's name hashes every sequence with, the same keys need the same salt
+     */
+    public long salt()
+    {
+        return salt;
+    }
+
+    public static KeyDistribution sequential(int size)
+    {
+        return parse("sequential", "sequential", size);
+    }
+
+    /**
+     * @param name the dimension the keys are for, e.g. users
+     */
+    public static KeyDistribution parse(String name, String spec, final int size)
+    {
+        assert size > 0;
+
+        String[] parts = spec.trim().toLowerCase().split(":");
+
+        try
+        {
+            if (parts[0].equals("sequential") && parts.length == 1)
+            {
+                return new KeyDistribution(name, spec, size)
+                {
+                    @Override
+                    public int key(long sequence)
+                    {
+                        return (int) (sequence % size);
+                    }
+
+                    //With nothing to replay there is no order to walk, pick any key
+                    @Override
+                    int pick(long sequence, double u)
+                    {
+                        return (int) (u * size);
+                    }
+                };
+            }
+
+            if (parts[0].equals("uniform") && parts.length == 1)
+            {
+                return new KeyDistribution(name, spec, size)
+                {
+                    @Override
+                    int pick(long sequence, double u)
+                    {
+                        return (int) (u * size);
+                    }
+                };
+            }
+
+            if (parts[0].equals("zipfian") && parts.length <= 2)
+            {
+                final Zipfian zipfian = new Zipfian(size, parts.length == 2 ? Double.parseDouble(parts[1]) : 0.99);
+                return new KeyDistribution(name, spec, size)
+                {
+                    @Override
+                    int pick(long sequence, double u)
+                    {
+                        return zipfian.rank(u);
+                    }
+                };
+            }
+
+            if (parts[0].equals("latest") && parts.length <= 2)
+            {
+                final Zipfian zipfian = new Zipfian(size, parts.length == 2 ? Double.parseDouble(parts[1]) : 0.99);
+                return new KeyDistribution(name, spec, size)
+                {
+                    //The key picked at this sequence is the most popular, then the one before it...
+                    @Override
+                    int pick(long sequence, double u)
+                    {
+                        long key = (sequence - zipfian.rank(u)) % size;
+                        return (int) (key < 0 ? key + size : key);
+                    }
+                };
+            }
+
+            if (parts[0].equals("hotspot") && parts.length == 3)
+            {
+                double keys = Double.parseDouble(parts[1]);
+                final double ops = Double.parseDouble(parts[2]);
+                if (keys <= 0.0 || keys > 1.0 || ops < 0.0 || ops > 1.0)
+                    throw new IllegalArgumentException("Bad key distribution " + spec + ", the hotspot fractions must be in (0, 1]");
+
+                final int hot = Math.max(1, (int) (keys * size));
+                return new KeyDistribution(name, spec, size)
+                {
+                    @Override
+                    int pick(long sequence, double u)
+                    {
+                        //With every key hot there is no split, whatever share of the ops they get
+                        if (hot == size)
+                            return (int) (u * size);
+
+                        //Only reached with ops > 0, and the cold keys only with ops < 1
+                        if (u < ops)
+                            return (int) (u / ops * hot);
+
+                        return hot + (int) ((u - ops) / (1.0 - ops) * (size - hot));
+                    }
+                };
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Bad key distribution " + spec, e);
+        }
+
+        throw new IllegalArgumentException("Bad key distribution " + spec + " for " + name + ", expected sequential, uniform, zipfian:theta, hotspot:keys:ops or latest:theta");
+    }
+
+    //The finalizer of SplitMix64, spreads consecutive sequences over all 64 bits
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double unit(long hash)
+    {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Maps a uniform value to a rank in [0, n) in constant time, from Gray et al,
+     * "Quickly Generating Billion-Record Synthetic Databases" (as used by YCSB)
+     */
+    private static class Zipfian
+    {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        Zipfian(int n, double theta)
+        {
+            if (theta <= 0.0 || theta >= 1.0)
+                throw new IllegalArgumentException("Zipfian theta must be in (0, 1), got " + theta);
+
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+
+            double zeta = 0;
+            for (int i = 1; i <= n; i++)
+                zeta += 1.0 / Math.pow(i, theta);
+
+            this.zetan = zeta;
+
+            double zeta2 = 1.0 + Math.pow(0.5, theta);
+            this.eta = (1.0 - Math.pow(2.0 / n, 1.0 - theta)) / (1.0 - zeta2 / zetan);
+        }
+
+        int rank(double u)
+        {
+            double uz = u * zetan;
+            if (uz < 1.0)
+                return 0;
+
+            if (uz < 1.0 + Math.pow(0.5, theta))
+                return Math.min(1, n - 1);
+
+            return (int) (n * Math.pow(eta * u - eta + 1.0, alpha));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+}
@@ -1,17 +1,20 @@
 package com.github.tjake.mvbench.playlist;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import com.datastax.driver.core.*;
 
 /**
  * Created by jake on 8/15/15.
  */
-public class ManualPlaylist extends AbstractPlaylist
+public class ManualPlaylist extends AbstractPlaylist implements ViewReader
 {
     volatile static PreparedStatement addplaylist = null;
     volatile static PreparedStatement addsong2user = null;
@@ -30,76 +33,125 @@ public class ManualPlaylist extends AbstractPlaylist
     volatile static PreparedStatement deleteartist2user = null;
     volatile static PreparedStatement deletegenre2user = null;
 
-    protected ManualPlaylist(String userName, String playlistName, List<Song> songList, Type type)
+    public static volatile WriteStrategy writeStrategy = WriteStrategy.LOGGED;
+
+    //Optional, lets update and delete skip their reads when we already know the rows
+    public static volatile PlaylistStateCache stateCache = null;
+
+    //Optional, spreads the view partitions over buckets (the manual_bucketed schema)
+    public static volatile ViewBuckets buckets = null;
+
+    static final PreparedStatement[] readStatements = new PreparedStatement[View.values().length];
+
+    //recently_played is partitioned by time so reads go to the last partition we wrote
+    static volatile long lastRecentlyPlayed = 0;
+
+    protected ManualPlaylist(SongCatalog catalog, long userId, long playlistId, int[] songs, Type type)
     {
-        super(userName, playlistName, songList, type);
+        super(catalog, userId, playlistId, songs, type);
     }
 
-    @Override
-    ResultSetFuture add(Session session)
+    private static void prepareAdd(Session session)
     {
         if (addplaylist == null)
         {
 
             addsong2user = session.prepare("INSERT INTO song_to_user(song_id, user_name, playlist_name," +
-                    " added_time)VALUES(?,?,?,?)");
+                    " added_time" + bucketColumns(View.SONG_TO_USER) + ")VALUES(?,?,?,?" + bucketValues(View.SONG_TO_USER) + ")");
 
 
             addartist2user = session.prepare("INSERT INTO artist_to_user(artist_name, user_name, playlist_name," +
-                    " song_id)VALUES(?,?,?,?)");
+                    " song_id" + bucketColumns(View.ARTIST_TO_USER) + ")VALUES(?,?,?,?" + bucketValues(View.ARTIST_TO_USER) + ")");
 
             addgenre2user = session.prepare("INSERT INTO genre_to_user(genre, user_name, playlist_name," +
-                    " song_id)VALUES(?,?,?,?)");
+                    " song_id" + bucketColumns(View.GENRE_TO_USER) + ")VALUES(?,?,?,?" + bucketValues(View.GENRE_TO_USER) + ")");
 
             addplaylist = session.prepare("INSERT INTO user_playlists(user_name, playlist_name, song_id, added_time," +
                     " artist_name, genre)VALUES(?,?,?,?,?,?)");
         }
+    }
 
+    private List<Statement> addStatements()
+    {
+        ByteBuffer now = SongCatalog.encode(System.currentTimeMillis());
+        List<Statement> batch = new ArrayList<Statement>(songs.length * 4);
 
-        Long now = System.currentTimeMillis();
-        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
-        batch.setConsistencyLevel(ConsistencyLevel.QUORUM);
-
-        for (Song song : songList)
+        for (int song : songs)
         {
-            batch.add(addplaylist.bind(userName, playlistName, song.songId, now, song.artist, song.genre));
-            batch.add(addsong2user.bind(song.songId, userName, playlistName, now));
-            batch.add(addartist2user.bind(song.artist, userName, playlistName, song.songId));
-            batch.add(addgenre2user.bind(song.genre, userName, playlistName, song.songId));
+            ByteBuffer songId = catalog.songKey(song);
+            ByteBuffer artist = catalog.artistKey(song);
+            ByteBuffer genre = catalog.genreKey(song);
+
+            batch.add(addplaylist.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey).setBytesUnsafe(2, songId)
+                                        .setBytesUnsafe(3, now).setBytesUnsafe(4, artist).setBytesUnsafe(5, genre));
+            batch.add(bindBucket(addsong2user.bind().setBytesUnsafe(0, songId).setBytesUnsafe(1, userKey).setBytesUnsafe(2, playlistKey)
+                                                    .setBytesUnsafe(3, now), 4, View.SONG_TO_USER, 0));
+            batch.add(bindBucket(addartist2user.bind().setBytesUnsafe(0, artist).setBytesUnsafe(1, userKey).setBytesUnsafe(2, playlistKey)
+                                                      .setBytesUnsafe(3, songId), 4, View.ARTIST_TO_USER, 0));
+            batch.add(bindBucket(addgenre2user.bind().setBytesUnsafe(0, genre).setBytesUnsafe(1, userKey).setBytesUnsafe(2, playlistKey)
+                                                     .setBytesUnsafe(3, songId), 4, View.GENRE_TO_USER, 0));
         }
 
-        tracker.incrementAndGet();
-        final long startTime = System.nanoTime();
+        return batch;
+    }
 
-        ResultSetFuture future = session.executeAsync(batch);
+    @Override
+    ListenableFuture<?> add(Session session)
+    {
+        prepareAdd(session);
 
-        Futures.addCallback(future, new FutureCallback<ResultSet>()
-        {
-            @Override
-            public void onSuccess(ResultSet result)
-            {
-                long endTime = System.nanoTime();
+        long buildStart = System.nanoTime();
+        List<Statement> batch = addStatements();
 
-                totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                addTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
 
+        ListenableFuture<?> future = writeStrategy.execute(this, session, batch);
+
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime)
+        {
             @Override
-            public void onFailure(Throwable t)
+            protected void succeeded(Object result)
             {
-                long endTime = System.nanoTime();
-                //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
+                added();
             }
-        }, executor);
+        });
 
         return future;
     }
 
     @Override
-    ResultSetFuture update(final Session session)
+    void addSync(Session session)
+    {
+        prepareAdd(session);
+
+        long buildStart = System.nanoTime();
+        List<Statement> batch = addStatements();
+
+        long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
+
+        try
+        {
+            await(writeStrategy.execute(this, session, batch), Phase.WRITE);
+        }
+        catch (ExecutionException e)
+        {
+            fail(startTime, e.getCause());
+            return;
+        }
+
+        added();
+        complete(startTime);
+    }
+
+    private void added()
+    {
+        if (stateCache != null)
+            stateCache.put(userName, playlistName, songs);
+    }
+
+    private static void prepareUpdate(Session session)
     {
         if (updatelastplayed == null)
         {
@@ -109,83 +161,42 @@ public class ManualPlaylist extends AbstractPlaylist
             //can also be prepared from delete
             if (deleteplaylist == null)
                 deleterecentlyplayed = session.prepare("DELETE FROM recently_played WHERE last_played = ? AND user_name = ?" +
-                      " AND playlist_name = ? and song_id = ?");
+                      " AND playlist_name = ? and song_id = ?" + bucketRelations(View.RECENTLY_PLAYED));
 
             addrecentlyplayed = session.prepare("INSERT INTO recently_played(last_played, user_name, playlist_name," +
-                    " song_id)VALUES(?,?,?,?)");
+                    " song_id" + bucketColumns(View.RECENTLY_PLAYED) + ")VALUES(?,?,?,?" + bucketValues(View.RECENTLY_PLAYED) + ")");
 
             updatelastplayed = session.prepare("UPDATE user_playlists SET last_played = ? WHERE user_name = ? " +
                     "AND playlist_name = ? AND song_id = ?");
         }
+    }
 
+    @Override
+    ListenableFuture<?> update(final Session session)
+    {
+        prepareUpdate(session);
 
-        //We need to get the previous value to cleanup the last_played view
-        final String songId = songList.get(1).songId;
-        BoundStatement boundStatement = getlastplated.bind(userName, playlistName, songId);
-        boundStatement.setConsistencyLevel(ConsistencyLevel.QUORUM);
+        final long startTime = start();
 
-        final BatchStatement updateBatch = new BatchStatement(BatchStatement.Type.LOGGED);
-        updateBatch.setConsistencyLevel(ConsistencyLevel.QUORUM);
+        final int song = songs[1];
 
-        tracker.incrementAndGet();
+        //If we already know the previous value we can skip the read
+        PlaylistStateCache.State state = stateCache == null ? null : stateCache.get(userName, playlistName);
+        if (state != null && state.contains(song))
+            return writeUpdate(session, state, song, state.getLastPlayed(song), startTime);
 
-        final long startTime = System.nanoTime();
-        ResultSetFuture selectFuture = session.executeAsync(boundStatement);
+        //We need to get the previous value to cleanup the last_played view
+        ListenableFuture<ResultSet> selectFuture = sendRead(session, lastPlayedStatement(song));
+        timeRequest(selectFuture, Phase.READ);
 
-        Futures.addCallback(selectFuture, new FutureCallback<ResultSet>()
+        Futures.addCallback(selectFuture, new StageCallback(startTime)
         {
             @Override
-            public void onSuccess(ResultSet result)
+            protected void next(ResultSet result)
             {
-                long endTime = System.nanoTime();
-                readTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-
                 Row row = result.one();
-                if (row != null)
-                {
-                    long oldLastPlayed = row.getLong(0);
-
-                    updateBatch.add(deleterecentlyplayed.bind(oldLastPlayed, userName, playlistName, songId));
-                }
-
-
-                long recently_played = System.currentTimeMillis();
-
-                updateBatch.add(updatelastplayed.bind(recently_played, userName, playlistName, songId));
-                updateBatch.add(addrecentlyplayed.bind(recently_played, userName, playlistName, songId));
-
-
-                ResultSetFuture future = session.executeAsync(updateBatch);
-
-                Futures.addCallback(future, new FutureCallback<ResultSet>()
-                {
-                    @Override
-                    public void onSuccess(ResultSet result)
-                    {
-                        long endTime = System.nanoTime();
-                        totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        updateTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        tracker.decrementAndGet();
-                    }
-
-                    @Override
-                    public void onFailure(Throwable t)
-                    {
-                        long endTime = System.nanoTime();
-                        //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        tracker.decrementAndGet();
-                    }
-                }, executor);
-            }
 
-            @Override
-            public void onFailure(Throwable t)
-            {
-                long endTime = System.nanoTime();
-                //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
+                writeUpdate(session, null, song, row == null ? PlaylistStateCache.State.NOT_PLAYED : row.getLong(0), startTime);
             }
         }, executor);
 
@@ -194,97 +205,404 @@ public class ManualPlaylist extends AbstractPlaylist
     }
 
     @Override
-    ResultSetFuture delete(final Session session)
+    void updateSync(Session session)
+    {
+        prepareUpdate(session);
+
+        long startTime = start();
+
+        int song = songs[1];
+
+        try
+        {
+            //If we already know the previous value we can skip the read
+            PlaylistStateCache.State state = stateCache == null ? null : stateCache.get(userName, playlistName);
+            long oldLastPlayed;
+
+            if (state != null && state.contains(song))
+            {
+                oldLastPlayed = state.getLastPlayed(song);
+            }
+            else
+            {
+                state = null;
+
+                Row row = await(sendRead(session, lastPlayedStatement(song)), Phase.READ).one();
+                readTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+                oldLastPlayed = row == null ? PlaylistStateCache.State.NOT_PLAYED : row.getLong(0);
+            }
+
+            long buildStart = System.nanoTime();
+            long recentlyPlayed = System.currentTimeMillis();
+            List<Statement> updateBatch = updateStatements(song, oldLastPlayed, recentlyPlayed);
+            phase(Phase.BUILD, System.nanoTime() - buildStart);
+
+            await(writeStrategy.execute(this, session, updateBatch), Phase.WRITE);
+
+            updated(state, song, recentlyPlayed);
+        }
+        catch (ExecutionException e)
+        {
+            fail(startTime, e.getCause());
+            return;
+        }
+
+        complete(startTime);
+    }
+
+    private BoundStatement lastPlayedStatement(int song)
     {
+        BoundStatement boundStatement = getlastplated.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey).setBytesUnsafe(2, catalog.songKey(song));
+        boundStatement.setConsistencyLevel(ConsistencyLevel.QUORUM);
+
+        return boundStatement;
+    }
+
+    private ListenableFuture<?> writeUpdate(Session session, final PlaylistStateCache.State state, final int song, long oldLastPlayed, long startTime)
+    {
+        long buildStart = System.nanoTime();
+
+        final long recently_played = System.currentTimeMillis();
+        List<Statement> updateBatch = updateStatements(song, oldLastPlayed, recently_played);
+
+        phase(Phase.BUILD, System.nanoTime() - buildStart);
+
+        ListenableFuture<?> future = writeStrategy.execute(this, session, updateBatch);
+
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime)
+        {
+            @Override
+            protected void succeeded(Object result)
+            {
+                updated(state, song, recently_played);
+            }
+        });
+
+        return future;
+    }
 
+    private List<Statement> updateStatements(int song, long oldLastPlayed, long recently_played)
+    {
+        ByteBuffer songId = catalog.songKey(song);
+        List<Statement> updateBatch = new ArrayList<Statement>(3);
+
+        if (oldLastPlayed != PlaylistStateCache.State.NOT_PLAYED)
+        {
+            updateBatch.add(bindBucket(deleterecentlyplayed.bind().setLong(0, oldLastPlayed).setBytesUnsafe(1, userKey)
+                                                           .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, songId),
+                                       4, View.RECENTLY_PLAYED, oldLastPlayed));
+        }
+
+
+        lastPlayed = recently_played;
+
+        updateBatch.add(updatelastplayed.bind().setLong(0, recently_played).setBytesUnsafe(1, userKey)
+                                        .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, songId));
+        updateBatch.add(bindBucket(addrecentlyplayed.bind().setLong(0, recently_played).setBytesUnsafe(1, userKey)
+                                                    .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, songId),
+                                   4, View.RECENTLY_PLAYED, recently_played));
+
+        return updateBatch;
+    }
+
+    private void updated(PlaylistStateCache.State state, int song, long recently_played)
+    {
+        if (state != null)
+            state.setLastPlayed(song, recently_played);
+
+        lastRecentlyPlayed = recently_played;
+    }
+
+    private static void prepareDelete(Session session)
+    {
         if (deleteplaylist == null)
         {
             //can also be called from update
             if (deleterecentlyplayed == null)
                 deleterecentlyplayed = session.prepare("DELETE FROM recently_played WHERE last_played = ? AND user_name = ?" +
-                        " AND playlist_name = ? and song_id = ?");
+                        " AND playlist_name = ? and song_id = ?" + bucketRelations(View.RECENTLY_PLAYED));
 
             getplaylist = session.prepare("SELECT * from user_playlists where user_name = ? AND playlist_name = ?");
 
-            deletesong2user = session.prepare("DELETE FROM song_to_user where song_id = ? AND user_name = ? AND playlist_name = ?");
+            deletesong2user = session.prepare("DELETE FROM song_to_user where song_id = ? AND user_name = ? AND playlist_name = ?" + bucketRelations(View.SONG_TO_USER));
 
-            deleteartist2user = session.prepare("DELETE FROM artist_to_user where artist_name = ? AND user_name = ? AND playlist_name = ? AND song_id = ?");
+            deleteartist2user = session.prepare("DELETE FROM artist_to_user where artist_name = ? AND user_name = ? AND playlist_name = ? AND song_id = ?" + bucketRelations(View.ARTIST_TO_USER));
 
-            deletegenre2user = session.prepare("DELETE FROM genre_to_user where genre = ? AND user_name = ? AND playlist_name = ? AND song_id = ?");
+            deletegenre2user = session.prepare("DELETE FROM genre_to_user where genre = ? AND user_name = ? AND playlist_name = ? AND song_id = ?" + bucketRelations(View.GENRE_TO_USER));
 
             deleteplaylist = session.prepare("DELETE from user_playlists where user_name = ? AND playlist_name = ?");
         }
+    }
 
+    @Override
+    ListenableFuture<?> delete(final Session session)
+    {
+        prepareDelete(session);
 
-        final BatchStatement batchDelete = new BatchStatement(BatchStatement.Type.LOGGED);
-        batchDelete.setConsistencyLevel(ConsistencyLevel.QUORUM);
+        final long startTime = start();
 
-        tracker.incrementAndGet();
-        final long startTime = System.nanoTime();
+        //If we know what's in the playlist we can skip the read
+        PlaylistStateCache.State state = stateCache == null ? null : stateCache.get(userName, playlistName);
+        if (state != null)
+        {
+            long buildStart = System.nanoTime();
+            return writeDelete(session, deleteStatements(state), startTime, buildStart);
+        }
 
         //Even though we have the song list we are going to pretend we don't to make this
         //test realistic
-        final ResultSetFuture playlistFuture = session.executeAsync(getplaylist.bind(userName, playlistName));
+        final ListenableFuture<ResultSet> playlistFuture = sendRead(session, getplaylist.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey));
+        timeRequest(playlistFuture, Phase.READ);
+
+        Futures.addCallback(playlistFuture, new StageCallback(startTime)
+        {
+            @Override
+            protected void next(ResultSet result)
+            {
+                long buildStart = System.nanoTime();
+                writeDelete(session, deleteStatements(result), startTime, buildStart);
+            }
+        }, executor);
 
-        Futures.addCallback(playlistFuture, new FutureCallback<ResultSet>()
+        return null;
+    }
+
+    @Override
+    void deleteSync(Session session)
+    {
+        prepareDelete(session);
+
+        long startTime = start();
+
+        try
+        {
+            //If we know what's in the playlist we can skip the read
+            PlaylistStateCache.State state = stateCache == null ? null : stateCache.get(userName, playlistName);
+            List<Statement> batchDelete;
+            long buildStart;
+
+            if (state != null)
+            {
+                buildStart = System.nanoTime();
+                batchDelete = deleteStatements(state);
+            }
+            else
+            {
+                ResultSet result = await(sendRead(session, getplaylist.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey)), Phase.READ);
+                readTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+                buildStart = System.nanoTime();
+                batchDelete = deleteStatements(result);
+            }
+
+            batchDelete.add(deleteplaylist.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey));
+            phase(Phase.BUILD, System.nanoTime() - buildStart);
+
+            await(writeStrategy.execute(this, session, batchDelete), Phase.WRITE);
+        }
+        catch (ExecutionException e)
+        {
+            fail(startTime, e.getCause());
+            return;
+        }
+
+        deleted();
+        complete(startTime);
+    }
+
+    private List<Statement> deleteStatements(PlaylistStateCache.State state)
+    {
+        List<Statement> batchDelete = new ArrayList<Statement>(state.songs.length * 4 + 1);
+
+        for (int song : state.songs)
+            addDeleteStatements(batchDelete, catalog.songKey(song), catalog.artistKey(song), catalog.genreKey(song), state.getLastPlayed(song));
+
+        return batchDelete;
+    }
+
+    private List<Statement> deleteStatements(ResultSet result)
+    {
+        List<Statement> batchDelete = new ArrayList<Statement>();
+
+        for (Row row : result.all())
+        {
+            //Pass the keys through as they came off the wire, no need to decode them
+            addDeleteStatements(batchDelete, row.getBytesUnsafe("song_id"), row.getBytesUnsafe("artist_name"), row.getBytesUnsafe("genre"),
+                                row.isNull("last_played") ? PlaylistStateCache.State.NOT_PLAYED : row.getLong("last_played"));
+        }
+
+        return batchDelete;
+    }
+
+    private void addDeleteStatements(List<Statement> batchDelete, ByteBuffer songId, ByteBuffer artist, ByteBuffer genre, long lastPlayed)
+    {
+        batchDelete.add(bindBucket(deletesong2user.bind().setBytesUnsafe(0, songId).setBytesUnsafe(1, userKey).setBytesUnsafe(2, playlistKey),
+                                   3, View.SONG_TO_USER, 0));
+        batchDelete.add(bindBucket(deleteartist2user.bind().setBytesUnsafe(0, artist).setBytesUnsafe(1, userKey)
+                                                    .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, songId),
+                                   4, View.ARTIST_TO_USER, 0));
+        batchDelete.add(bindBucket(deletegenre2user.bind().setBytesUnsafe(0, genre).setBytesUnsafe(1, userKey)
+                                                   .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, songId),
+                                   4, View.GENRE_TO_USER, 0));
+
+        if (lastPlayed != PlaylistStateCache.State.NOT_PLAYED)
+        {
+            batchDelete.add(bindBucket(deleterecentlyplayed.bind().setLong(0, lastPlayed).setBytesUnsafe(1, userKey)
+                                                           .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, songId),
+                                       4, View.RECENTLY_PLAYED, lastPlayed));
+        }
+    }
+
+    private ListenableFuture<?> writeDelete(Session session, List<Statement> batchDelete, long startTime, long buildStart)
+    {
+        batchDelete.add(deleteplaylist.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey));
+
+        phase(Phase.BUILD, System.nanoTime() - buildStart);
+
+        ListenableFuture<?> future = writeStrategy.execute(this, session, batchDelete);
+
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime)
         {
             @Override
-            public void onSuccess(ResultSet result)
+            protected void succeeded(Object result)
             {
-                long endTime = System.nanoTime();
-                readTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-
-                for (Row row : result.all())
-                {
-                    String songId = row.getString("song_id");
-                    batchDelete.add(deletesong2user.bind(songId, userName, playlistName));
-                    batchDelete.add(deleteartist2user.bind(row.getString("artist_name"), userName, playlistName, songId));
-                    batchDelete.add(deletegenre2user.bind(row.getString("genre"), userName, playlistName, songId));
-
-                    if (!row.isNull("last_played"))
-                    {
-                        long last_played = row.getLong("last_played");
-                        batchDelete.add(deleterecentlyplayed.bind(last_played, userName, playlistName, songId));
-                    }
-                }
-
-
-                batchDelete.add(deleteplaylist.bind(userName, playlistName));
-
-                ResultSetFuture future = session.executeAsync(batchDelete);
-
-                Futures.addCallback(future, new FutureCallback<ResultSet>()
-                {
-                    @Override
-                    public void onSuccess(ResultSet result)
-                    {
-                        long endTime = System.nanoTime();
-                        totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        deleteTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        tracker.decrementAndGet();
-                    }
-
-                    @Override
-                    public void onFailure(Throwable t)
-                    {
-                        long endTime = System.nanoTime();
-                        //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                        tracker.decrementAndGet();
-                    }
-                }, executor);
+                deleted();
             }
+        });
+
+        return future;
+    }
+
+    private void deleted()
+    {
+        if (stateCache != null)
+            stateCache.invalidate(userName, playlistName);
+    }
+
+    //The bucket columns a view write sets, after the original ones
+    private static String bucketColumns(View view)
+    {
+        if (buckets == null)
+            return "";
+
+        return view == View.RECENTLY_PLAYED ? ", time_bucket, bucket" : ", bucket";
+    }
 
+    private static String bucketValues(View view)
+    {
+        if (buckets == null)
+            return "";
+
+        return view == View.RECENTLY_PLAYED ? ",?,?" : ",?";
+    }
+
+    private static String bucketRelations(View view)
+    {
+        if (buckets == null)
+            return "";
+
+        return view == View.RECENTLY_PLAYED ? " AND time_bucket = ? AND bucket = ?" : " AND bucket = ?";
+    }
+
+    /**
+     * Binds the bucket columns from index onwards, lastPlayed picks the recently_played window
+     */
+    private BoundStatement bindBucket(BoundStatement statement, int index, View view, long lastPlayed)
+    {
+        if (buckets == null)
+            return statement;
+
+        if (view == View.RECENTLY_PLAYED)
+            statement.setLong(index++, buckets.timeBucket(lastPlayed));
+
+        return statement.setInt(index, buckets.bucket(userName, playlistName));
+    }
+
+    /**
+     * With buckets a view partition is read by reading every bucket of it at once, each
+     * fetching its share of the page so we read about as many rows as without buckets
+     */
+    @Override
+    ListenableFuture<?> read(Session session)
+    {
+        if (buckets == null)
+            return super.read(session);
+
+        final View view = type.view();
+        PreparedStatement statement = readStatement(session, view);
+
+        long buildStart = System.nanoTime();
+
+        int fetchSize = Math.max(1, (readPageSize + buckets.count - 1) / buckets.count);
+        BoundStatement[] bound = new BoundStatement[buckets.count];
+        for (int bucket = 0; bucket < bound.length; bucket++)
+        {
+            //The view key is bound first, then the bucket
+            bound[bucket] = bindRead(statement, view).setInt(1, bucket);
+            bound[bucket].setFetchSize(fetchSize);
+        }
+
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
+
+        List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>(bound.length);
+        for (BoundStatement statementForBucket : bound)
+            futures.add(send(session, statementForBucket));
+
+        ListenableFuture<List<ResultSet>> future = Futures.allAsList(futures);
+
+        onCompletion(future, Phase.READ, new CompletionCallback(startTime)
+        {
             @Override
-            public void onFailure(Throwable t)
+            @SuppressWarnings("unchecked")
+            protected void succeeded(Object result)
             {
-                long endTime = System.nanoTime();
-                //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
+                int rows = 0;
+                for (ResultSet resultSet : (List<ResultSet>) result)
+                    rows += resultSet.getAvailableWithoutFetching();
+
+                view.rows.update(rows);
             }
-        }, executor);
+        });
 
-        return null;
+        return future;
+    }
+
+    @Override
+    public PreparedStatement[] readStatements()
+    {
+        return readStatements;
+    }
+
+    @Override
+    String readKey(View view)
+    {
+        //The bucketed recently_played is partitioned by a window of time
+        return buckets != null && view == View.RECENTLY_PLAYED ? "time_bucket" : view.partitionKey;
+    }
+
+    @Override
+    String readRelations(View view)
+    {
+        return buckets == null ? "" : " AND bucket = ?";
+    }
+
+    @Override
+    String probeRelations(View view)
+    {
+        return bucketRelations(view);
+    }
+
+    @Override
+    BoundStatement bindProbe(BoundStatement statement, int index, View view)
+    {
+        return bindBucket(statement, index, view, lastPlayed);
+    }
+
+    @Override
+    public void bindRecentlyPlayed(BoundStatement statement)
+    {
+        statement.setLong(0, buckets == null ? lastRecentlyPlayed : buckets.timeBucket(lastRecentlyPlayed));
     }
 }
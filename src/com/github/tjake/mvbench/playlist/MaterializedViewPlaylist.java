@@ -1,27 +1,29 @@
 package com.github.tjake.mvbench.playlist;
 
 
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
+import java.nio.ByteBuffer;
 
 import com.datastax.driver.core.*;
 
 /**
  * Created by jake on 8/15/15.
  */
-public class MaterializedViewPlaylist extends AbstractPlaylist
+public class MaterializedViewPlaylist extends AbstractPlaylist implements ViewReader
 {
 
     volatile static PreparedStatement addStatement = null;
     volatile static PreparedStatement updateStatement = null;
     volatile static PreparedStatement deleteStatement = null;
 
-    protected MaterializedViewPlaylist(String userName, String playlistName, List<Song> songList, Type type)
+    //How the rows of one playlist are batched.  They are one partition so the batchlog buys
+    //nothing, but stays on unless populating to keep the original behaviour
+    public static volatile BatchStatement.Type batchType = BatchStatement.Type.LOGGED;
+
+    static final PreparedStatement[] readStatements = new PreparedStatement[View.values().length];
+
+    protected MaterializedViewPlaylist(SongCatalog catalog, long userId, long playlistId, int[] songs, Type type)
     {
-        super(userName, playlistName, songList, type);
+        super(catalog, userId, playlistId, songs, type);
     }
 
 
@@ -37,39 +39,22 @@ public class MaterializedViewPlaylist extends AbstractPlaylist
             addStatement = session.prepare(sb.toString());
         }
 
-        Long now = System.currentTimeMillis();
-        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+        long buildStart = System.nanoTime();
+
+        ByteBuffer now = SongCatalog.encode(System.currentTimeMillis());
+        BatchStatement batch = new BatchStatement(batchType);
         batch.setConsistencyLevel(ConsistencyLevel.QUORUM);
 
-        for (Song song : songList)
-            batch.add(addStatement.bind(userName, playlistName, song.songId, now, song.artist, song.genre));
+        for (int song : songs)
+            batch.add(addStatement.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey).setBytesUnsafe(2, catalog.songKey(song))
+                                         .setBytesUnsafe(3, now).setBytesUnsafe(4, catalog.artistKey(song)).setBytesUnsafe(5, catalog.genreKey(song)));
 
-        tracker.incrementAndGet();
-        final long startTime = System.nanoTime();
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
 
-        ResultSetFuture future = session.executeAsync(batch);
+        ResultSetFuture future = send(session, batch);
 
-        Futures.addCallback(future, new FutureCallback<ResultSet>()
-        {
-            @Override
-            public void onSuccess(ResultSet result)
-            {
-                long endTime = System.nanoTime();
-
-                totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                addTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
-
-            @Override
-            public void onFailure(Throwable t)
-            {
-                long endTime = System.nanoTime();
-                //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
-        }, executor);
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime));
 
         return future;
     }
@@ -85,36 +70,21 @@ public class MaterializedViewPlaylist extends AbstractPlaylist
             updateStatement = session.prepare(sb.toString());
         }
 
-        BoundStatement statement = updateStatement.bind(System.currentTimeMillis(), userName, playlistName, songList.get(1).songId);
+        long buildStart = System.nanoTime();
+
+        lastPlayed = System.currentTimeMillis();
+        BoundStatement statement = updateStatement.bind().setLong(0, lastPlayed).setBytesUnsafe(1, userKey)
+                                                   .setBytesUnsafe(2, playlistKey).setBytesUnsafe(3, catalog.songKey(songs[1]));
         statement.setConsistencyLevel(ConsistencyLevel.QUORUM);
 
 
-        tracker.incrementAndGet();
-        final long startTime = System.nanoTime();
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
 
-        ResultSetFuture future = session.executeAsync(statement);
+        ResultSetFuture future = send(session, statement);
 
 
-        Futures.addCallback(future, new FutureCallback<ResultSet>()
-        {
-            @Override
-            public void onSuccess(ResultSet result)
-            {
-                long endTime = System.nanoTime();
-                totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                updateTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
-
-            @Override
-            public void onFailure(Throwable t)
-            {
-                long endTime = System.nanoTime();
-                //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
-        }, executor);
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime));
 
         return future;
     }
@@ -130,37 +100,37 @@ public class MaterializedViewPlaylist extends AbstractPlaylist
             deleteStatement = session.prepare(sb.toString());
         }
 
-        BoundStatement statement = deleteStatement.bind(userName, playlistName);
+        long buildStart = System.nanoTime();
+
+        BoundStatement statement = deleteStatement.bind().setBytesUnsafe(0, userKey).setBytesUnsafe(1, playlistKey);
         statement.setConsistencyLevel(ConsistencyLevel.QUORUM);
 
-        tracker.incrementAndGet();
-        final long startTime = System.nanoTime();
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
 
-        ResultSetFuture future = session.executeAsync(statement);
+        ResultSetFuture future = send(session, statement);
 
-        Futures.addCallback(future, new FutureCallback<ResultSet>()
-        {
-            @Override
-            public void onSuccess(ResultSet result)
-            {
-                long endTime = System.nanoTime();
-
-                totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                deleteTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
-
-            @Override
-            public void onFailure(Throwable t)
-            {
-                long endTime = System.nanoTime();
-
-                //totalTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                errorTimer.update(endTime - startTime, TimeUnit.NANOSECONDS);
-                tracker.decrementAndGet();
-            }
-        }, executor);
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime));
 
         return future;
     }
+
+    @Override
+    public PreparedStatement[] readStatements()
+    {
+        return readStatements;
+    }
+
+    @Override
+    String readKey(View view)
+    {
+        //The recently_played view is partitioned by user
+        return view == View.RECENTLY_PLAYED ? "user_name" : view.partitionKey;
+    }
+
+    @Override
+    public void bindRecentlyPlayed(BoundStatement statement)
+    {
+        statement.setBytesUnsafe(0, userKey);
+    }
 }
@@ -0,0 +1,224 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A compact binary log of an operation stream, so the exact same operations can be
+ * replayed against either schema, or by a different version of the client.
+ *
+ * The file is a header followed by one record per operation, big endian.  The header holds
+ * the magic, the version and everything the catalog's keys are worked out from, which replay
+ * must match: its dimensions, then the spec and salt of the artist and then the genre
+ * distribution, each spec a short length and its UTF-8 bytes.  Each record is:
+ *
+ *   long   when the operation was scheduled, in nanos from the start of the stream
+ *   byte   the operation type
+ *   long   user id
+ *   long   playlist id, negative for reads
+ *   short  number of songs
+ *   int[]  song ids
+ */
+public class OperationLog
+{
+    private static final int MAGIC = 0x4D564F50; //MVOP
+    private static final int VERSION = 2;
+
+    //The fixed part, up to the distributions
+    private static final int HEADER_SIZE = 4 * 5;
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 8 + 8 + 2;
+
+    //Files are mapped a window at a time so they can grow past 2GB
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    public static class Writer implements Closeable
+    {
+        private final DataOutputStream out;
+        private long count = 0;
+
+        public Writer(File file, SongCatalog catalog) throws IOException
+        {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(catalog.numSongs);
+            out.writeInt(catalog.numArtists);
+            out.writeInt(catalog.numGenres);
+
+            for (KeyDistribution distribution : new KeyDistribution[] { catalog.artists, catalog.genres })
+            {
+                byte[] spec = distribution.toString().getBytes(Charsets.UTF_8);
+                out.writeShort(spec.length);
+                out.write(spec);
+                out.writeLong(distribution.salt());
+            }
+        }
+
+        public void append(long offsetNanos, AbstractPlaylist operation) throws IOException
+        {
+            out.writeLong(offsetNanos);
+            out.writeByte(operation.type.ordinal());
+            out.writeLong(operation.userId);
+            out.writeLong(operation.playlistId);
+            out.writeShort(operation.songs.length);
+
+            for (int song : operation.songs)
+                out.writeInt(song);
+
+            count++;
+        }
+
+        public long count()
+        {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the operations straight out of the mapped file, not thread safe.
+     *
+     * Each operation is a new playlist with its own array of songs, the same as a generated
+     * one, nothing is reused between them.
+     */
+    public static class Reader implements Closeable
+    {
+        private static final AbstractPlaylist.Type[] types = AbstractPlaylist.Type.values();
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long size;
+        private final SongCatalog catalog;
+        private final boolean isManual;
+
+        //Where the current window starts in the file
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        private long offsetNanos;
+
+        public Reader(File path, SongCatalog catalog, boolean isManual) throws IOException
+        {
+            this.file = new RandomAccessFile(path, "r");
+            this.channel = file.getChannel();
+            this.size = channel.size();
+            this.catalog = catalog;
+            this.isManual = isManual;
+
+            map(0);
+
+            if (size < HEADER_SIZE || window.getInt() != MAGIC)
+                throw new IOException(path + " is not an operation log");
+
+            int version = window.getInt();
+            if (version != VERSION)
+                throw new IOException(path + " is version " + version + ", expected " + VERSION);
+
+            int numSongs = window.getInt(), numArtists = window.getInt(), numGenres = window.getInt();
+            if (numSongs != catalog.numSongs || numArtists != catalog.numArtists || numGenres != catalog.numGenres)
+                throw new IOException(String.format("%s was recorded with %d songs, %d artists and %d genres, the catalog has %d, %d and %d",
+                                                    path, numSongs, numArtists, numGenres, catalog.numSongs, catalog.numArtists, catalog.numGenres));
+
+            checkDistribution(path, "artist", catalog.artists);
+            checkDistribution(path, "genre", catalog.genres);
+        }
+
+        //The songs' artists and genres have to come out the same as when the log was recorded
+        private void checkDistribution(File path, String name, KeyDistribution distribution) throws IOException
+        {
+            if (!ensure(2))
+                throw new IOException("Truncated operation log header");
+
+            byte[] spec = new byte[window.getShort() & 0xffff];
+            if (!ensure(spec.length + 8))
+                throw new IOException("Truncated operation log header");
+
+            window.get(spec);
+            long salt = window.getLong();
+
+            String recorded = new String(spec, Charsets.UTF_8);
+            if (!recorded.equals(distribution.toString()) || salt != distribution.salt())
+                throw new IOException(String.format("%s was recorded with --%s-distribution %s (salt %x), this run has %s (salt %x)",
+                                                    path, name, recorded, salt, distribution, distribution.salt()));
+        }
+
+        /**
+         * The next operation, or null at the end of the log
+         */
+        public AbstractPlaylist next() throws IOException
+        {
+            if (!ensure(RECORD_HEADER_SIZE))
+                return null;
+
+            offsetNanos = window.getLong();
+            AbstractPlaylist.Type type = types[window.get()];
+            long userId = window.getLong();
+            long playlistId = window.getLong();
+            int[] songs = new int[window.getShort() & 0xffff];
+
+            //A record can straddle two windows, this maps the next one from here if so
+            if (!ensure(songs.length * 4))
+                throw new IOException("Truncated operation log");
+
+            for (int i = 0; i < songs.length; i++)
+                songs[i] = window.getInt();
+
+            return AbstractPlaylist.create(catalog, isManual, userId, playlistId, songs, type);
+        }
+
+        /**
+         * When the last operation read was scheduled, in nanos from the start of the stream
+         */
+        public long offsetNanos()
+        {
+            return offsetNanos;
+        }
+
+        //Makes sure the window holds the next bytes, false at the end of the file
+        private boolean ensure(int bytes) throws IOException
+        {
+            if (window.remaining() >= bytes)
+                return true;
+
+            long position = windowStart + window.position();
+            if (position + bytes > size)
+            {
+                if (position != size)
+                    throw new IOException("Truncated operation log");
+
+                return false;
+            }
+
+            map(position);
+            return true;
+        }
+
+        private void map(long position) throws IOException
+        {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+            file.close();
+        }
+    }
+}
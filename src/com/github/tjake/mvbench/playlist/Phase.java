@@ -0,0 +1,18 @@
+package com.github.tjake.mvbench.playlist;
+
+/**
+ * The stages an operation goes through, each is timed separately per operation type.
+ */
+public enum Phase
+{
+    //From being issued until it starts running
+    QUEUE,
+    //The round trip of a read, either the read before write or a view query
+    READ,
+    //Binding and batching the statements to write
+    BUILD,
+    //The round trip of the write
+    WRITE,
+    //From the last response arriving until its callback runs
+    CALLBACK
+}
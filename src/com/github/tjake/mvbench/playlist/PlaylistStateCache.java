@@ -0,0 +1,139 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.Arrays;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Client side copy of the playlists we have written, so manual mode can skip the
+ * read before write when it already knows a playlist's songs and last_played values.
+ *
+ * Entries are only added or changed once the corresponding write succeeded, and are
+ * bounded by count with LRU eviction.
+ */
+public class PlaylistStateCache
+{
+    public static final Meter hits = AbstractPlaylist.registry.meter("state-cache-hit");
+    public static final Meter misses = AbstractPlaylist.registry.meter("state-cache-miss");
+    public static final Meter evictions = AbstractPlaylist.registry.meter("state-cache-eviction");
+
+    private final Cache<Key, State> cache;
+
+    public PlaylistStateCache(long maxSize)
+    {
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumSize(maxSize)
+                                 .removalListener(new RemovalListener<Key, State>()
+                                 {
+                                     @Override
+                                     public void onRemoval(RemovalNotification<Key, State> notification)
+                                     {
+                                         if (notification.wasEvicted())
+                                             evictions.mark();
+                                     }
+                                 })
+                                 .build();
+    }
+
+    public State get(String userName, String playlistName)
+    {
+        State state = cache.getIfPresent(new Key(userName, playlistName));
+
+        if (state == null)
+            misses.mark();
+        else
+            hits.mark();
+
+        return state;
+    }
+
+    public void put(String userName, String playlistName, int[] songs)
+    {
+        cache.put(new Key(userName, playlistName), new State(songs));
+    }
+
+    public void invalidate(String userName, String playlistName)
+    {
+        cache.invalidate(new Key(userName, playlistName));
+    }
+
+    /**
+     * The rows of one playlist, songs are catalog ids
+     */
+    public static class State
+    {
+        public static final long NOT_PLAYED = Long.MIN_VALUE;
+
+        public final int[] songs;
+        private final long[] lastPlayed;
+
+        State(int[] songs)
+        {
+            this.songs = songs;
+            this.lastPlayed = new long[songs.length];
+            Arrays.fill(lastPlayed, NOT_PLAYED);
+        }
+
+        private int indexOf(int song)
+        {
+            for (int i = 0; i < songs.length; i++)
+                if (songs[i] == song)
+                    return i;
+
+            return -1;
+        }
+
+        public boolean contains(int song)
+        {
+            return indexOf(song) >= 0;
+        }
+
+        public synchronized long getLastPlayed(int song)
+        {
+            int i = indexOf(song);
+            return i < 0 ? NOT_PLAYED : lastPlayed[i];
+        }
+
+        public synchronized void setLastPlayed(int song, long value)
+        {
+            int i = indexOf(song);
+            if (i >= 0)
+                lastPlayed[i] = value;
+        }
+    }
+
+    private static class Key
+    {
+        final String userName;
+        final String playlistName;
+
+        Key(String userName, String playlistName)
+        {
+            this.userName = userName;
+            this.playlistName = playlistName;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+            return userName.equals(key.userName) && playlistName.equals(key.playlistName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * userName.hashCode() + playlistName.hashCode();
+        }
+    }
+}
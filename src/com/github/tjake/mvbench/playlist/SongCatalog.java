@@ -0,0 +1,120 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Charsets;
+
+/**
+ * All the songs, artists and genres in the system, built once at startup.
+ *
+ * Songs are referenced by their int id, every song has a fixed artist and
+ * every artist a fixed genre.  The text keys are encoded up front into one
+ * contiguous block per dimension so binding them doesn't format or encode anything.
+ */
+public class SongCatalog
+{
+    public final int numSongs;
+    public final int numArtists;
+    public final int numGenres;
+
+    //What the songs' artists and the artists' genres were picked with
+    public final KeyDistribution artists;
+    public final KeyDistribution genres;
+
+    private final int[] artistOfSong;
+    private final int[] genreOfArtist;
+
+    private final ByteBuffer[] songKeys;
+    private final ByteBuffer[] artistKeys;
+    private final ByteBuffer[] genreKeys;
+
+    public SongCatalog(int numSongs, int numArtists, int numGenres)
+    {
+        this(numSongs, KeyDistribution.sequential(numArtists), KeyDistribution.sequential(numGenres));
+    }
+
+    /**
+     * @param artists how songs are spread over the artists, skew gives some artists far more songs
+     * @param genres how artists are spread over the genres
+     */
+    public SongCatalog(int numSongs, KeyDistribution artists, KeyDistribution genres)
+    {
+        assert numSongs > genres.size;
+
+        this.numSongs = numSongs;
+        this.numArtists = artists.size;
+        this.numGenres = genres.size;
+        this.artists = artists;
+        this.genres = genres;
+
+        this.artistOfSong = new int[numSongs];
+        for (int i = 0; i < numSongs; i++)
+            artistOfSong[i] = artists.key(i);
+
+        this.genreOfArtist = new int[numArtists];
+        for (int i = 0; i < numArtists; i++)
+            genreOfArtist[i] = genres.key(i);
+
+        this.songKeys = encodeAll("song_", numSongs);
+        this.artistKeys = encodeAll("artist_", numArtists);
+        this.genreKeys = encodeAll("genre_", numGenres);
+    }
+
+    public int artist(int song)
+    {
+        return artistOfSong[song];
+    }
+
+    public int genre(int song)
+    {
+        return genreOfArtist[artistOfSong[song]];
+    }
+
+    public ByteBuffer songKey(int song)
+    {
+        return songKeys[song];
+    }
+
+    public ByteBuffer artistKey(int song)
+    {
+        return artistKeys[artist(song)];
+    }
+
+    public ByteBuffer genreKey(int song)
+    {
+        return genreKeys[genre(song)];
+    }
+
+    public static ByteBuffer encode(String value)
+    {
+        return ByteBuffer.wrap(value.getBytes(Charsets.UTF_8));
+    }
+
+    public static ByteBuffer encode(long value)
+    {
+        ByteBuffer bb = ByteBuffer.allocate(8);
+        bb.putLong(0, value);
+        return bb;
+    }
+
+    private static ByteBuffer[] encodeAll(String prefix, int count)
+    {
+        byte[][] encoded = new byte[count][];
+        int size = 0;
+        for (int i = 0; i < count; i++)
+        {
+            encoded[i] = (prefix + i).getBytes(Charsets.UTF_8);
+            size += encoded[i].length;
+        }
+
+        byte[] block = new byte[size];
+        ByteBuffer[] keys = new ByteBuffer[count];
+        for (int i = 0, offset = 0; i < count; offset += encoded[i].length, i++)
+        {
+            System.arraycopy(encoded[i], 0, block, offset, encoded[i].length);
+            keys[i] = ByteBuffer.wrap(block, offset, encoded[i].length).slice();
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Hedges the idempotent reads on the critical path of a write, the selects manual updates
+ * and deletes make before writing.  When a read hasn't answered within a percentile of the
+ * recent read latencies a second copy is sent, and whichever answers first is used, so one
+ * slow replica doesn't hold up the whole operation.
+ *
+ * The delay follows the reads as the run goes: every second it is taken from the latencies
+ * of the first copies seen since, once there are enough of them.  Nothing is hedged until
+ * then.  Done here rather than with the driver's speculative execution policy so it works
+ * the same against the MEMORY backend and is driven by exactly these reads.
+ */
+public class SpeculativeReads
+{
+    //Don't trust a percentile from fewer reads than this
+    private static final int MIN_SAMPLES = 100;
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double percentile;
+    private final long minDelayNanos;
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("speculative-reads").setDaemon(true).build());
+
+    //The latencies of the first copies, collected until there are enough to take the delay from
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram window = new Histogram(3);
+    private volatile long lastRefresh = System.nanoTime();
+
+    //-1 until there are enough reads to work it out
+    private volatile long delayNanos = -1;
+
+    private final Meter reads = AbstractPlaylist.registry.meter("speculative-reads");
+    private final Meter hedged = AbstractPlaylist.registry.meter("speculative-hedged");
+    private final Meter won = AbstractPlaylist.registry.meter("speculative-won");
+
+    /**
+     * @param percentile of the recent read latencies to wait before hedging, e.g. 99
+     * @param minDelayMs never hedge sooner than this
+     */
+    public SpeculativeReads(double percentile, double minDelayMs)
+    {
+        assert percentile > 0 && percentile < 100;
+
+        this.percentile = percentile;
+        this.minDelayNanos = (long) (minDelayMs * 1e6);
+
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        AbstractPlaylist.registry.register("speculative-delay-ms", new Gauge<Double>()
+        {
+            @Override
+            public Double getValue()
+            {
+                return delayNanos / 1e6;
+            }
+        });
+    }
+
+    /**
+     * Sends a read for op, and a second copy of it if the first is slow
+     */
+    ListenableFuture<ResultSet> send(AbstractPlaylist op, Session session, Statement statement)
+    {
+        refresh();
+        reads.mark();
+
+        statement.setIdempotent(true);
+
+        final long sentTime = System.nanoTime();
+        ListenableFuture<ResultSet> first = op.send(session, statement);
+
+        first.addListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                recorder.recordValue(System.nanoTime() - sentTime);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        long delay = delayNanos;
+        if (delay < 0)
+            return first;
+
+        Hedge hedge = new Hedge(op, session, statement);
+        hedge.attempt(first, false);
+        hedge.timer = scheduler.schedule(hedge, delay, TimeUnit.NANOSECONDS);
+
+        return hedge.result;
+    }
+
+    private void refresh()
+    {
+        long now = System.nanoTime();
+        if (now - lastRefresh < REFRESH_NANOS)
+            return;
+
+        synchronized (window)
+        {
+            if (now - lastRefresh < REFRESH_NANOS)
+                return;
+
+            lastRefresh = now;
+            window.add(recorder.getIntervalHistogram());
+
+            if (window.getTotalCount() < MIN_SAMPLES)
+                return;
+
+            delayNanos = Math.max(minDelayNanos, window.getValueAtPercentile(percentile));
+            window.reset();
+        }
+    }
+
+    /**
+     * The first copy of a read and, once the delay has passed without an answer, the second
+     */
+    private class Hedge implements Runnable
+    {
+        private final AbstractPlaylist op;
+        private final Session session;
+        private final Statement statement;
+
+        final SettableFuture<ResultSet> result = SettableFuture.create();
+        volatile ScheduledFuture<?> timer;
+
+        //Guarded by this
+        private int pending = 1;
+        private boolean cancelled = false;
+
+        Hedge(AbstractPlaylist op, Session session, Statement statement)
+        {
+            this.op = op;
+            this.session = session;
+            this.statement = statement;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (this)
+            {
+                if (cancelled || result.isDone())
+                    return;
+
+                pending++;
+            }
+
+            hedged.mark();
+            attempt(op.send(session, statement), true);
+        }
+
+        void attempt(ListenableFuture<ResultSet> future, final boolean isHedge)
+        {
+            Futures.addCallback(future, new FutureCallback<ResultSet>()
+            {
+                @Override
+                public void onSuccess(ResultSet rows)
+                {
+                    if (result.set(rows) && isHedge)
+                        won.mark();
+
+                    ScheduledFuture<?> timer = Hedge.this.timer;
+                    if (timer != null)
+                        timer.cancel(false);
+                }
+
+                @Override
+                public void onFailure(Throwable t)
+                {
+                    synchronized (Hedge.this)
+                    {
+                        //Still waiting on the other copy
+                        if (--pending > 0)
+                            return;
+
+                        cancelled = true;
+                    }
+
+                    result.setException(t);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+    }
+
+    public void printReport()
+    {
+        System.out.println("===SPECULATIVE READS REPORT===");
+        System.out.println(String.format("%d reads, %d hedged (%.2f%%), the hedge answered first %d times, hedging after the p%s of %.2fms",
+                                         reads.getCount(), hedged.getCount(), reads.getCount() == 0 ? 0 : hedged.getCount() * 100.0 / reads.getCount(),
+                                         won.getCount(), percentile, delayNanos / 1e6));
+    }
+}
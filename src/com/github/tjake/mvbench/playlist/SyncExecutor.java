@@ -0,0 +1,93 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.datastax.driver.core.Session;
+
+/**
+ * Runs each operation start to finish as blocking driver calls on a thread of its own: a
+ * virtual thread when the JVM has them (Java 21 on, found by reflection so we still build
+ * and run on older JVMs) and otherwise a platform thread from a pool that grows as needed.
+ *
+ * How many run at once is bounded by the in flight limit, as in every other mode: the issuer
+ * takes a limiter permit before starting an operation and the operation gives it back as it
+ * completes or fails, so waiting for the run to finish is waiting for the limiter to drain.
+ */
+public class SyncExecutor
+{
+    private final Executor threads;
+    private final boolean isVirtual;
+
+    public SyncExecutor()
+    {
+        ThreadFactory virtual = virtualThreadFactory();
+        this.isVirtual = virtual != null;
+        this.threads = isVirtual ? new ThreadPerTask(virtual) : platformThreads();
+    }
+
+    /**
+     * Thread.ofVirtual().name("sync-op-", 0).factory(), or null before Java 21
+     */
+    private static ThreadFactory virtualThreadFactory()
+    {
+        try
+        {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "sync-op-", 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    private static ExecutorService platformThreads()
+    {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("sync-op-%d").setDaemon(true).build());
+    }
+
+    //Virtual threads are cheap enough to start one per operation rather than pool them
+    private static class ThreadPerTask implements Executor
+    {
+        private final ThreadFactory factory;
+
+        ThreadPerTask(ThreadFactory factory)
+        {
+            this.factory = factory;
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            factory.newThread(command).start();
+        }
+    }
+
+    public boolean isVirtual()
+    {
+        return isVirtual;
+    }
+
+    /**
+     * Starts op on a thread of its own
+     */
+    void submit(final AbstractPlaylist op, final Session session)
+    {
+        threads.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                op.executeSync(session);
+            }
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Wraps an executor and records how long each task sat in its queue before running.
+ */
+public class TimedExecutor implements Executor
+{
+    private final Executor delegate;
+    private final Timer waitTimer;
+
+    public TimedExecutor(Executor delegate, Timer waitTimer)
+    {
+        this.delegate = delegate;
+        this.waitTimer = waitTimer;
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        final long queuedTime = System.nanoTime();
+
+        delegate.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                waitTimer.update(System.nanoTime() - queuedTime, TimeUnit.NANOSECONDS);
+                command.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,469 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.SocketChannel;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.NettyOptions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.github.tjake.mvbench.backend.MemoryResultSet;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+/**
+ * Counts the requests, mutations and bytes each kind of operation sends, and the bytes it gets
+ * back, per operation type and per table, so the write amplification of manual views and
+ * materialized views can be compared.
+ *
+ * A request's size is worked out once, by the driver's own encoders without encoding it.  A
+ * response's size is the frame it came back in, which {@link #wireCounter()} reads off the
+ * CASSANDRA backend's connections as the driver hands the frame on, so it is known when the
+ * request's future completes on that same thread.  The MEMORY backend works it out from the
+ * result instead: a write is answered with a VOID result, a read with its metadata and rows.
+ *
+ * Everything is kept as meters, so the reporters show rates next to the timers:
+ *   add-requests, add-mutations, add-request-bytes, add-response-bytes per operation type
+ *   song_to_user-statements, song_to_user-mutations, song_to_user-request-bytes, song_to_user-response-bytes
+ *   per table (song_to_user-read-statements and so on for reads of it)
+ *   wire-bytes-sent, wire-bytes-received
+ * and histograms of add-mutations-per-op, add-request-bytes-per-op, add-response-bytes-per-op,
+ * statement-bytes, batch-bytes and statements-per-batch.  A table's request bytes are the
+ * statements sent to it, in a batch only the statement's own entry, so the batch's framing
+ * isn't counted against any table.
+ */
+public class Traffic
+{
+    //Every frame starts with a 9 byte header
+    private static final int HEADER = 9;
+
+    //A write is answered with a header and a VOID result kind
+    private static final int VOID_RESPONSE = HEADER + 4;
+
+    private static final Pattern tableName = Pattern.compile("\\b(?:FROM|INTO|UPDATE)\\s+(?:\\w+\\.)?(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    //The size of the response frame the driver is handing on from this I/O thread, -1 outside of one
+    private static final ThreadLocal<long[]> responseFrame = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[] { -1 };
+        }
+    };
+
+    /**
+     * What one kind of operation sends and gets back
+     */
+    static class Stream
+    {
+        final String name;
+        final Meter requests;
+        final Meter mutations;
+        final Meter requestBytes;
+        final Meter responseBytes;
+
+        final Histogram mutationsPerOp;
+        final Histogram requestBytesPerOp;
+        final Histogram responseBytesPerOp;
+
+        Stream(String name)
+        {
+            this.name = name;
+            this.requests = AbstractPlaylist.registry.meter(name + "-requests");
+            this.mutations = AbstractPlaylist.registry.meter(name + "-mutations");
+            this.requestBytes = AbstractPlaylist.registry.meter(name + "-request-bytes");
+            this.responseBytes = AbstractPlaylist.registry.meter(name + "-response-bytes");
+
+            this.mutationsPerOp = histogram(name + "-mutations-per-op");
+            this.requestBytesPerOp = histogram(name + "-request-bytes-per-op");
+            this.responseBytesPerOp = histogram(name + "-response-bytes-per-op");
+        }
+    }
+
+    /**
+     * The table a prepared statement writes or reads
+     */
+    static class Target
+    {
+        final String table;
+        final boolean isWrite;
+        final Meter statements;
+        final Meter mutations;
+        final Meter requestBytes;
+        final Meter responseBytes;
+
+        //Reads of a table are kept apart from its writes, as table-read
+        Target(String table, boolean isWrite)
+        {
+            this.table = isWrite ? table : table + "-read";
+            this.isWrite = isWrite;
+            this.statements = AbstractPlaylist.registry.meter(this.table + "-statements");
+            this.mutations = AbstractPlaylist.registry.meter(this.table + "-mutations");
+            this.requestBytes = AbstractPlaylist.registry.meter(this.table + "-request-bytes");
+            this.responseBytes = AbstractPlaylist.registry.meter(this.table + "-response-bytes");
+        }
+    }
+
+    private final Stream[] streams = new Stream[AbstractPlaylist.Type.values().length];
+
+    //The convergence prober's reads, which belong to no operation
+    private final Stream probes = new Stream("probe");
+
+    private final Histogram statementBytes = histogram("statement-bytes");
+    private final Histogram batchBytes = histogram("batch-bytes");
+    private final Histogram statementsPerBatch = histogram("statements-per-batch");
+
+    //Responses that completed away from the frame they came in, e.g. before send() could listen
+    private final Meter unsizedResponses = AbstractPlaylist.registry.meter("unsized-responses");
+
+    private final ConcurrentMap<PreparedStatement, Target> targets = new ConcurrentHashMap<PreparedStatement, Target>();
+    private final ConcurrentMap<String, Target> tables = new ConcurrentHashMap<String, Target>();
+
+    //Set by wireCounter()
+    private Meter wireSent = null;
+    private Meter wireReceived = null;
+
+    public Traffic()
+    {
+        for (AbstractPlaylist.Type type : AbstractPlaylist.Type.values())
+            streams[type.ordinal()] = new Stream(type.name().toLowerCase());
+    }
+
+    private static Histogram histogram(String name)
+    {
+        return AbstractPlaylist.registry.register(name, new Histogram(new HdrHistogramReservoir()));
+    }
+
+    /**
+     * Counts a request and sends it, its response is counted as it arrives
+     *
+     * @param op the operation the request is part of, null for the prober's reads
+     */
+    ResultSetFuture send(Session session, Statement statement, final AbstractPlaylist op)
+    {
+        final Stream stream = op == null ? probes : streams[op.type.ordinal()];
+
+        int bytes = DriverInternals.encodedSize(statement);
+
+        int mutations = 0;
+        final Target target;
+        if (statement instanceof BatchStatement)
+        {
+            Collection<Statement> entries = ((BatchStatement) statement).getStatements();
+            batchBytes.update(bytes);
+            statementsPerBatch.update(entries.size());
+
+            for (Statement entry : entries)
+            {
+                Target entryTarget = target((BoundStatement) entry);
+                entryTarget.statements.mark();
+                entryTarget.mutations.mark();
+                entryTarget.requestBytes.mark(DriverInternals.batchEntrySize(entry));
+                mutations++;
+            }
+
+            //A batch is answered with a VOID result, nothing worth putting against its tables
+            target = null;
+        }
+        else
+        {
+            statementBytes.update(bytes);
+
+            target = target((BoundStatement) statement);
+            target.statements.mark();
+            target.requestBytes.mark(bytes);
+            if (target.isWrite)
+            {
+                target.mutations.mark();
+                mutations++;
+            }
+        }
+
+        stream.requests.mark();
+        stream.requestBytes.mark(bytes);
+        if (mutations > 0)
+            stream.mutations.mark(mutations);
+
+        if (op != null)
+        {
+            AbstractPlaylist.mutationsSentUpdater.addAndGet(op, mutations);
+            AbstractPlaylist.bytesSentUpdater.addAndGet(op, bytes);
+        }
+
+        ResultSetFuture future = session.executeAsync(statement);
+
+        //Added before the operation's own callbacks so the rows are still there to size
+        Futures.addCallback(future, new FutureCallback<ResultSet>()
+        {
+            @Override
+            public void onSuccess(ResultSet result)
+            {
+                long bytes = responseSize(result);
+                if (bytes < 0)
+                {
+                    unsizedResponses.mark();
+                    return;
+                }
+
+                stream.responseBytes.mark(bytes);
+                if (target != null)
+                    target.responseBytes.mark(bytes);
+
+                if (op != null)
+                    AbstractPlaylist.bytesReceivedUpdater.addAndGet(op, bytes);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return future;
+    }
+
+    /**
+     * Records what a successful operation sent and got back in all
+     */
+    void completed(AbstractPlaylist op)
+    {
+        Stream stream = streams[op.type.ordinal()];
+        stream.mutationsPerOp.update(op.mutationsSent);
+        stream.requestBytesPerOp.update(op.bytesSent);
+        stream.responseBytesPerOp.update(op.bytesReceived);
+    }
+
+    private Target target(BoundStatement statement)
+    {
+        PreparedStatement prepared = statement.preparedStatement();
+        Target target = targets.get(prepared);
+        if (target != null)
+            return target;
+
+        String query = prepared.getQueryString();
+        Matcher matcher = tableName.matcher(query);
+        String table = matcher.find() ? matcher.group(1).toLowerCase() : "unknown";
+        boolean isWrite = !query.trim().toUpperCase().startsWith("SELECT");
+
+        //Tables share their meters across every statement against them
+        String key = isWrite ? table : table + "-read";
+        target = tables.get(key);
+        if (target == null)
+        {
+            Target existing = tables.putIfAbsent(key, target = new Target(table, isWrite));
+            if (existing != null)
+                target = existing;
+        }
+
+        targets.put(prepared, target);
+
+        return target;
+    }
+
+    /**
+     * The size of the frame a result came back in
+     *
+     * @return -1 if it didn't complete while the driver handed on its frame
+     */
+    static long responseSize(ResultSet result)
+    {
+        if (result instanceof MemoryResultSet)
+            return memoryResponseSize((MemoryResultSet) result);
+
+        return responseFrame.get()[0];
+    }
+
+    /**
+     * What the in memory backend's result would take in a frame, worked out from what it holds
+     */
+    static long memoryResponseSize(MemoryResultSet result)
+    {
+        ColumnDefinitions columns = result.getColumnDefinitions();
+        if (columns.size() == 0)
+            return VOID_RESPONSE;
+
+        //The result kind, its metadata, the row count and the rows
+        return HEADER + 4 + metadataSize(columns) + 4 + result.cellBytes();
+    }
+
+    //Flags and column count, the keyspace and table once as every column is from the same table, then each column
+    private static int metadataSize(ColumnDefinitions columns)
+    {
+        int size = 4 + 4 + 2 + utf8Length(columns.getKeyspace(0)) + 2 + utf8Length(columns.getTable(0));
+
+        for (int i = 0; i < columns.size(); i++)
+            size += 2 + utf8Length(columns.getName(i)) + typeSize(columns.getType(i));
+
+        return size;
+    }
+
+    private static int typeSize(DataType type)
+    {
+        int size = 2;
+        for (DataType argument : type.getTypeArguments())
+            size += typeSize(argument);
+
+        return size;
+    }
+
+    //The schema's names are all ASCII
+    private static int utf8Length(String value)
+    {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Counts every byte sent and received on the driver's connections, and sizes each response
+     * frame for the request it answers, for the CASSANDRA backend
+     */
+    public NettyOptions wireCounter()
+    {
+        wireSent = AbstractPlaylist.registry.meter("wire-bytes-sent");
+        wireReceived = AbstractPlaylist.registry.meter("wire-bytes-received");
+
+        final ChannelHandler counter = new Counter(wireSent, wireReceived);
+        final ChannelHandler sizer = new FrameSizer();
+
+        return new NettyOptions()
+        {
+            @Override
+            public void afterChannelInitialized(SocketChannel channel) throws Exception
+            {
+                channel.pipeline().addFirst("traffic", counter);
+
+                //Before any decompression, so the frame is as big as it was on the wire
+                channel.pipeline().addAfter("frameDecoder", "traffic-frames", sizer);
+            }
+        };
+    }
+
+    @ChannelHandler.Sharable
+    private static class Counter extends ChannelDuplexHandler
+    {
+        private final Meter sent;
+        private final Meter received;
+
+        Counter(Meter sent, Meter received)
+        {
+            this.sent = sent;
+            this.received = received;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+        {
+            if (msg instanceof ByteBuf)
+                received.mark(((ByteBuf) msg).readableBytes());
+
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+        {
+            if (msg instanceof ByteBuf)
+                sent.mark(((ByteBuf) msg).readableBytes());
+
+            ctx.write(msg, promise);
+        }
+    }
+
+    /**
+     * Publishes each decoded frame's size to the thread while the driver dispatches it.  The
+     * driver completes the request's future from inside that, so send()'s callback sees it
+     */
+    @ChannelHandler.Sharable
+    private static class FrameSizer extends ChannelInboundHandlerAdapter
+    {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+        {
+            long[] size = responseFrame.get();
+            size[0] = DriverInternals.frameSize(msg);
+            try
+            {
+                ctx.fireChannelRead(msg);
+            }
+            finally
+            {
+                size[0] = -1;
+            }
+        }
+    }
+
+    public void printReport()
+    {
+        System.out.println("===TRAFFIC REPORT (per successful operation)===");
+        System.out.println(String.format("%-12s %10s %12s %13s %17s %18s %11s %12s", "operation", "ops", "requests/op", "mutations/op",
+                                         "request bytes/op", "response bytes/op", "request MB", "response MB"));
+
+        long requestBytes = probes.requestBytes.getCount();
+        long responseBytes = probes.responseBytes.getCount();
+        for (Stream stream : streams)
+        {
+            report(stream);
+            requestBytes += stream.requestBytes.getCount();
+            responseBytes += stream.responseBytes.getCount();
+        }
+
+        System.out.println(String.format("%-24s %12s %12s %12s %12s", "table", "statements", "mutations", "request MB", "response MB"));
+        for (Target target : new TreeMap<String, Target>(tables).values())
+        {
+            System.out.println(String.format("%-24s %12d %12d %12.2f %12.2f", target.table, target.statements.getCount(), target.mutations.getCount(),
+                                             target.requestBytes.getCount() / 1e6, target.responseBytes.getCount() / 1e6));
+        }
+
+        if (probes.requests.getCount() > 0)
+            System.out.println(String.format("Convergence probes sent %d requests, %.2fMB, and got %.2fMB back", probes.requests.getCount(),
+                                             probes.requestBytes.getCount() / 1e6, probes.responseBytes.getCount() / 1e6));
+
+        System.out.println(String.format("Requests %.2fMB in %d statements and %d batches of %.1f statements on average, responses %.2fMB",
+                                         requestBytes / 1e6, statementBytes.getCount(), batchBytes.getCount(),
+                                         statementsPerBatch.getSnapshot().getMean(), responseBytes / 1e6));
+
+        if (unsizedResponses.getCount() > 0)
+            System.out.println(String.format("%d responses completed away from their frame and aren't in the response bytes", unsizedResponses.getCount()));
+
+        if (wireSent != null)
+            System.out.println(String.format("On the wire %.2fMB sent and %.2fMB received, including the connections' own traffic",
+                                             wireSent.getCount() / 1e6, wireReceived.getCount() / 1e6));
+    }
+
+    private static void report(Stream stream)
+    {
+        long ops = stream.mutationsPerOp.getCount();
+        if (ops == 0)
+            return;
+
+        //Requests of operations that failed count too, as they were still sent
+        System.out.println(String.format("%-12s %10d %12.2f %13.2f %17.1f %18.1f %11.2f %12.2f", stream.name, ops,
+                                         (double) stream.requests.getCount() / ops, stream.mutationsPerOp.getSnapshot().getMean(),
+                                         stream.requestBytesPerOp.getSnapshot().getMean(), stream.responseBytesPerOp.getSnapshot().getMean(),
+                                         stream.requestBytes.getCount() / 1e6, stream.responseBytes.getCount() / 1e6));
+    }
+}
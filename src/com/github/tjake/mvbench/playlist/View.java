@@ -0,0 +1,44 @@
+package com.github.tjake.mvbench.playlist;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+/**
+ * The tables maintained from user_playlists, either manually or as materialized views.
+ */
+public enum View
+{
+    SONG_TO_USER("song_to_user", "song_id"),
+    ARTIST_TO_USER("artist_to_user", "artist_name"),
+    GENRE_TO_USER("genre_to_user", "genre"),
+    RECENTLY_PLAYED("recently_played", "last_played");
+
+    public final String table;
+
+    //The partition key in the manual schema
+    public final String partitionKey;
+
+    //Reads of the view by its partition key
+    public final Timer timer;
+    public final Timer correctedTimer;
+    public final Histogram rows;
+
+    //How long writes took to show up in the view, and how many never did (ConvergenceProber)
+    public final Timer lag;
+    public final Counter unconverged;
+
+    View(String table, String partitionKey)
+    {
+        this.table = table;
+        this.partitionKey = partitionKey;
+
+        this.timer = AbstractPlaylist.timer("query-" + table);
+        this.correctedTimer = AbstractPlaylist.timer("query-" + table + "-corrected");
+        this.rows = AbstractPlaylist.registry.register("query-" + table + "-rows", new Histogram(new HdrHistogramReservoir()));
+
+        this.lag = AbstractPlaylist.timer("lag-" + table);
+        this.unconverged = AbstractPlaylist.registry.counter("lag-" + table + "-unconverged");
+    }
+}
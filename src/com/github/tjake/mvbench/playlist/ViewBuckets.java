@@ -0,0 +1,92 @@
+package com.github.tjake.mvbench.playlist;
+
+/**
+ * Spreads each manually maintained view partition over a number of smaller ones.
+ *
+ * song_to_user, artist_to_user and genre_to_user add a hash bucket to their partition key,
+ * picked from the user and playlist so every row of a playlist lands in the same bucket and
+ * deletes can find it again.  recently_played is partitioned by a window of time and the
+ * hash bucket rather than a single timestamp.  Reads fan out over every bucket.
+ */
+public class ViewBuckets
+{
+    public static final String KEYSPACE = "manual_bucketed";
+
+    public final int count;
+    public final long timeBucketMillis;
+
+    public ViewBuckets(int count, long timeBucketMillis)
+    {
+        assert count > 0 && timeBucketMillis > 0;
+
+        this.count = count;
+        this.timeBucketMillis = timeBucketMillis;
+    }
+
+    public int bucket(String userName, String playlistName)
+    {
+        return ((userName.hashCode() * 31 + playlistName.hashCode()) & Integer.MAX_VALUE) % count;
+    }
+
+    /**
+     * The start of the window a timestamp falls in
+     */
+    public long timeBucket(long timestamp)
+    {
+        return timestamp - timestamp % timeBucketMillis;
+    }
+
+    /**
+     * The CQL for the bucketed manual schema, the bucket count and window are chosen at
+     * run time so the same schema serves any of them
+     */
+    public static String schema(String keyspace)
+    {
+        StringBuilder cql = new StringBuilder();
+
+        cql.append("CREATE KEYSPACE IF NOT EXISTS ").append(keyspace)
+           .append(" WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1};\n\n");
+
+        createTable(cql, keyspace, "user_playlists",
+                    new String[][] { { "user_name", "text" }, { "playlist_name", "text" }, { "song_id", "text" }, { "added_time", "bigint" },
+                                     { "artist_name", "text" }, { "genre", "text" }, { "last_played", "bigint" } },
+                    "user_name, playlist_name, song_id");
+
+        for (View view : View.values())
+        {
+            switch (view)
+            {
+                case SONG_TO_USER:
+                    createTable(cql, keyspace, view.table,
+                                new String[][] { { "song_id", "text" }, { "bucket", "int" }, { "user_name", "text" }, { "playlist_name", "text" }, { "added_time", "bigint" } },
+                                "(song_id, bucket), user_name, playlist_name");
+                    break;
+                case ARTIST_TO_USER:
+                case GENRE_TO_USER:
+                    createTable(cql, keyspace, view.table,
+                                new String[][] { { view.partitionKey, "text" }, { "bucket", "int" }, { "user_name", "text" }, { "playlist_name", "text" }, { "song_id", "text" } },
+                                "(" + view.partitionKey + ", bucket), user_name, playlist_name, song_id");
+                    break;
+                case RECENTLY_PLAYED:
+                    createTable(cql, keyspace, view.table,
+                                new String[][] { { "time_bucket", "bigint" }, { "bucket", "int" }, { "last_played", "bigint" }, { "user_name", "text" }, { "playlist_name", "text" }, { "song_id", "text" } },
+                                "(time_bucket, bucket), last_played, user_name, playlist_name, song_id");
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        return cql.toString();
+    }
+
+    private static void createTable(StringBuilder cql, String keyspace, String table, String[][] columns, String primaryKey)
+    {
+        cql.append("CREATE TABLE IF NOT EXISTS ").append(keyspace).append('.').append(table).append("\n(\n");
+
+        for (String[] column : columns)
+            cql.append(String.format("    %-20s%s,\n", column[0], column[1]));
+
+        cql.append("    PRIMARY KEY (").append(primaryKey).append(")\n);\n\n");
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.tjake.mvbench.playlist;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+
+/**
+ * A playlist that can read the views of the built in schema, the READ_* operations.
+ *
+ * Workload files only define writes, so WorkloadPlaylist doesn't implement this and
+ * --percent-read-* is refused with --workload.
+ */
+interface ViewReader
+{
+    /**
+     * The read statements for this keyspace, indexed by view and prepared on first use
+     */
+    PreparedStatement[] readStatements();
+
+    void bindRecentlyPlayed(BoundStatement statement);
+}
@@ -0,0 +1,386 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A playlist workload read from a file: the base table, its views and the mix of writes.
+ *
+ * The same definition generates the schema and statements for both modes, the views as
+ * tables kept up to date by the client or as materialized views, so the number of views
+ * can be swept without touching the code.  The file is a properties file:
+ *
+ *   keyspace = playlists
+ *   base.table = user_playlists
+ *   base.columns = user_name:text:user, playlist_name:text:playlist, song_id:text:song, added_time:bigint:added, last_played:bigint:played
+ *   base.key = user_name, playlist_name, song_id
+ *   views = song_to_user, recently_played
+ *   view.song_to_user.key = song_id, user_name, playlist_name
+ *   view.song_to_user.columns = added_time
+ *   view.recently_played.key = user_name, last_played, playlist_name, song_id
+ *   mix.update = 0.1
+ *   mix.delete = 0.05
+ *
+ * Columns are name:type:source, where the source is what a write puts in them: user,
+ * playlist, song, artist or genre (text), added, when the playlist was added, or played,
+ * when an update last played the song (bigint).  Keys are listed partition key first,
+ * with a compound partition key in parentheses.  The base key must be the user, playlist
+ * and song columns with the user and playlist first, so a playlist can be read and deleted
+ * as a whole.  Views follow the materialized view rules, their key holds the whole base
+ * key and at most one other column.
+ */
+public class Workload
+{
+    public enum Source
+    {
+        USER("text"), PLAYLIST("text"), SONG("text"), ARTIST("text"), GENRE("text"), ADDED("bigint"), PLAYED("bigint");
+
+        final String type;
+
+        Source(String type)
+        {
+            this.type = type;
+        }
+    }
+
+    public static class Column
+    {
+        public final String name;
+        public final Source source;
+
+        Column(String name, Source source)
+        {
+            this.name = name;
+            this.source = source;
+        }
+    }
+
+    /**
+     * A table's columns, primary key first, and how many of those are the partition key
+     */
+    public static class Table
+    {
+        public final String name;
+        public final List<Column> columns;
+        public final int partitionKeySize;
+        public final int primaryKeySize;
+
+        Table(String name, List<Column> columns, int partitionKeySize, int primaryKeySize)
+        {
+            this.name = name;
+            this.columns = columns;
+            this.partitionKeySize = partitionKeySize;
+            this.primaryKeySize = primaryKeySize;
+        }
+
+        public List<Column> primaryKey()
+        {
+            return columns.subList(0, primaryKeySize);
+        }
+
+        public boolean has(Source source)
+        {
+            return indexOf(source) >= 0;
+        }
+
+        public boolean keyHas(Source source)
+        {
+            int index = indexOf(source);
+            return index >= 0 && index < primaryKeySize;
+        }
+
+        public int indexOf(Source source)
+        {
+            for (int i = 0; i < columns.size(); i++)
+            {
+                if (columns.get(i).source == source)
+                    return i;
+            }
+
+            return -1;
+        }
+
+        String keyDefinition()
+        {
+            StringBuilder key = new StringBuilder();
+            if (partitionKeySize > 1)
+                key.append('(').append(names(columns.subList(0, partitionKeySize), ", ")).append(')');
+            else
+                key.append(columns.get(0).name);
+
+            for (Column column : columns.subList(partitionKeySize, primaryKeySize))
+                key.append(", ").append(column.name);
+
+            return key.toString();
+        }
+    }
+
+    public final String name;
+    public final Table base;
+    public final List<Table> views;
+
+    //The write mix, negative to leave it to the command line
+    public final double percentUpdate;
+    public final double percentDelete;
+
+    private Workload(String name, Table base, List<Table> views, double percentUpdate, double percentDelete)
+    {
+        this.name = name;
+        this.base = base;
+        this.views = views;
+        this.percentUpdate = percentUpdate;
+        this.percentDelete = percentDelete;
+    }
+
+    public static Workload load(File file) throws IOException
+    {
+        Properties properties = new Properties();
+        Reader reader = new FileReader(file);
+        try
+        {
+            properties.load(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return parse(properties);
+    }
+
+    public static Workload parse(Properties properties)
+    {
+        String name = required(properties, "keyspace");
+
+        Map<String, Source> sources = new LinkedHashMap<String, Source>();
+        for (String definition : list(required(properties, "base.columns")))
+        {
+            String[] parts = definition.split(":");
+            if (parts.length != 3)
+                throw new IllegalArgumentException("Columns are name:type:source, not " + definition);
+
+            Source source = Source.valueOf(parts[2].trim().toUpperCase());
+            if (!source.type.equals(parts[1].trim().toLowerCase()))
+                throw new IllegalArgumentException("Column " + parts[0] + " holds " + source.name().toLowerCase() + " so must be " + source.type);
+
+            if (sources.containsValue(source))
+                throw new IllegalArgumentException("More than one column holds " + source.name().toLowerCase());
+
+            sources.put(parts[0].trim().toLowerCase(), source);
+        }
+
+        String baseName = required(properties, "base.table");
+        Table base = table(baseName, required(properties, "base.key"), new ArrayList<String>(sources.keySet()), sources);
+
+        if (base.primaryKeySize != 3 || !base.keyHas(Source.SONG)
+            || !(base.indexOf(Source.USER) < 2 && base.indexOf(Source.PLAYLIST) < 2 && base.keyHas(Source.USER) && base.keyHas(Source.PLAYLIST)))
+            throw new IllegalArgumentException("The key of " + baseName + " must be its user, playlist and song columns, user and playlist first");
+
+        List<Table> views = new ArrayList<Table>();
+        String viewNames = properties.getProperty("views", "").trim();
+        for (String view : viewNames.isEmpty() ? new ArrayList<String>() : list(viewNames))
+        {
+            Table table = table(view, required(properties, "view." + view + ".key"), list(properties.getProperty("view." + view + ".columns", "")), sources);
+
+            int others = 0;
+            for (Column column : base.primaryKey())
+            {
+                if (!table.keyHas(column.source))
+                    throw new IllegalArgumentException("The key of view " + view + " must include every column of the key of " + baseName + ", it is missing " + column.name);
+            }
+
+            for (Column column : table.primaryKey())
+            {
+                if (!base.keyHas(column.source))
+                    others++;
+            }
+
+            if (others > 1)
+                throw new IllegalArgumentException("The key of view " + view + " can only have one column that isn't in the key of " + baseName);
+
+            views.add(table);
+        }
+
+        return new Workload(name, base, views, mix(properties, "mix.update"), mix(properties, "mix.delete"));
+    }
+
+    private static Table table(String name, String key, List<String> extra, Map<String, Source> sources)
+    {
+        //The partition key is the first entry, in parentheses when it is compound
+        String definition = key.trim();
+        List<String> partitionKey;
+        List<String> clustering;
+        if (definition.startsWith("("))
+        {
+            int close = definition.indexOf(')');
+            partitionKey = list(definition.substring(1, close));
+            String rest = definition.substring(close + 1).trim();
+            clustering = rest.isEmpty() ? new ArrayList<String>() : list(rest.substring(rest.indexOf(',') + 1));
+        }
+        else
+        {
+            List<String> all = list(definition);
+            partitionKey = all.subList(0, 1);
+            clustering = all.subList(1, all.size());
+        }
+
+        List<String> names = new ArrayList<String>(partitionKey);
+        names.addAll(clustering);
+        int primaryKeySize = names.size();
+
+        for (String column : extra)
+        {
+            if (!names.contains(column))
+                names.add(column);
+        }
+
+        List<Column> columns = new ArrayList<Column>(names.size());
+        for (String column : names)
+        {
+            Source source = sources.get(column);
+            if (source == null)
+                throw new IllegalArgumentException("Unknown column " + column + " in " + name);
+
+            columns.add(new Column(column, source));
+        }
+
+        return new Table(name.trim().toLowerCase(), columns, partitionKey.size(), primaryKeySize);
+    }
+
+    private static String required(Properties properties, String key)
+    {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            throw new IllegalArgumentException("The workload has no " + key);
+
+        return value.trim();
+    }
+
+    private static List<String> list(String value)
+    {
+        List<String> list = new ArrayList<String>();
+        for (String entry : value.split(","))
+        {
+            if (!entry.trim().isEmpty())
+                list.add(entry.trim().toLowerCase());
+        }
+
+        return list;
+    }
+
+    private static double mix(Properties properties, String key)
+    {
+        String value = properties.getProperty(key);
+        return value == null ? -1 : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * The same workload with only its first count views
+     */
+    public Workload withViews(int count)
+    {
+        if (count < 0 || count > views.size())
+            throw new IllegalArgumentException("The workload defines " + views.size() + " views, not " + count);
+
+        return new Workload(name, base, views.subList(0, count), percentUpdate, percentDelete);
+    }
+
+    /**
+     * Each mode and view count gets its own keyspace, so a sweep never finds views left from another run
+     */
+    public String keyspace(boolean isManual)
+    {
+        return name + (isManual ? "_manual_" : "_mview_") + views.size();
+    }
+
+    public String schema(boolean isManual)
+    {
+        String keyspace = keyspace(isManual);
+        StringBuilder cql = new StringBuilder();
+
+        cql.append("CREATE KEYSPACE IF NOT EXISTS ").append(keyspace)
+           .append(" WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1};\n\n");
+
+        createTable(cql, keyspace, base);
+
+        for (Table view : views)
+        {
+            if (isManual)
+            {
+                createTable(cql, keyspace, view);
+                continue;
+            }
+
+            cql.append("CREATE MATERIALIZED VIEW IF NOT EXISTS ").append(keyspace).append('.').append(view.name).append(" AS\n")
+               .append("      SELECT ").append(names(view.columns, ", ")).append('\n')
+               .append("      FROM ").append(keyspace).append('.').append(base.name).append('\n')
+               .append("      WHERE ").append(names(view.primaryKey(), " IS NOT NULL\n      AND ")).append(" IS NOT NULL\n")
+               .append("      PRIMARY KEY (").append(view.keyDefinition()).append(");\n\n");
+        }
+
+        return cql.toString();
+    }
+
+    private static void createTable(StringBuilder cql, String keyspace, Table table)
+    {
+        cql.append("CREATE TABLE IF NOT EXISTS ").append(keyspace).append('.').append(table.name).append("\n(\n");
+
+        for (Column column : table.columns)
+            cql.append(String.format("    %-20s%s,\n", column.name, column.source.type));
+
+        cql.append("    PRIMARY KEY (").append(table.keyDefinition()).append(")\n);\n\n");
+    }
+
+    //The statements the writes are built from
+
+    String insert(Table table, List<Column> columns)
+    {
+        StringBuilder markers = new StringBuilder("?");
+        for (int i = 1; i < columns.size(); i++)
+            markers.append(",?");
+
+        return "INSERT INTO " + table.name + "(" + names(columns, ", ") + ")VALUES(" + markers + ")";
+    }
+
+    String update(Column column)
+    {
+        return "UPDATE " + base.name + " SET " + column.name + " = ? WHERE " + names(base.primaryKey(), " = ? AND ") + " = ?";
+    }
+
+    String delete(Table table, List<Column> key)
+    {
+        return "DELETE FROM " + table.name + " WHERE " + names(key, " = ? AND ") + " = ?";
+    }
+
+    String select(List<Column> key)
+    {
+        return "SELECT * FROM " + base.name + " WHERE " + names(key, " = ? AND ") + " = ?";
+    }
+
+    private static String names(List<Column> columns, String separator)
+    {
+        StringBuilder names = new StringBuilder();
+        for (Column column : columns)
+        {
+            if (names.length() > 0)
+                names.append(separator);
+
+            names.append(column.name);
+        }
+
+        return names.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " with " + views.size() + " view(s)";
+    }
+}
@@ -0,0 +1,411 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.datastax.driver.core.*;
+
+/**
+ * Playlist writes against the tables of a Workload, rather than the fixed schema.
+ *
+ * With materialized views only the base table is written.  In manual mode every view row
+ * a write changes is written along with it, using the same write strategy as ManualPlaylist:
+ * adds insert each view row, updates read the row first when a view holds the played time
+ * (to move the view rows keyed by it), and deletes read the playlist to find its view rows.
+ * Like a materialized view, a view row is only written once its whole key is known, and an
+ * update that reads no row writes the view rows of the one it creates (updates that don't
+ * read can't tell, so leave those out).
+ *
+ * Workload files only define writes, so unlike the built in schema's playlists these
+ * aren't a {@link ViewReader}.
+ */
+public class WorkloadPlaylist extends AbstractPlaylist
+{
+    //Set when running a workload file, playlists are then created as this class
+    public static volatile Workload workload = null;
+
+    private static volatile Statements statements = null;
+
+    private final boolean isManual;
+
+    protected WorkloadPlaylist(SongCatalog catalog, boolean isManual, long userId, long playlistId, int[] songs, Type type)
+    {
+        super(catalog, userId, playlistId, songs, type);
+        this.isManual = isManual;
+    }
+
+    /**
+     * The workload's statements, prepared on first use
+     */
+    private static class Statements
+    {
+        final Workload workload;
+
+        //Adds set everything but the played time
+        final List<Workload.Column> addColumns;
+        final PreparedStatement add;
+        final PreparedStatement update;
+        //The played time, then the base key, as update binds them
+        final List<Workload.Column> updateColumns = new ArrayList<Workload.Column>();
+        final PreparedStatement delete;
+        final PreparedStatement selectPlaylist;
+        final PreparedStatement selectRow;
+
+        //Indexed like workload.views, only prepared in manual mode
+        final List<List<Workload.Column>> viewAddColumns = new ArrayList<List<Workload.Column>>();
+        final List<PreparedStatement> viewAdds = new ArrayList<PreparedStatement>();
+        final List<PreparedStatement> viewInserts = new ArrayList<PreparedStatement>();
+        final List<PreparedStatement> viewDeletes = new ArrayList<PreparedStatement>();
+
+        //Whether manual updates have to read the row to keep the views right
+        final boolean updateReads;
+
+        Statements(Session session, Workload workload, boolean isManual)
+        {
+            this.workload = workload;
+
+            Workload.Table base = workload.base;
+            List<Workload.Column> playlistKey = base.primaryKey().subList(0, 2);
+            int played = base.indexOf(Workload.Source.PLAYED);
+
+            addColumns = withoutPlayed(base.columns);
+            add = session.prepare(workload.insert(base, addColumns));
+            if (played >= 0)
+            {
+                update = session.prepare(workload.update(base.columns.get(played)));
+                updateColumns.add(base.columns.get(played));
+                updateColumns.addAll(base.primaryKey());
+            }
+            else
+            {
+                update = null;
+            }
+
+            delete = session.prepare(workload.delete(base, playlistKey));
+            selectPlaylist = session.prepare(workload.select(playlistKey));
+            selectRow = session.prepare(workload.select(base.primaryKey()));
+
+            boolean updateReads = false;
+            if (isManual)
+            {
+                for (Workload.Table view : workload.views)
+                {
+                    //Adds never write the views keyed by the played time, they have no row until an update
+                    viewAddColumns.add(withoutPlayed(view.columns));
+                    viewAdds.add(view.keyHas(Workload.Source.PLAYED) ? null : session.prepare(workload.insert(view, withoutPlayed(view.columns))));
+                    viewInserts.add(session.prepare(workload.insert(view, view.columns)));
+                    viewDeletes.add(session.prepare(workload.delete(view, view.primaryKey())));
+
+                    updateReads |= view.has(Workload.Source.PLAYED);
+                }
+            }
+
+            this.updateReads = updateReads;
+        }
+
+        private static List<Workload.Column> withoutPlayed(List<Workload.Column> columns)
+        {
+            List<Workload.Column> without = new ArrayList<Workload.Column>(columns.size());
+            for (Workload.Column column : columns)
+            {
+                if (column.source != Workload.Source.PLAYED)
+                    without.add(column);
+            }
+
+            return without;
+        }
+    }
+
+    private Statements statements(Session session)
+    {
+        Statements prepared = statements;
+        if (prepared == null || prepared.workload != workload)
+        {
+            prepared = new Statements(session, workload, isManual);
+            statements = prepared;
+        }
+
+        return prepared;
+    }
+
+    /**
+     * The base row for a song of this playlist, indexed like the base columns
+     */
+    private ByteBuffer[] row(int song, ByteBuffer added, ByteBuffer played)
+    {
+        List<Workload.Column> columns = workload.base.columns;
+        ByteBuffer[] values = new ByteBuffer[columns.size()];
+
+        for (int i = 0; i < values.length; i++)
+        {
+            switch (columns.get(i).source)
+            {
+                case USER:
+                    values[i] = userKey;
+                    break;
+                case PLAYLIST:
+                    values[i] = playlistKey;
+                    break;
+                case SONG:
+                    values[i] = catalog.songKey(song);
+                    break;
+                case ARTIST:
+                    values[i] = catalog.artistKey(song);
+                    break;
+                case GENRE:
+                    values[i] = catalog.genreKey(song);
+                    break;
+                case ADDED:
+                    values[i] = added;
+                    break;
+                case PLAYED:
+                    values[i] = played;
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        return values;
+    }
+
+    //Only the base key of a song of this playlist, what an update leaves when there was no row
+    private ByteBuffer[] keyRow(int song)
+    {
+        ByteBuffer[] values = row(song, null, null);
+        for (int i = workload.base.primaryKeySize; i < values.length; i++)
+            values[i] = null;
+
+        return values;
+    }
+
+    //A base row as read back, passing the values through as they came off the wire
+    private static ByteBuffer[] row(Row row)
+    {
+        List<Workload.Column> columns = workload.base.columns;
+        ByteBuffer[] values = new ByteBuffer[columns.size()];
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = row.getBytesUnsafe(columns.get(i).name);
+
+        return values;
+    }
+
+    /**
+     * Binds columns of a table from the base row values
+     */
+    private static BoundStatement bind(PreparedStatement statement, List<Workload.Column> columns, ByteBuffer[] values)
+    {
+        BoundStatement bound = statement.bind();
+        for (int i = 0; i < columns.size(); i++)
+            bound.setBytesUnsafe(i, values[workload.base.indexOf(columns.get(i).source)]);
+
+        return bound;
+    }
+
+    //Whether a base row has the whole key of a view, so the view holds a row for it
+    private static boolean inView(Workload.Table view, ByteBuffer[] values)
+    {
+        for (Workload.Column column : view.primaryKey())
+        {
+            if (values[workload.base.indexOf(column.source)] == null)
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    ListenableFuture<?> add(Session session)
+    {
+        Statements prepared = statements(session);
+
+        long buildStart = System.nanoTime();
+
+        ByteBuffer now = SongCatalog.encode(System.currentTimeMillis());
+        List<Statement> writes = new ArrayList<Statement>(songs.length * (1 + prepared.viewAdds.size()));
+
+        for (int song : songs)
+        {
+            ByteBuffer[] values = row(song, now, null);
+            writes.add(bind(prepared.add, prepared.addColumns, values));
+
+            for (int i = 0; i < prepared.viewAdds.size(); i++)
+            {
+                if (inView(workload.views.get(i), values))
+                    writes.add(bind(prepared.viewAdds.get(i), prepared.viewAddColumns.get(i), values));
+            }
+        }
+
+        final long startTime = start();
+        phase(Phase.BUILD, startTime - buildStart);
+
+        ListenableFuture<?> future = send(session, writes);
+
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime));
+
+        return future;
+    }
+
+    @Override
+    ListenableFuture<?> update(final Session session)
+    {
+        final Statements prepared = statements(session);
+        if (prepared.update == null)
+            throw new IllegalStateException("Updates set the played time, which " + workload.base.name + " doesn't have");
+
+        final long startTime = start();
+
+        final int song = songs[1];
+
+        if (!isManual || !prepared.updateReads)
+            return writeUpdate(session, prepared, song, row(song, null, null), false, startTime);
+
+        //We need the row as it was to move the view rows keyed by the played time
+        BoundStatement select = bind(prepared.selectRow, workload.base.primaryKey(), row(song, null, null));
+        select.setConsistencyLevel(ConsistencyLevel.QUORUM);
+
+        ListenableFuture<ResultSet> selectFuture = sendRead(session, select);
+        timeRequest(selectFuture, Phase.READ);
+
+        Futures.addCallback(selectFuture, new StageCallback(startTime)
+        {
+            @Override
+            protected void next(ResultSet result)
+            {
+                Row row = result.one();
+
+                writeUpdate(session, prepared, song, row == null ? keyRow(song) : row(row), row == null, startTime);
+            }
+        }, executor);
+
+        return null;
+    }
+
+    /**
+     * @param previous the base row before the update, as much of it as we know
+     * @param isNew the read found no row, so the update creates one and every view it has the key of gets a row too
+     */
+    private ListenableFuture<?> writeUpdate(Session session, Statements prepared, int song, ByteBuffer[] previous, boolean isNew, long startTime)
+    {
+        long buildStart = System.nanoTime();
+
+        lastPlayed = System.currentTimeMillis();
+
+        int played = workload.base.indexOf(Workload.Source.PLAYED);
+        ByteBuffer[] values = previous.clone();
+        values[played] = SongCatalog.encode(lastPlayed);
+
+        List<Statement> writes = new ArrayList<Statement>();
+        writes.add(bind(prepared.update, prepared.updateColumns, values));
+
+        for (int i = 0; i < prepared.viewInserts.size(); i++)
+        {
+            Workload.Table view = workload.views.get(i);
+            if (!isNew && !view.has(Workload.Source.PLAYED))
+                continue;
+
+            //A new played time moves the row to a new key
+            if (view.keyHas(Workload.Source.PLAYED) && inView(view, previous))
+                writes.add(bind(prepared.viewDeletes.get(i), view.primaryKey(), previous));
+
+            if (inView(view, values))
+                writes.add(bind(prepared.viewInserts.get(i), view.columns, values));
+        }
+
+        phase(Phase.BUILD, System.nanoTime() - buildStart);
+
+        ListenableFuture<?> future = send(session, writes);
+
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime));
+
+        return future;
+    }
+
+    @Override
+    ListenableFuture<?> delete(final Session session)
+    {
+        final Statements prepared = statements(session);
+
+        final long startTime = start();
+
+        final List<Workload.Column> playlist = workload.base.primaryKey().subList(0, 2);
+
+        if (!isManual || prepared.viewDeletes.isEmpty())
+        {
+            long buildStart = System.nanoTime();
+            List<Statement> writes = new ArrayList<Statement>(1);
+            writes.add(bind(prepared.delete, playlist, row(songs[0], null, null)));
+
+            return writeDelete(session, writes, startTime, buildStart);
+        }
+
+        //Find the view rows of every song in the playlist
+        BoundStatement select = bind(prepared.selectPlaylist, playlist, row(songs[0], null, null));
+        select.setConsistencyLevel(ConsistencyLevel.QUORUM);
+
+        ListenableFuture<ResultSet> playlistFuture = sendRead(session, select);
+        timeRequest(playlistFuture, Phase.READ);
+
+        Futures.addCallback(playlistFuture, new StageCallback(startTime)
+        {
+            @Override
+            protected void next(ResultSet result)
+            {
+                long buildStart = System.nanoTime();
+                List<Statement> writes = new ArrayList<Statement>();
+
+                for (Row row : result.all())
+                {
+                    ByteBuffer[] values = row(row);
+                    for (int i = 0; i < prepared.viewDeletes.size(); i++)
+                    {
+                        Workload.Table view = workload.views.get(i);
+                        if (inView(view, values))
+                            writes.add(bind(prepared.viewDeletes.get(i), view.primaryKey(), values));
+                    }
+                }
+
+                writes.add(bind(prepared.delete, playlist, row(songs[0], null, null)));
+
+                writeDelete(session, writes, startTime, buildStart);
+            }
+        }, executor);
+
+        return null;
+    }
+
+    private ListenableFuture<?> writeDelete(Session session, List<Statement> writes, long startTime, long buildStart)
+    {
+        phase(Phase.BUILD, System.nanoTime() - buildStart);
+
+        ListenableFuture<?> future = send(session, writes);
+
+        onCompletion(future, Phase.WRITE, new CompletionCallback(startTime));
+
+        return future;
+    }
+
+    /**
+     * Manual writes go out with the manual write strategy, base table writes like
+     * MaterializedViewPlaylist sends them
+     */
+    private ListenableFuture<?> send(Session session, List<Statement> writes)
+    {
+        if (isManual)
+            return ManualPlaylist.writeStrategy.execute(this, session, writes);
+
+        if (writes.size() == 1)
+            return send(session, writes.get(0).setConsistencyLevel(ConsistencyLevel.QUORUM));
+
+        BatchStatement batch = new BatchStatement(MaterializedViewPlaylist.batchType);
+        batch.setConsistencyLevel(ConsistencyLevel.QUORUM);
+        batch.addAll(writes);
+
+        return send(session, batch);
+    }
+}
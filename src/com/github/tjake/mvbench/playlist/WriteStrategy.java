@@ -0,0 +1,143 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+
+/**
+ * How the manual view maintenance sends the statements that make up one write.
+ */
+public enum WriteStrategy
+{
+    /**
+     * Everything in one logged batch, atomic across the base table and the views
+     */
+    LOGGED
+    {
+        @Override
+        ListenableFuture<?> send(AbstractPlaylist op, Session session, List<Statement> statements)
+        {
+            BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+            batch.setConsistencyLevel(ConsistencyLevel.QUORUM);
+            batch.addAll(statements);
+
+            return op.send(session, batch);
+        }
+    },
+
+    /**
+     * One unlogged batch per partition, sent in parallel.  Each batch routes to the
+     * replicas owning its partition when the load balancing policy is token aware
+     */
+    UNLOGGED
+    {
+        @Override
+        ListenableFuture<?> send(AbstractPlaylist op, Session session, List<Statement> statements)
+        {
+            Map<ByteBuffer, List<Statement>> partitions = new LinkedHashMap<ByteBuffer, List<Statement>>();
+            List<ListenableFuture<ResultSet>> futures = new ArrayList<ListenableFuture<ResultSet>>();
+
+            for (Statement statement : statements)
+            {
+                ByteBuffer routingKey = statement.getRoutingKey();
+
+                //Nothing to group on, so it goes on its own
+                if (routingKey == null)
+                {
+                    futures.add(op.send(session, statement.setConsistencyLevel(ConsistencyLevel.QUORUM)));
+                    continue;
+                }
+
+                List<Statement> partition = partitions.get(routingKey);
+                if (partition == null)
+                {
+                    partition = new ArrayList<Statement>();
+                    partitions.put(routingKey, partition);
+                }
+
+                partition.add(statement);
+            }
+
+            for (List<Statement> partition : partitions.values())
+            {
+                Statement statement;
+                if (partition.size() == 1)
+                {
+                    statement = partition.get(0);
+                }
+                else
+                {
+                    statement = new BatchStatement(BatchStatement.Type.UNLOGGED).addAll(partition);
+                }
+
+                futures.add(op.send(session, statement.setConsistencyLevel(ConsistencyLevel.QUORUM)));
+            }
+
+            return Futures.allAsList(futures);
+        }
+    },
+
+    /**
+     * Every statement on its own, sent in parallel
+     */
+    ASYNC
+    {
+        @Override
+        ListenableFuture<?> send(AbstractPlaylist op, Session session, List<Statement> statements)
+        {
+            List<ListenableFuture<ResultSet>> futures = new ArrayList<ListenableFuture<ResultSet>>(statements.size());
+
+            for (Statement statement : statements)
+                futures.add(op.send(session, statement.setConsistencyLevel(ConsistencyLevel.QUORUM)));
+
+            return Futures.allAsList(futures);
+        }
+    };
+
+    public final Timer timer = AbstractPlaylist.timer("write-" + name().toLowerCase());
+    public final Timer errorTimer = AbstractPlaylist.timer("write-" + name().toLowerCase() + "-error");
+
+    abstract ListenableFuture<?> send(AbstractPlaylist op, Session session, List<Statement> statements);
+
+    /**
+     * Sends the statements for op, the returned future completes once all of them have
+     */
+    public ListenableFuture<?> execute(AbstractPlaylist op, Session session, List<Statement> statements)
+    {
+        final long startTime = System.nanoTime();
+
+        ListenableFuture<?> future = send(op, session, statements);
+
+        Futures.addCallback(future, new FutureCallback<Object>()
+        {
+            @Override
+            public void onSuccess(Object result)
+            {
+                timer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                errorTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return future;
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.tjake.mvbench;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompareTest
+{
+    @Test
+    public void testConfidenceInterval()
+    {
+        double[] deltas = new double[] { 1, 2, 3, 4, 5 };
+        double mean = Compare.mean(deltas);
+
+        assertEquals(3.0, mean, 1e-9);
+        assertEquals(Math.sqrt(2.5), Compare.stddev(deltas, mean), 1e-9);
+
+        //t with 4 degrees of freedom times the standard error
+        assertEquals(2.776 * Math.sqrt(2.5) / Math.sqrt(5), Compare.halfWidth(deltas, mean), 1e-9);
+    }
+
+    @Test
+    public void testConfidenceIntervalEdges()
+    {
+        assertTrue(Double.isNaN(Compare.halfWidth(new double[] { 7 }, 7)));
+        assertEquals(0.0, Compare.halfWidth(new double[] { -2, -2, -2 }, -2), 0.0);
+
+        //Paired differences either side of zero give an interval around zero
+        double[] deltas = new double[] { -1, 1 };
+        assertEquals(12.706 * Math.sqrt(2) / Math.sqrt(2), Compare.halfWidth(deltas, Compare.mean(deltas)), 1e-9);
+    }
+
+    @Test
+    public void testStudentT()
+    {
+        assertEquals(12.706, Compare.t(1), 0.0);
+        assertEquals(2.262, Compare.t(9), 0.0);
+        assertEquals(2.042, Compare.t(30), 0.0);
+        assertEquals(1.96, Compare.t(31), 0.0);
+        assertEquals(1.96, Compare.t(1000), 0.0);
+    }
+}
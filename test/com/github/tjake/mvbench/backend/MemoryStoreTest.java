@@ -0,0 +1,272 @@
+package com.github.tjake.mvbench.backend;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the statements the playlists prepare against bench_schema.cql
+ */
+public class MemoryStoreTest
+{
+    private MemoryStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        store = new MemoryStore(LatencyDistribution.NONE, ErrorDistribution.NONE, 1);
+        store.load(new File("bench_schema.cql"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        store.close();
+    }
+
+    @Test
+    public void testLoadsBenchSchema()
+    {
+        assertEquals(5, store.tables("manual").size());
+        assertEquals(5, store.tables("manual_bucketed").size());
+        assertEquals(5, store.tables("mview").size());
+
+        MemoryTable bucketed = store.table("manual_bucketed", "song_to_user");
+        assertEquals(2, bucketed.partitionKeySize);
+        assertEquals(4, bucketed.primaryKeySize);
+        assertEquals("bucket", bucketed.columns.get(1));
+
+        //View key columns first, then what the view selects
+        MemoryTable recentlyPlayed = store.table(null, "mview.recently_played");
+        assertTrue(recentlyPlayed.isView());
+        assertEquals(1, recentlyPlayed.partitionKeySize);
+        assertEquals(4, recentlyPlayed.primaryKeySize);
+        assertEquals("user_name", recentlyPlayed.columns.get(0));
+        assertEquals("last_played", recentlyPlayed.columns.get(1));
+
+        assertFalse(store.table("mview", "user_playlists").isView());
+    }
+
+    @Test
+    public void testManualStatements()
+    {
+        Session session = store.connect("manual");
+
+        PreparedStatement add = session.prepare("INSERT INTO user_playlists(user_name, playlist_name, song_id, added_time, artist_name, genre)VALUES(?,?,?,?,?,?)");
+        PreparedStatement addSong = session.prepare("INSERT INTO song_to_user(song_id, user_name, playlist_name, added_time)VALUES(?,?,?,?)");
+        PreparedStatement getLastPlayed = session.prepare("SELECT last_played from user_playlists where user_name = ? and playlist_name = ? and song_id = ?");
+        PreparedStatement updateLastPlayed = session.prepare("UPDATE user_playlists SET last_played = ? WHERE user_name = ? AND playlist_name = ? AND song_id = ?");
+        PreparedStatement getPlaylist = session.prepare("SELECT * from user_playlists where user_name = ? AND playlist_name = ?");
+        PreparedStatement deleteSong = session.prepare("DELETE FROM song_to_user where song_id = ? AND user_name = ? AND playlist_name = ?");
+        PreparedStatement deletePlaylist = session.prepare("DELETE from user_playlists where user_name = ? AND playlist_name = ?");
+
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+        batch.add(add.bind("u1", "p1", "s1", 1L, "a1", "g1"));
+        batch.add(add.bind("u1", "p1", "s2", 1L, "a2", "g1"));
+        batch.add(add.bind("u1", "p2", "s1", 1L, "a1", "g1"));
+        batch.add(addSong.bind("s1", "u1", "p1", 1L));
+        session.execute(batch);
+
+        assertEquals(2, session.execute(getPlaylist.bind("u1", "p1")).all().size());
+        assertEquals(1, store.table("manual", "song_to_user").size());
+
+        Row row = session.execute(getLastPlayed.bind("u1", "p1", "s2")).one();
+        assertTrue(row.isNull("last_played"));
+        assertEquals(1, row.getColumnDefinitions().size());
+
+        session.execute(updateLastPlayed.bind(42L, "u1", "p1", "s2"));
+        assertEquals(42L, session.execute(getLastPlayed.bind("u1", "p1", "s2")).one().getLong("last_played"));
+
+        //The update leaves the columns it doesn't set alone
+        List<Row> playlist = session.execute(getPlaylist.bind("u1", "p1")).all();
+        assertEquals("s1", playlist.get(0).getString("song_id"));
+        assertEquals("a2", playlist.get(1).getString("artist_name"));
+
+        session.execute(deletePlaylist.bind("u1", "p1"));
+        session.execute(deleteSong.bind("s1", "u1", "p1"));
+
+        assertTrue(session.execute(getPlaylist.bind("u1", "p1")).isExhausted());
+        assertEquals(1, session.execute(getPlaylist.bind("u1", "p2")).all().size());
+        assertEquals(0, store.table("manual", "song_to_user").size());
+    }
+
+    @Test
+    public void testBucketedStatements()
+    {
+        Session session = store.connect("manual_bucketed");
+
+        PreparedStatement add = session.prepare("INSERT INTO recently_played(last_played, user_name, playlist_name, song_id, time_bucket, bucket)VALUES(?,?,?,?,?,?)");
+        PreparedStatement read = session.prepare("SELECT * FROM recently_played WHERE time_bucket = ? AND bucket = ?");
+        PreparedStatement delete = session.prepare("DELETE FROM recently_played WHERE last_played = ? AND user_name = ? AND playlist_name = ? and song_id = ? AND time_bucket = ? AND bucket = ?");
+
+        session.execute(add.bind(10L, "u1", "p1", "s1", 0L, 3));
+        session.execute(add.bind(20L, "u2", "p1", "s1", 0L, 3));
+        session.execute(add.bind(20L, "u2", "p1", "s1", 0L, 4));
+
+        List<Row> rows = session.execute(read.bind(0L, 3)).all();
+        assertEquals(2, rows.size());
+        assertEquals(10L, rows.get(0).getLong("last_played"));
+
+        session.execute(delete.bind(10L, "u1", "p1", "s1", 0L, 3));
+        assertEquals(1, session.execute(read.bind(0L, 3)).all().size());
+        assertEquals(1, session.execute(read.bind(0L, 4)).all().size());
+    }
+
+    @Test
+    public void testViewsFollowTheBaseTable()
+    {
+        Session session = store.connect("mview");
+
+        PreparedStatement add = session.prepare("INSERT INTO user_playlists(user_name, playlist_name, song_id, added_time, artist_name, genre)VALUES(?,?,?,?,?,?)");
+        PreparedStatement update = session.prepare("UPDATE user_playlists SET last_played = ? WHERE user_name = ? AND playlist_name = ? AND song_id = ?");
+        PreparedStatement delete = session.prepare("DELETE FROM user_playlists WHERE user_name = ? AND playlist_name = ?");
+        PreparedStatement readSong = session.prepare("SELECT * FROM song_to_user WHERE song_id = ?");
+        PreparedStatement readRecent = session.prepare("SELECT * FROM recently_played WHERE user_name = ?");
+
+        session.execute(add.bind("u1", "p1", "s1", 1L, "a1", "g1"));
+        session.execute(add.bind("u2", "p1", "s1", 1L, "a1", "g1"));
+
+        assertEquals(2, session.execute(readSong.bind("s1")).all().size());
+        assertEquals(2, store.table("mview", "artist_to_user").size());
+
+        //No last_played yet, so nothing in the view keyed on it
+        assertTrue(session.execute(readRecent.bind("u1")).isExhausted());
+
+        session.execute(update.bind(10L, "u1", "p1", "s1"));
+        assertEquals(10L, session.execute(readRecent.bind("u1")).one().getLong("last_played"));
+
+        //Changing a view key column moves the view row rather than adding one
+        session.execute(update.bind(20L, "u1", "p1", "s1"));
+        List<Row> recent = session.execute(readRecent.bind("u1")).all();
+        assertEquals(1, recent.size());
+        assertEquals(20L, recent.get(0).getLong("last_played"));
+
+        session.execute(delete.bind("u1", "p1"));
+        assertTrue(session.execute(readRecent.bind("u1")).isExhausted());
+        assertEquals(1, session.execute(readSong.bind("s1")).all().size());
+        assertEquals(1, store.table("mview", "genre_to_user").size());
+    }
+
+    @Test
+    public void testViewsCannotBeWritten()
+    {
+        Session session = store.connect("mview");
+        PreparedStatement insert = session.prepare("INSERT INTO song_to_user(song_id, user_name, playlist_name)VALUES(?,?,?)");
+
+        try
+        {
+            session.execute(insert.bind("s1", "u1", "p1"));
+            fail();
+        }
+        catch (InvalidQueryException e)
+        {
+        }
+    }
+
+    @Test
+    public void testRejectsUnsupportedStatements()
+    {
+        Session session = store.connect("manual");
+
+        assertRejected(session, "INSERT INTO user_playlists(user_name, playlist_name, song_id)VALUES('u1',?,?)");
+        assertRejected(session, "INSERT INTO user_playlists(user_name, playlist_name)VALUES(?,?)");
+        assertRejected(session, "UPDATE user_playlists SET last_played = ? WHERE user_name = ? AND playlist_name = ?");
+        assertRejected(session, "SELECT * FROM user_playlists WHERE playlist_name = ?");
+        assertRejected(session, "SELECT * FROM user_playlists WHERE user_name = ? AND song_id = ?");
+        assertRejected(session, "SELECT * FROM user_playlists WHERE user_name = ? AND genre = ?");
+        assertRejected(session, "SELECT nope FROM user_playlists WHERE user_name = ?");
+        assertRejected(session, "SELECT * FROM nope WHERE user_name = ?");
+        assertRejected(session, "TRUNCATE user_playlists");
+    }
+
+    @Test
+    public void testParsesSchemaVariants()
+    {
+        store.load("CREATE KEYSPACE ks WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1};\n" +
+                   "USE ks;\n" +
+                   "CREATE TABLE t (id varchar PRIMARY KEY, v int) WITH comment = 'x'; -- trailing comment\n" +
+                   "CREATE TABLE ks.c (a text, b text, c bigint, PRIMARY KEY ((a, b), c));\n" +
+                   "CREATE MATERIALIZED VIEW v AS SELECT * FROM t WHERE v IS NOT NULL AND id IS NOT NULL PRIMARY KEY (v, id);");
+
+        MemoryTable t = store.table("ks", "t");
+        assertEquals(1, t.primaryKeySize);
+        assertEquals("text", t.types.get(0).getName().toString());
+
+        MemoryTable c = store.table("ks", "c");
+        assertEquals(2, c.partitionKeySize);
+        assertEquals(3, c.primaryKeySize);
+
+        MemoryTable v = store.table("ks", "v");
+        assertTrue(v.isView());
+        assertEquals("v", v.columns.get(0));
+        assertEquals(2, v.columns.size());
+
+        try
+        {
+            store.load("CREATE TABLE ks.nokey (a text, b text);");
+            fail();
+        }
+        catch (InvalidQueryException e)
+        {
+        }
+
+        try
+        {
+            store.load("CREATE TABLE nokeyspace.t (a text PRIMARY KEY);");
+            fail();
+        }
+        catch (InvalidQueryException e)
+        {
+        }
+    }
+
+    @Test
+    public void testRoutingKey()
+    {
+        PreparedStatement statement = store.connect("manual_bucketed").prepare("SELECT * FROM song_to_user WHERE song_id = ? AND bucket = ?");
+        ByteBuffer song = ByteBuffer.wrap("song_1".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer bucket = ByteBuffer.allocate(4).putInt(0, 3);
+
+        //Each component as a 2 byte length, the bytes and a 0, like the driver composes them
+        statement.setRoutingKey(song, bucket);
+        ByteBuffer expected = ByteBuffer.allocate(2 + 6 + 1 + 2 + 4 + 1);
+        expected.putShort((short) 6).put("song_1".getBytes(StandardCharsets.UTF_8)).put((byte) 0);
+        expected.putShort((short) 4).putInt(3).put((byte) 0);
+        expected.flip();
+
+        assertEquals(expected, statement.getRoutingKey());
+        assertEquals(6, song.remaining());
+
+        statement.setRoutingKey(new ByteBuffer[] { song });
+        assertEquals(song, statement.getRoutingKey());
+    }
+
+    private static void assertRejected(Session session, String query)
+    {
+        try
+        {
+            session.prepare(query);
+            fail("Prepared " + query);
+        }
+        catch (InvalidQueryException e)
+        {
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.tjake.mvbench.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntervalReservoirTest
+{
+    @Test
+    public void testIntervalsOnlyOnceStarted()
+    {
+        IntervalReservoir reservoir = new IntervalReservoir();
+        reservoir.update(10);
+        assertEquals(1, reservoir.getSnapshot().size());
+        assertEquals(0, reservoir.getIntervalHistogram().getTotalCount());
+
+        reservoir.startIntervals();
+        reservoir.update(20);
+        reservoir.update(30);
+        assertEquals(3, reservoir.getSnapshot().size());
+        assertEquals(2, reservoir.getIntervalHistogram().getTotalCount());
+        assertEquals(0, reservoir.getIntervalHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testRestartKeepsIntervals()
+    {
+        IntervalReservoir reservoir = new IntervalReservoir();
+        reservoir.startIntervals();
+        reservoir.update(10);
+
+        IntervalReservoir restarted = reservoir.restart();
+        restarted.update(20);
+
+        assertEquals(1, restarted.getSnapshot().size());
+        assertEquals(2, restarted.getIntervalHistogram().getTotalCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FactoryTest
+{
+    private static AbstractPlaylist.Factory factory(int shard, int numShards, int numUsers, KeyDistribution users)
+    {
+        SongCatalog catalog = new SongCatalog(100, 10, 5);
+        return new AbstractPlaylist.Factory(new Random(shard), shard, numShards, numUsers, 2, catalog, 0.0, 0.0,
+                                            new double[View.values().length], users, KeyDistribution.sequential(catalog.numSongs), false);
+    }
+
+    @Test
+    public void testShardsCoverEveryUser()
+    {
+        int numUsers = 10, numShards = 3;
+        assertEquals(4, AbstractPlaylist.Factory.usersInShard(0, numShards, numUsers));
+        assertEquals(3, AbstractPlaylist.Factory.usersInShard(2, numShards, numUsers));
+
+        BitSet seen = new BitSet();
+        for (int shard = 0; shard < numShards; shard++)
+        {
+            AbstractPlaylist.Factory factory = factory(shard, numShards, numUsers, KeyDistribution.parse("users", "uniform", AbstractPlaylist.Factory.usersInShard(shard, numShards, numUsers)));
+            for (int i = 0; i < 100; i++)
+            {
+                long userId = factory.next().userId;
+                assertTrue(userId >= 0 && userId < numUsers);
+                assertEquals(shard, userId % numShards);
+                seen.set((int) userId);
+            }
+        }
+
+        assertEquals(numUsers, seen.cardinality());
+    }
+
+    @Test
+    public void testMoreShardsThanUsers()
+    {
+        try
+        {
+            factory(3, 4, 3, KeyDistribution.sequential(1));
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage().contains("3 users"));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.tjake.mvbench.playlist;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyDistributionTest
+{
+    private static final int SAMPLES = 200000;
+
+    //How often each key is picked over the first SAMPLES sequences
+    private static int[] counts(KeyDistribution distribution)
+    {
+        int[] counts = new int[distribution.size];
+        for (long i = 0; i < SAMPLES; i++)
+        {
+            int key = distribution.key(i);
+            assertTrue(key >= 0 && key < distribution.size);
+            counts[key]++;
+        }
+
+        return counts;
+    }
+
+    private static double share(int[] counts, int from, int to)
+    {
+        long sum = 0;
+        for (int i = from; i < to; i++)
+            sum += counts[i];
+
+        return (double) sum / SAMPLES;
+    }
+
+    @Test
+    public void testSequential()
+    {
+        KeyDistribution distribution = KeyDistribution.sequential(10);
+        for (long i = 0; i < 100; i++)
+            assertEquals(i % 10, distribution.key(i));
+    }
+
+    @Test
+    public void testRepeatable()
+    {
+        KeyDistribution songs = KeyDistribution.parse("songs", "zipfian", 1000);
+        KeyDistribution again = KeyDistribution.parse("songs", "zipfian", 1000);
+        KeyDistribution users = KeyDistribution.parse("users", "zipfian", 1000);
+
+        int differ = 0;
+        for (long i = 0; i < 1000; i++)
+        {
+            assertEquals(songs.key(i), again.key(i));
+            if (songs.key(i) != users.key(i))
+                differ++;
+        }
+
+        //Dimensions are salted apart
+        assertTrue(differ > 500);
+    }
+
+    @Test
+    public void testUniform()
+    {
+        int[] counts = counts(KeyDistribution.parse("users", "uniform", 100));
+        for (int count : counts)
+            assertEquals(SAMPLES / 100, count, SAMPLES / 100 * 0.2);
+    }
+
+    @Test
+    public void testZipfian()
+    {
+        int size = 1000;
+        int[] counts = counts(KeyDistribution.parse("songs", "zipfian:0.99", size));
+
+        //Key 0 gets 1 / zeta(n, theta) of the picks
+        double zeta = 0;
+        for (int i = 1; i <= size; i++)
+            zeta += 1.0 / Math.pow(i, 0.99);
+
+        assertEquals(1.0 / zeta, share(counts, 0, 1), 0.01);
+        assertTrue(counts[0] > counts[1]);
+        assertTrue(counts[1] > counts[10]);
+        assertTrue(counts[10] > counts[size - 1]);
+
+        //A lower theta is less skewed
+        int[] flatter = counts(KeyDistribution.parse("songs", "zipfian:0.5", size));
+        assertTrue(flatter[0] < counts[0]);
+    }
+
+    @Test
+    public void testHotspot()
+    {
+        int[] counts = counts(KeyDistribution.parse("users", "hotspot:0.1:0.9", 1000));
+        assertEquals(0.9, share(counts, 0, 100), 0.01);
+
+        //Within each set the keys are picked alike
+        assertEquals(counts[0], counts[99], SAMPLES * 0.009 * 0.3);
+        assertEquals(counts[100], counts[999], SAMPLES * 0.1 / 900 * 0.5);
+    }
+
+    @Test
+    public void testHotspotEdges()
+    {
+        //No ops for the hot keys, then all of them
+        assertEquals(0.0, share(counts(KeyDistribution.parse("users", "hotspot:0.1:0", 1000)), 0, 100), 0.0);
+        assertEquals(1.0, share(counts(KeyDistribution.parse("users", "hotspot:0.1:1", 1000)), 0, 100), 0.0);
+
+        //Every key hot, whatever their share of the ops, is uniform rather than piling onto the last key
+        for (String spec : new String[] { "hotspot:1:0.5", "hotspot:1:0", "hotspot:1:1" })
+        {
+            KeyDistribution distribution = KeyDistribution.parse("users", spec, 100);
+            int[] counts = counts(distribution);
+            for (int count : counts)
+                assertEquals(spec, SAMPLES / 100, count, SAMPLES / 100 * 0.2);
+
+            assertEquals(0, distribution.key(0, 0.0));
+            assertEquals(99, distribution.key(0, Math.nextAfter(1.0, 0)));
+        }
+
+        //Fewer keys than the hot fraction gives still has one hot key
+        assertEquals(1.0, share(counts(KeyDistribution.parse("users", "hotspot:0.01:1", 10)), 0, 1), 0.0);
+    }
+
+    @Test
+    public void testLatest()
+    {
+        int size = 1000;
+        KeyDistribution distribution = KeyDistribution.parse("songs", "latest", size);
+
+        //The most popular key is the one picked at this sequence, then the ones before it
+        for (long sequence : new long[] { 0, 5, 999, 1000, 123456 })
+            assertEquals(sequence % size, distribution.key(sequence, 0.0));
+
+        int recent = 0;
+        for (long i = 0; i < SAMPLES; i++)
+        {
+            int key = distribution.key(i);
+            assertTrue(key >= 0 && key < size);
+
+            long behind = (i - key) % size;
+            if ((behind < 0 ? behind + size : behind) < 10)
+                recent++;
+        }
+
+        //About what zipfian gives the 10 most popular keys
+        assertTrue(recent > SAMPLES * 0.35);
+    }
+
+    @Test
+    public void testBadSpecs()
+    {
+        for (String spec : new String[] { "nope", "zipfian:1.0", "zipfian:0", "latest:x", "hotspot:0.1", "hotspot:0:0.5", "hotspot:1.5:0.5", "hotspot:0.1:-1", "uniform:1" })
+        {
+            try
+            {
+                KeyDistribution.parse("users", spec, 100);
+                fail(spec);
+            }
+            catch (IllegalArgumentException e)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.github.tjake.mvbench.backend.ErrorDistribution;
+import com.github.tjake.mvbench.backend.LatencyDistribution;
+import com.github.tjake.mvbench.backend.MemoryStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs manual operations against the in memory backend
+ */
+public class ManualPlaylistTest
+{
+    private MemoryStore store;
+    private Session session;
+    private SongCatalog catalog;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        store = new MemoryStore(LatencyDistribution.parse("exponential:100"), ErrorDistribution.NONE, 1);
+        store.load(new File("bench_schema.cql"));
+        session = store.connect("manual");
+        catalog = new SongCatalog(100, 10, 5);
+
+        //The statements are prepared once per run, against the store of an earlier test here
+        ManualPlaylist.addplaylist = null;
+        ManualPlaylist.updatelastplayed = null;
+        ManualPlaylist.deleteplaylist = null;
+        ManualPlaylist.deleterecentlyplayed = null;
+
+        AbstractPlaylist.setExecutionMode(AbstractPlaylist.ExecutionMode.POOLED);
+        AbstractPlaylist.limiter = InFlightLimiter.fixed(10);
+    }
+
+    @After
+    public void tearDown()
+    {
+        AbstractPlaylist.prober = null;
+        store.close();
+    }
+
+    /**
+     * Throws instead of sending the write that follows the read
+     */
+    private ManualPlaylist throwingOnWrite(AbstractPlaylist.Type type)
+    {
+        return new ManualPlaylist(catalog, 1, 1, new int[] { 1, 2 }, type)
+        {
+            private int sent = 0;
+
+            @Override
+            protected ResultSetFuture send(Session session, Statement statement)
+            {
+                if (++sent > 1)
+                    throw new IllegalStateException("injected");
+
+                return super.send(session, statement);
+            }
+        };
+    }
+
+    private void run(AbstractPlaylist op) throws InterruptedException
+    {
+        AbstractPlaylist.limiter.acquire();
+        op.write(session);
+
+        //Only returns once the operation gave its permit back
+        Thread drain = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                AbstractPlaylist.limiter.drain();
+            }
+        };
+        drain.start();
+        drain.join(10000);
+
+        assertFalse("The operation never finished", drain.isAlive());
+    }
+
+    @Test
+    public void testCompletes() throws InterruptedException
+    {
+        long completed = AbstractPlaylist.totalTimer.getCount();
+
+        run(new ManualPlaylist(catalog, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.ADD));
+        run(new ManualPlaylist(catalog, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.UPDATE));
+        run(new ManualPlaylist(catalog, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.DELETE));
+
+        assertEquals(completed + 3, AbstractPlaylist.totalTimer.getCount());
+        assertEquals(0, store.table("manual", "user_playlists").size());
+    }
+
+    @Test
+    public void testWriteAfterReadThrows() throws InterruptedException
+    {
+        long errors = AbstractPlaylist.errorTimer.getCount();
+        long inFlight = AbstractPlaylist.tracker.get();
+
+        run(new ManualPlaylist(catalog, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.ADD));
+        run(throwingOnWrite(AbstractPlaylist.Type.UPDATE));
+        run(throwingOnWrite(AbstractPlaylist.Type.DELETE));
+
+        assertEquals(errors + 2, AbstractPlaylist.errorTimer.getCount());
+        assertEquals(inFlight, AbstractPlaylist.tracker.get());
+    }
+
+    @Test
+    public void testProbesFromTheDriverThread() throws InterruptedException
+    {
+        //Callbacks, and so the prober, run where each response arrives
+        AbstractPlaylist.setExecutionMode(AbstractPlaylist.ExecutionMode.INLINE);
+        ConvergenceProber prober = new ConvergenceProber(session, 1.0, 1, 1000, 100);
+        AbstractPlaylist.prober = prober;
+
+        long converged = View.SONG_TO_USER.lag.getCount();
+
+        run(new ManualPlaylist(catalog, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.ADD));
+
+        //The operation gives its permit back before it hands the write to the prober
+        long deadline = System.currentTimeMillis() + 10000;
+        while (View.SONG_TO_USER.lag.getCount() == converged && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        prober.drain();
+        assertEquals(converged + 1, View.SONG_TO_USER.lag.getCount());
+    }
+}
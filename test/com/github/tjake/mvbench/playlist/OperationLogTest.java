@@ -0,0 +1,135 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OperationLogTest
+{
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("operations", ".log");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    private static SongCatalog catalog(String artists, String genres)
+    {
+        return new SongCatalog(1000, KeyDistribution.parse("artists", artists, 100), KeyDistribution.parse("genres", genres, 10));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        SongCatalog catalog = catalog("zipfian:0.9", "uniform");
+
+        AbstractPlaylist[] written = new AbstractPlaylist[] {
+            AbstractPlaylist.create(catalog, false, 7, 3, new int[] { 1, 2, 999 }, AbstractPlaylist.Type.ADD),
+            AbstractPlaylist.create(catalog, false, 7, 3, new int[] { 1, 2, 999 }, AbstractPlaylist.Type.UPDATE),
+            AbstractPlaylist.create(catalog, false, Long.MAX_VALUE, -1, new int[] { 5 }, AbstractPlaylist.Type.READ_RECENT),
+            AbstractPlaylist.create(catalog, false, 7, 3, new int[0], AbstractPlaylist.Type.DELETE)
+        };
+
+        OperationLog.Writer writer = new OperationLog.Writer(file, catalog);
+        for (int i = 0; i < written.length; i++)
+            writer.append(i * 1000L, written[i]);
+
+        writer.close();
+        assertEquals(written.length, writer.count());
+
+        OperationLog.Reader reader = new OperationLog.Reader(file, catalog("zipfian:0.9", "uniform"), true);
+        try
+        {
+            for (int i = 0; i < written.length; i++)
+            {
+                AbstractPlaylist read = reader.next();
+                assertEquals(i * 1000L, reader.offsetNanos());
+                assertEquals(written[i].type, read.type);
+                assertEquals(written[i].userId, read.userId);
+                assertEquals(written[i].playlistId, read.playlistId);
+                assertArrayEquals(written[i].songs, read.songs);
+
+                //Replayed to the manual schema as asked, whatever it was recorded from
+                assertTrue(read instanceof ManualPlaylist);
+            }
+
+            assertNull(reader.next());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRejectsAnotherCatalog() throws IOException
+    {
+        new OperationLog.Writer(file, catalog("zipfian:0.9", "uniform")).close();
+
+        assertRejected(new SongCatalog(1000, 100, 10), "--artist-distribution zipfian:0.9");
+        assertRejected(catalog("zipfian:0.9", "hotspot:0.1:0.9"), "--genre-distribution uniform");
+        assertRejected(new SongCatalog(2000, KeyDistribution.parse("artists", "zipfian:0.9", 100), KeyDistribution.parse("genres", "uniform", 10)), "1000 songs");
+
+        //Same spec, but keys hashed for another dimension
+        assertRejected(new SongCatalog(1000, KeyDistribution.parse("users", "zipfian:0.9", 100), KeyDistribution.parse("genres", "uniform", 10)), "salt");
+    }
+
+    @Test
+    public void testRejectsTruncatedLogs() throws IOException
+    {
+        SongCatalog catalog = catalog("sequential", "sequential");
+
+        OperationLog.Writer writer = new OperationLog.Writer(file, catalog);
+        writer.append(0, AbstractPlaylist.create(catalog, false, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.ADD));
+        writer.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        OperationLog.Reader reader = new OperationLog.Reader(file, catalog, false);
+        try
+        {
+            reader.next();
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("Truncated"));
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void assertRejected(SongCatalog catalog, String reason)
+    {
+        try
+        {
+            new OperationLog.Reader(file, catalog, false).close();
+            fail("Replayed with another catalog");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+}
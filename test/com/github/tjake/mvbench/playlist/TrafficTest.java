@@ -0,0 +1,108 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.github.tjake.mvbench.backend.ErrorDistribution;
+import com.github.tjake.mvbench.backend.LatencyDistribution;
+import com.github.tjake.mvbench.backend.MemoryResultSet;
+import com.github.tjake.mvbench.backend.MemoryStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficTest
+{
+    //Its meters are registered once per run
+    private static final Traffic traffic = new Traffic();
+
+    private MemoryStore store;
+    private Session session;
+    private PreparedStatement add;
+    private PreparedStatement select;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        store = new MemoryStore(LatencyDistribution.NONE, ErrorDistribution.NONE, 1);
+        store.load(new File("bench_schema.cql"));
+        session = store.connect("manual");
+
+        add = session.prepare("INSERT INTO user_playlists(user_name, playlist_name, song_id, added_time, artist_name, genre)VALUES(?,?,?,?,?,?)");
+        select = session.prepare("SELECT * from user_playlists where user_name = ? AND playlist_name = ?");
+    }
+
+    @After
+    public void tearDown()
+    {
+        store.close();
+    }
+
+    @Test
+    public void testEncodedSize()
+    {
+        BoundStatement bound = add.bind("user_1", "playlist_1", "song_1", 1L, "artist_1", "genre_1");
+
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+        batch.add(bound);
+        batch.add(add.bind("user_1", "playlist_1", "song_2", 1L, "artist_2", "genre_1"));
+
+        //The frame header and the body the driver would write
+        ByteBuf buffer = Unpooled.buffer();
+        assertEquals(9 + DriverInternals.encode(bound, buffer), DriverInternals.encodedSize(bound));
+
+        buffer.clear();
+        int batchSize = DriverInternals.encode(batch, buffer);
+        assertEquals(9 + batchSize, DriverInternals.encodedSize(batch));
+
+        //Each entry is its kind, prepared id and values, inside the batch's own framing
+        assertTrue(DriverInternals.batchEntrySize(bound) * 2 < batchSize);
+        assertEquals(1 + 2 + 16 + 2 + 6 * 4 + "user_1playlist_1song_1".length() + 8 + "artist_1genre_1".length(),
+                     DriverInternals.batchEntrySize(bound));
+    }
+
+    @Test
+    public void testCountsBytesPerOperation() throws Exception
+    {
+        AbstractPlaylist op = AbstractPlaylist.create(new SongCatalog(10, 5, 2), true, 1, 1, new int[] { 1, 2 }, AbstractPlaylist.Type.DELETE);
+
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+        batch.add(add.bind("user_1", "playlist_1", "song_1", 1L, "artist_1", "genre_1"));
+        batch.add(add.bind("user_1", "playlist_1", "song_2", 1L, "artist_2", "genre_1"));
+
+        Meter sent = AbstractPlaylist.registry.meter("delete-request-bytes");
+        Meter received = AbstractPlaylist.registry.meter("delete-response-bytes");
+        long requestBytes = sent.getCount();
+        long responseBytes = received.getCount();
+
+        traffic.send(session, batch, op).get();
+        assertEquals(2, op.mutationsSent);
+        assertEquals(DriverInternals.encodedSize(batch), op.bytesSent);
+        assertEquals(13, op.bytesReceived);
+
+        ResultSet rows = traffic.send(session, select.bind("user_1", "playlist_1"), op).get();
+        assertEquals(2, rows.getAvailableWithoutFetching());
+        assertEquals(2, op.mutationsSent);
+        assertEquals(DriverInternals.encodedSize(batch) + DriverInternals.encodedSize(select.bind("user_1", "playlist_1")), op.bytesSent);
+
+        long readBytes = op.bytesReceived - 13;
+        assertEquals(Traffic.memoryResponseSize((MemoryResultSet) session.execute(select.bind("user_1", "playlist_1"))), readBytes);
+        assertTrue(readBytes > 2 * "user_1playlist_1song_1artist_1genre_1".length());
+
+        assertEquals(op.bytesSent, sent.getCount() - requestBytes);
+        assertEquals(op.bytesReceived, received.getCount() - responseBytes);
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.tjake.mvbench.playlist;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.github.tjake.mvbench.backend.ErrorDistribution;
+import com.github.tjake.mvbench.backend.LatencyDistribution;
+import com.github.tjake.mvbench.backend.MemoryStore;
+import com.github.tjake.mvbench.backend.MemoryTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WorkloadTest
+{
+    private static Properties properties()
+    {
+        Properties properties = new Properties();
+        properties.setProperty("keyspace", "test");
+        properties.setProperty("base.table", "user_playlists");
+        properties.setProperty("base.columns", "user_name:text:user, playlist_name:text:playlist, song_id:text:song, added_time:bigint:added, last_played:bigint:played");
+        properties.setProperty("base.key", "user_name, playlist_name, song_id");
+        return properties;
+    }
+
+    @Test
+    public void testParse()
+    {
+        Properties properties = properties();
+        properties.setProperty("views", "song_to_user, recently_played");
+        properties.setProperty("view.song_to_user.key", "(song_id, user_name), playlist_name");
+        properties.setProperty("view.song_to_user.columns", "added_time");
+        properties.setProperty("view.recently_played.key", "user_name, last_played, playlist_name, song_id");
+        properties.setProperty("mix.update", "0.2");
+
+        Workload workload = Workload.parse(properties);
+
+        assertEquals(3, workload.base.primaryKeySize);
+        assertEquals(1, workload.base.partitionKeySize);
+        assertEquals(5, workload.base.columns.size());
+        assertEquals(0.2, workload.percentUpdate, 0.0);
+        assertEquals(-1, workload.percentDelete, 0.0);
+
+        Workload.Table songs = workload.views.get(0);
+        assertEquals(2, songs.partitionKeySize);
+        assertEquals(3, songs.primaryKeySize);
+        assertEquals("added_time", songs.columns.get(3).name);
+        assertFalse(songs.has(Workload.Source.PLAYED));
+
+        Workload.Table recent = workload.views.get(1);
+        assertTrue(recent.keyHas(Workload.Source.PLAYED));
+        assertEquals(Workload.Source.PLAYED, recent.columns.get(1).source);
+
+        assertEquals("test_mview_2", workload.keyspace(false));
+        assertEquals("test_manual_1", workload.withViews(1).keyspace(true));
+        assertEquals(0, workload.withViews(0).views.size());
+    }
+
+    @Test
+    public void testStatements()
+    {
+        Workload workload = Workload.parse(properties());
+
+        assertEquals("INSERT INTO user_playlists(user_name, playlist_name, song_id)VALUES(?,?,?)", workload.insert(workload.base, workload.base.primaryKey()));
+        assertEquals("UPDATE user_playlists SET last_played = ? WHERE user_name = ? AND playlist_name = ? AND song_id = ?", workload.update(workload.base.columns.get(4)));
+        assertEquals("DELETE FROM user_playlists WHERE user_name = ? AND playlist_name = ?", workload.delete(workload.base, workload.base.primaryKey().subList(0, 2)));
+        assertEquals("SELECT * FROM user_playlists WHERE user_name = ? AND playlist_name = ? AND song_id = ?", workload.select(workload.base.primaryKey()));
+    }
+
+    @Test
+    public void testBundledWorkloadSchema() throws IOException
+    {
+        Workload workload = Workload.load(new File("playlists.workload"));
+        assertEquals(6, workload.views.size());
+
+        //The generated schema of either mode loads with the same keys
+        for (boolean isManual : new boolean[] { true, false })
+        {
+            MemoryStore store = new MemoryStore(LatencyDistribution.NONE, ErrorDistribution.NONE, 1);
+            try
+            {
+                store.load(workload.schema(isManual));
+
+                for (Workload.Table table : workload.views)
+                {
+                    MemoryTable loaded = store.table(workload.keyspace(isManual), table.name);
+                    assertEquals(!isManual, loaded.isView());
+                    assertEquals(table.partitionKeySize, loaded.partitionKeySize);
+                    assertEquals(table.primaryKeySize, loaded.primaryKeySize);
+                    assertEquals(table.columns.get(0).name, loaded.columns.get(0));
+                }
+            }
+            finally
+            {
+                store.close();
+            }
+        }
+    }
+
+    @Test
+    public void testViewKeyValidation()
+    {
+        //Missing a column of the base key
+        assertRejected("song_id, user_name", null, "missing playlist_name");
+
+        //Two columns that aren't in the base key
+        assertRejected("song_id, user_name, playlist_name, added_time, last_played", null, "only have one column");
+
+        //Unknown column
+        assertRejected("song_id, user_name, playlist_name", "nope", "Unknown column nope");
+
+        //One other column, leading or not, is fine
+        Properties properties = properties();
+        properties.setProperty("views", "a, b");
+        properties.setProperty("view.a.key", "added_time, user_name, playlist_name, song_id");
+        properties.setProperty("view.b.key", "(playlist_name, user_name), song_id, last_played");
+        assertEquals(2, Workload.parse(properties).views.size());
+    }
+
+    @Test
+    public void testBaseValidation()
+    {
+        assertRejected("base.key", "song_id, user_name, playlist_name", "user and playlist first");
+        assertRejected("base.key", "user_name, playlist_name", "user and playlist first");
+        assertRejected("base.columns", "user_name:text:user, playlist_name:text:playlist, song_id:bigint:song", "must be text");
+        assertRejected("base.columns", "user_name:text:user, playlist_name:text:playlist, song_id:text:song, other:text:song", "More than one column");
+        assertRejected("base.columns", "user_name:text, playlist_name:text:playlist, song_id:text:song", "name:type:source");
+        assertRejected("keyspace", "", "no keyspace");
+
+        try
+        {
+            Workload.parse(properties()).withViews(1);
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    private static void assertRejected(String key, String columns, String reason)
+    {
+        Properties properties = properties();
+        if (key.startsWith("base.") || key.equals("keyspace"))
+        {
+            properties.setProperty(key, columns);
+        }
+        else
+        {
+            properties.setProperty("views", "v");
+            properties.setProperty("view.v.key", key);
+            if (columns != null)
+                properties.setProperty("view.v.columns", columns);
+        }
+
+        try
+        {
+            Workload.parse(properties);
+            fail("Parsed " + properties);
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+}